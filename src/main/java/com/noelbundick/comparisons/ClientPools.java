@@ -0,0 +1,171 @@
+package com.noelbundick.comparisons;
+
+import com.azure.core.http.HttpClient;
+import com.azure.core.http.netty.NettyAsyncHttpClientBuilder;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.core.http.policy.TimeoutPolicy;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Connection pools for the backend clients, sized from application.properties.
+ * The Azure clients share one pool and run on the same Netty event loops as WebFlux.
+ * Elasticsearch's client is built on Apache HttpAsyncClient, so it gets its own IO reactor threads.
+ */
+@Component
+public class ClientPools {
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final Duration connectTimeout;
+    private final Duration responseTimeout;
+    private final Duration keepAlive;
+    private final int ioThreads;
+    private final ReactorResourceFactory resourceFactory;
+    private final MeterRegistry registry;
+
+    private final AtomicInteger azureActive = new AtomicInteger();
+    private HttpClient azureHttpClient;
+
+    public ClientPools(@Value("${clients.max-connections:100}") int maxConnections,
+                       @Value("${clients.max-connections-per-route:50}") int maxConnectionsPerRoute,
+                       @Value("${clients.connect-timeout:5s}") Duration connectTimeout,
+                       @Value("${clients.response-timeout:60s}") Duration responseTimeout,
+                       @Value("${clients.keep-alive:30s}") Duration keepAlive,
+                       @Value("${clients.io-threads:0}") int ioThreads,
+                       ReactorResourceFactory resourceFactory,
+                       MeterRegistry registry) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.connectTimeout = connectTimeout;
+        this.responseTimeout = responseTimeout;
+        this.keepAlive = keepAlive;
+        this.ioThreads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+        this.resourceFactory = resourceFactory;
+        this.registry = registry;
+    }
+
+    /**
+     * One HttpClient for every Azure SDK client, so they share connections and event loops
+     */
+    public synchronized HttpClient azureHttpClient() {
+        if (azureHttpClient == null) {
+            NettyAsyncHttpClientBuilder builder = new NettyAsyncHttpClientBuilder()
+                .connectionProvider(ConnectionProvider.fixed("azure", maxConnections, connectTimeout.toMillis(), keepAlive));
+
+            // The SDK only accepts NIO loops, which is what WebFlux uses unless native transports are available
+            EventLoopGroup loops = resourceFactory.getLoopResources().onClient(false);
+            if (loops instanceof NioEventLoopGroup) {
+                builder.nioEventLoopGroup((NioEventLoopGroup) loops);
+            }
+            azureHttpClient = builder.build();
+
+            gauge("azure", "active", azureActive, AtomicInteger::get);
+            gauge("azure", "max", this, pools -> pools.maxConnections);
+        }
+        return azureHttpClient;
+    }
+
+    /**
+     * A separate HttpClient with its own connections and event loops, so traffic sent through it, like bulk uploads,
+     * doesn't queue for the connections or the loops that interactive requests use
+     */
+    public HttpClient azureHttpClient(String name, int maxConnections, int ioThreads) {
+        ConnectionProvider provider = ConnectionProvider.fixed(name, maxConnections, connectTimeout.toMillis(), keepAlive);
+        gauge(name, "max", provider, p -> maxConnections);
+        return new NettyAsyncHttpClientBuilder()
+            .connectionProvider(provider)
+            .nioEventLoopGroup(new NioEventLoopGroup(ioThreads, new DefaultThreadFactory(name, true)))
+            .build();
+    }
+
+    /**
+     * Per-attempt response timeout for the Azure clients, which also tracks requests in flight
+     */
+    public HttpPipelinePolicy azureTimeoutPolicy() {
+        TimeoutPolicy timeout = new TimeoutPolicy(responseTimeout);
+        return (context, next) -> Mono.defer(() -> {
+            azureActive.incrementAndGet();
+            return timeout.process(context, next)
+                .doFinally(signal -> azureActive.decrementAndGet());
+        });
+    }
+
+    /**
+     * A RestClient builder for Elasticsearch with a pooled connection manager
+     */
+    public RestClientBuilder elasticsearch(String endpoint) {
+        return elasticsearch(endpoint, "elasticsearch", maxConnections, maxConnectionsPerRoute, ioThreads);
+    }
+
+    /**
+     * A RestClient builder for Elasticsearch with a pool and IO threads of its own, reported under the given name
+     */
+    public RestClientBuilder elasticsearch(String endpoint, String name, int maxConnections, int ioThreads) {
+        return elasticsearch(endpoint, name, maxConnections, maxConnections, ioThreads);
+    }
+
+    private RestClientBuilder elasticsearch(String endpoint, String name, int maxConnections, int maxConnectionsPerRoute,
+                                            int ioThreads) {
+        PoolingNHttpClientConnectionManager connectionManager =
+            elasticsearchConnectionManager(name, maxConnections, maxConnectionsPerRoute, ioThreads);
+
+        return RestClient.builder(HttpHost.create(endpoint))
+            .setRequestConfigCallback(config -> config
+                .setConnectTimeout((int) connectTimeout.toMillis())
+                .setConnectionRequestTimeout((int) connectTimeout.toMillis())
+                .setSocketTimeout((int) responseTimeout.toMillis()))
+            .setHttpClientConfigCallback(client -> client
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> keepAlive.toMillis()));
+    }
+
+    private PoolingNHttpClientConnectionManager elasticsearchConnectionManager(String name, int maxConnections,
+                                                                               int maxConnectionsPerRoute, int ioThreads) {
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+            .setIoThreadCount(ioThreads)
+            .setConnectTimeout((int) connectTimeout.toMillis())
+            .setSoKeepAlive(true)
+            .build();
+
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+        } catch (IOReactorException e) {
+            throw new RuntimeException(e);
+        }
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        gauge(name, "leased", connectionManager, cm -> cm.getTotalStats().getLeased());
+        gauge(name, "available", connectionManager, cm -> cm.getTotalStats().getAvailable());
+        gauge(name, "pending", connectionManager, cm -> cm.getTotalStats().getPending());
+        gauge(name, "max", connectionManager, cm -> cm.getTotalStats().getMax());
+        return connectionManager;
+    }
+
+    private <T> void gauge(String client, String state, T obj, ToDoubleFunction<T> value) {
+        Gauge.builder("clients.pool.connections", obj, value)
+            .tag("client", client)
+            .tag("state", state)
+            .register(registry);
+    }
+}
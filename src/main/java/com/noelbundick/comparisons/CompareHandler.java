@@ -0,0 +1,217 @@
+package com.noelbundick.comparisons;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.noelbundick.comparisons.search.SearchHandler;
+import com.noelbundick.comparisons.web.BufferedResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Runs one SearchHandler operation against every backend at once and reports how each did, timed on the server.
+ * mode=both waits for all of them, each read up to its own timeout. Writes always run to completion, since stopping
+ * one halfway would leave its backend half-written. mode=race hedges a read: the primary backend is called
+ * first, the others after hedge milliseconds (0 by default, a plain race), and the first success wins while the
+ * rest are cancelled.
+ */
+class CompareHandler {
+    static final String COMPARISONS = "search.compare";
+
+    // Only reads are safe to cancel halfway
+    private static final Set<String> HEDGEABLE = new HashSet<>(Arrays.asList(
+        "count", "search", "searchWithPaging", "searchWithFacets", "searchWithCustomTypes", "searchNearby"));
+
+    private final Map<String, RouteBuilder.HandlerInvoker<SearchHandler>> invokers;
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+    private final MeterRegistry registry;
+
+    CompareHandler(RouteBuilder<SearchHandler> routeBuilder, MeterRegistry registry) {
+        this.invokers = routeBuilder.invokers();
+        this.registry = registry;
+    }
+
+    CompareHandler backend(String name, SearchHandler handler, Duration timeout) {
+        backends.put(name, new Backend(name, handler, timeout));
+        return this;
+    }
+
+    Mono<ServerResponse> compare(ServerRequest request) {
+        String operation = request.pathVariable("operation");
+        RouteBuilder.HandlerInvoker<SearchHandler> invoker = invokers.get(operation);
+        if (invoker == null) {
+            return ServerResponse.notFound().build();
+        }
+
+        Duration timeout = request.queryParam("timeout").map(ms -> Duration.ofMillis(Long.parseLong(ms))).orElse(null);
+        String mode = request.queryParam("mode").orElse("both");
+        if ("race".equals(mode)) {
+            if (!HEDGEABLE.contains(operation)) {
+                return ServerResponse.badRequest().bodyValue(String.format("%s writes, so it can't be raced", operation));
+            }
+            return race(request, operation, invoker, timeout);
+        }
+        return both(request, operation, invoker, timeout);
+    }
+
+    private Mono<ServerResponse> both(ServerRequest request, String operation, RouteBuilder.HandlerInvoker<SearchHandler> invoker, Duration timeout) {
+        List<Mono<Result>> calls = new ArrayList<>();
+        for (Backend backend : backends.values()) {
+            calls.add(call(backend, request, operation, invoker, timeout));
+        }
+
+        return Mono.zip(calls, results -> {
+            Map<String, Object> comparison = new LinkedHashMap<>();
+            comparison.put("operation", operation);
+            comparison.put("mode", "both");
+            int i = 0;
+            for (String name : backends.keySet()) {
+                comparison.put(name, results[i++]);
+            }
+            return comparison;
+        })
+            .flatMap(comparison -> ok().bodyValue(comparison));
+    }
+
+    private Mono<ServerResponse> race(ServerRequest request, String operation, RouteBuilder.HandlerInvoker<SearchHandler> invoker, Duration timeout) {
+        String primary = request.queryParam("primary").orElse(backends.keySet().iterator().next());
+        if (!backends.containsKey(primary)) {
+            return ServerResponse.badRequest().bodyValue(String.format("No backend named %s", primary));
+        }
+        Duration hedge = Duration.ofMillis(request.queryParam("hedge").map(Long::parseLong).orElse(0L));
+
+        List<Mono<Result>> calls = new ArrayList<>();
+        calls.add(call(backends.get(primary), request, operation, invoker, timeout));
+        for (Backend backend : backends.values()) {
+            if (!backend.name.equals(primary)) {
+                calls.add(call(backend, request, operation, invoker, timeout).delaySubscription(hedge));
+            }
+        }
+
+        // Stop at the first success, which cancels whichever calls are still waiting or running
+        return Flux.merge(calls)
+            .takeUntil(Result::succeeded)
+            .collectList()
+            .flatMap(results -> {
+                Result last = results.get(results.size() - 1);
+                Map<String, Object> comparison = new LinkedHashMap<>();
+                comparison.put("operation", operation);
+                comparison.put("mode", "race");
+                comparison.put("primary", primary);
+                comparison.put("hedgeMs", hedge.toMillis());
+                comparison.put("winner", last.succeeded() ? last.backend : null);
+                for (Result result : results) {
+                    comparison.put(result.backend, result);
+                }
+                // No winner means every backend failed
+                return ServerResponse.status(last.succeeded() ? 200 : 502).bodyValue(comparison);
+            });
+    }
+
+    // A single backend's answer, buffered so it can be timed in full and embedded in the comparison.
+    // Failures and timeouts become results rather than failing the comparison. Only reads are timed out
+    private Mono<Result> call(Backend backend, ServerRequest request, String operation,
+                              RouteBuilder.HandlerInvoker<SearchHandler> invoker, Duration timeout) {
+        Duration limit = timeout != null ? timeout : backend.timeout;
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Mono<BufferedResponse> response = RouteBuilder.dispatch(invoker, backend.handler, request)
+                .flatMap(BufferedResponse::from);
+            if (HEDGEABLE.contains(operation)) {
+                response = response.timeout(limit);
+            }
+            return response
+                .map(res -> new Result(backend.name, res.status(), elapsed(start), res.body(), null))
+                .onErrorResume(TimeoutException.class, err -> Mono.just(new Result(backend.name, 504, elapsed(start), null,
+                    String.format("No response within %dms", limit.toMillis()))))
+                .onErrorResume(err -> Mono.just(new Result(backend.name, 500, elapsed(start), null, err.toString())))
+                .doOnNext(result -> record(backend.name, operation, result));
+        });
+    }
+
+    private void record(String backend, String operation, Result result) {
+        Timer.builder(COMPARISONS)
+            .tag("backend", backend)
+            .tag("method", operation)
+            .tag("status", Integer.toString(result.status))
+            .description("Time for one backend to answer a comparison")
+            .publishPercentiles(0.5, 0.99, 0.999)
+            .register(registry)
+            .record(Math.round(result.timeMs * 1000), TimeUnit.MICROSECONDS);
+    }
+
+    private static double elapsed(long start) {
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+
+    private static class Backend {
+        final String name;
+        final SearchHandler handler;
+        final Duration timeout;
+
+        Backend(String name, SearchHandler handler, Duration timeout) {
+            this.name = name;
+            this.handler = handler;
+            this.timeout = timeout;
+        }
+    }
+
+    static class Result {
+        private final String backend;
+
+        @JsonProperty(value = "status")
+        private final int status;
+
+        @JsonProperty(value = "timeMs")
+        private final double timeMs;
+
+        @JsonProperty(value = "body")
+        private final Object body;
+
+        @JsonProperty(value = "error")
+        private final String error;
+
+        Result(String backend, int status, double timeMs, Object body, String error) {
+            this.backend = backend;
+            this.status = status;
+            this.timeMs = timeMs;
+            this.body = body;
+            this.error = error;
+        }
+
+        boolean succeeded() {
+            return error == null && status < 500;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public double timeMs() {
+            return timeMs;
+        }
+
+        public Object body() {
+            return body;
+        }
+
+        public String error() {
+            return error;
+        }
+    }
+}
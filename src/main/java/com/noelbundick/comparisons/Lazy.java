@@ -0,0 +1,53 @@
+package com.noelbundick.comparisons;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A value that's built the first time it's needed, once, however many callers need it at the same time
+ */
+class Lazy<T> {
+    private final Supplier<T> factory;
+    private volatile T value;
+
+    Lazy(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    T get() {
+        T built = value;
+        if (built == null) {
+            synchronized (this) {
+                built = value;
+                if (built == null) {
+                    built = factory.get();
+                    value = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * The value, built off the calling thread if it isn't yet. Building a client can resolve hosts and start threads,
+     * which mustn't hold up an event loop.
+     */
+    Mono<T> async() {
+        T built = value;
+        if (built != null) {
+            return Mono.just(built);
+        }
+        return Mono.fromSupplier(this::get).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * What the function makes of the value, or null if it hasn't been built
+     */
+    <R> R ifBuilt(Function<T, R> function) {
+        T built = value;
+        return built != null ? function.apply(built) : null;
+    }
+}
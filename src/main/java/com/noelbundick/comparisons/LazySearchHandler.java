@@ -0,0 +1,84 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.function.BiFunction;
+
+/**
+ * A SearchHandler whose backend, clients and all, is only built when its first request arrives
+ */
+class LazySearchHandler implements SearchHandler {
+    private final Lazy<? extends SearchHandler> handler;
+
+    LazySearchHandler(Lazy<? extends SearchHandler> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Mono<ServerResponse> errorHandling(ServerRequest request) {
+        return call(request, SearchHandler::errorHandling);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexing(ServerRequest request) {
+        return call(request, SearchHandler::indexing);
+    }
+
+    @Override
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        return call(request, SearchHandler::bulkIndexing);
+    }
+
+    @Override
+    public Mono<ServerResponse> clear(ServerRequest request) {
+        return call(request, SearchHandler::clear);
+    }
+
+    @Override
+    public Mono<ServerResponse> count(ServerRequest request) {
+        return call(request, SearchHandler::count);
+    }
+
+    @Override
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return call(request, SearchHandler::search);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
+        return call(request, SearchHandler::searchWithPaging);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return call(request, SearchHandler::searchWithFacets);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
+        return call(request, SearchHandler::searchWithCustomTypes);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        return call(request, SearchHandler::searchNearby);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexManagement(ServerRequest request) {
+        return call(request, SearchHandler::indexManagement);
+    }
+
+    @Override
+    public Mono<ServerResponse> reset(ServerRequest request) {
+        return call(request, SearchHandler::reset);
+    }
+
+    private Mono<ServerResponse> call(ServerRequest request,
+                                      BiFunction<SearchHandler, ServerRequest, Mono<ServerResponse>> operation) {
+        return handler.async().flatMap(built -> operation.apply(built, request));
+    }
+}
@@ -1,42 +1,109 @@
 package com.noelbundick.comparisons;
 
 import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Mono;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Optional;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Uses a type to generate GET methods for each of its methods
  */
 class RouteBuilder<T> {
-    private Class<T> clazz;
+    private final Map<String, HandlerInvoker<T>> invokers;
 
     RouteBuilder(Class<T> clazz) {
-        this.clazz = clazz;
+        this.invokers = bindAll(clazz);
     }
 
-    @SuppressWarnings("unchecked")
     RouterFunctions.Builder buildRoutes(RouterFunctions.Builder builder, T handler) {
-        Method[] methods = clazz.getMethods();
-
-        for (Method m : methods) {
-            builder.GET(m.getName(), req -> {
-                try {
-                    return Optional.ofNullable((Mono<ServerResponse>)m.invoke(handler, req))
-                        .orElse(ServerResponse.status(500).bodyValue("Not implemented"))
-                        .onErrorResume(e -> {
-                            e.printStackTrace();
-                            return ServerResponse.status(500)
-                                .bodyValue(String.format("There was an unexpected error: %s", e));
-                        });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new RuntimeException(e);
-                }
-            });
+        for (Map.Entry<String, HandlerInvoker<T>> entry : invokers.entrySet()) {
+            HandlerInvoker<T> invoker = entry.getValue();
+            builder.GET(entry.getKey(), req -> dispatch(invoker, handler, req));
+        }
+        return builder;
+    }
+
+    /**
+     * Same as buildRoutes, but records metrics for each route
+     */
+    RouterFunctions.Builder buildRoutes(RouterFunctions.Builder builder, T handler, RouteMetrics metrics) {
+        for (Map.Entry<String, HandlerInvoker<T>> entry : invokers.entrySet()) {
+            HandlerInvoker<T> invoker = metrics.instrument(entry.getKey(), entry.getValue());
+            builder.GET(entry.getKey(), req -> dispatch(invoker, handler, req));
         }
         return builder;
     }
+
+    Map<String, HandlerInvoker<T>> invokers() {
+        return invokers;
+    }
+
+    static <T> Mono<ServerResponse> dispatch(HandlerInvoker<T> invoker, T handler, ServerRequest req) {
+        Mono<ServerResponse> response;
+        try {
+            response = invoker.invoke(handler, req);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            throw e;
+        }
+
+        if (response == null) {
+            return ServerResponse.status(500).bodyValue("Not implemented");
+        }
+        return response.onErrorResume(e -> {
+            e.printStackTrace();
+            return ServerResponse.status(500)
+                .bodyValue(String.format("There was an unexpected error: %s", e));
+        });
+    }
+
+    // Bind every handler method once at startup so requests don't pay for Method.invoke
+    private static <T> Map<String, HandlerInvoker<T>> bindAll(Class<T> clazz) {
+        Map<String, HandlerInvoker<T>> bound = new LinkedHashMap<>();
+        for (Method m : clazz.getMethods()) {
+            bound.put(m.getName(), bind(m));
+        }
+        return bound;
+    }
+
+    /**
+     * Generates a HandlerInvoker that calls the method directly, as if it were written as a lambda
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HandlerInvoker<T> bind(Method m) {
+        if (m.getParameterCount() != 1
+            || m.getParameterTypes()[0] != ServerRequest.class
+            || !Mono.class.isAssignableFrom(m.getReturnType())) {
+            throw new IllegalArgumentException(String.format("%s is not a (ServerRequest) -> Mono<ServerResponse> handler", m));
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle target = lookup.unreflect(m);
+            CallSite site = LambdaMetafactory.metafactory(
+                lookup,
+                "invoke",
+                MethodType.methodType(HandlerInvoker.class),
+                MethodType.methodType(Mono.class, Object.class, ServerRequest.class),
+                target,
+                MethodType.methodType(m.getReturnType(), m.getDeclaringClass(), ServerRequest.class));
+            return (HandlerInvoker<T>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(String.format("Unable to bind %s", m), e);
+        }
+    }
+
+    @FunctionalInterface
+    interface HandlerInvoker<T> {
+        Mono<ServerResponse> invoke(T handler, ServerRequest request);
+    }
 }
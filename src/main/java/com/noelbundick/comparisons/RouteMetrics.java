@@ -0,0 +1,153 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.web.ObservedResponse;
+import com.noelbundick.comparisons.web.RequestMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records latency, in-flight requests, errors and documents for the routes of one backend.
+ * A request is timed until its response body has been written, so streamed results are measured in full.
+ */
+class RouteMetrics {
+    static final String REQUESTS = "search.requests";
+    static final String ACTIVE = "search.requests.active";
+    static final String ERRORS = "search.requests.errors";
+    static final String DOCUMENTS = "search.documents";
+
+    private final MeterRegistry registry;
+    private final String backend;
+
+    RouteMetrics(MeterRegistry registry, String backend) {
+        this.registry = registry;
+        this.backend = backend;
+    }
+
+    /**
+     * Wraps an invoker so every call to it is recorded under the given method name
+     */
+    <T> RouteBuilder.HandlerInvoker<T> instrument(String method, RouteBuilder.HandlerInvoker<T> invoker) {
+        Tags tags = Tags.of("backend", backend, "method", method);
+        AtomicInteger active = new AtomicInteger();
+        Gauge.builder(ACTIVE, active, AtomicInteger::get)
+            .tags(tags)
+            .description("Requests that haven't finished writing their response")
+            .register(registry);
+        Counter documents = Counter.builder(DOCUMENTS)
+            .tags(tags)
+            .description("Documents returned or indexed")
+            .register(registry);
+
+        return (handler, request) -> {
+            Request tracked = new Request(tags, active, documents, RequestMetrics.track(request));
+
+            Mono<ServerResponse> response;
+            try {
+                response = invoker.invoke(handler, request);
+            } catch (RuntimeException e) {
+                tracked.failed(e);
+                throw e;
+            }
+
+            if (response == null) {
+                tracked.finish("500", "ERROR");
+                return null;
+            }
+            return response
+                .map(tracked::responded)
+                .doOnSuccess(res -> {
+                    if (res == null) {
+                        tracked.finish("unknown", "SUCCESS");
+                    }
+                })
+                .doOnError(tracked::failed)
+                .doOnCancel(tracked::cancelled);
+        };
+    }
+
+    private class Request {
+        private final Tags tags;
+        private final AtomicInteger active;
+        private final Counter documents;
+        private final AtomicLong documentCount;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean responded;
+
+        Request(Tags tags, AtomicInteger active, Counter documents, AtomicLong documentCount) {
+            this.tags = tags;
+            this.active = active;
+            this.documents = documents;
+            this.documentCount = documentCount;
+            active.incrementAndGet();
+        }
+
+        ServerResponse responded(ServerResponse response) {
+            responded = true;
+            return ObservedResponse.doFinallyWrite(response, signal -> written(response, signal));
+        }
+
+        // Once there's a response, finishing is up to the write
+        void cancelled() {
+            if (!responded) {
+                finish("unknown", "CANCELLED");
+            }
+        }
+
+        void written(ServerResponse response, SignalType signal) {
+            int status = response.rawStatusCode();
+            if (signal == SignalType.ON_ERROR) {
+                countError("WriteFailed");
+                finish(Integer.toString(status), "ERROR");
+            } else if (signal == SignalType.CANCEL) {
+                finish(Integer.toString(status), "CANCELLED");
+            } else {
+                finish(Integer.toString(status), status >= 500 ? "SERVER_ERROR" : "SUCCESS");
+            }
+        }
+
+        void failed(Throwable e) {
+            countError(e.getClass().getSimpleName());
+            finish("500", "ERROR");
+        }
+
+        // Only the first signal counts - a failed write can also be cancelled
+        void finish(String status, String outcome) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            active.decrementAndGet();
+            documents.increment(documentCount.get());
+
+            Timer.builder(REQUESTS)
+                .tags(tags)
+                .tag("status", status)
+                .tag("outcome", outcome)
+                .description("Time until the response has been written")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        private void countError(String exception) {
+            Counter.builder(ERRORS)
+                .tags(tags)
+                .tag("exception", exception)
+                .register(registry)
+                .increment();
+        }
+    }
+}
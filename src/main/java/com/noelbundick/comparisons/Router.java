@@ -1,15 +1,36 @@
 package com.noelbundick.comparisons;
 
+import com.azure.search.ApiKeyCredentials;
+import com.azure.search.SearchServiceClientBuilder;
+import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.noelbundick.comparisons.search.AzureSearchHandler;
+import com.noelbundick.comparisons.search.CachingSearchHandler;
+import com.noelbundick.comparisons.search.ConcurrencyLimiter;
 import com.noelbundick.comparisons.search.ElasticsearchHandler;
+import com.noelbundick.comparisons.search.FacetIndex;
+import com.noelbundick.comparisons.search.GeoIndex;
+import com.noelbundick.comparisons.search.LimitingSearchHandler;
+import com.noelbundick.comparisons.search.LocalSearchHandler;
+import com.noelbundick.comparisons.search.MaintenanceLane;
+import com.noelbundick.comparisons.search.MicroBatcher;
+import com.noelbundick.comparisons.search.ResponseCache;
 import com.noelbundick.comparisons.search.SearchHandler;
 import com.noelbundick.comparisons.storage.AzureStorageHandler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
@@ -28,6 +49,75 @@ public class Router {
     @Value("${ELASTICSEARCH_HOST}")
     private String elasticsearchHost;
 
+    @Value("${clients.lazy:false}")
+    private boolean lazyClients;
+
+    @Value("${search.cache.enabled:false}")
+    private boolean cacheEnabled;
+
+    @Value("${search.cache.ttl:30s}")
+    private Duration cacheTtl;
+
+    @Value("${search.cache.max-size:1000}")
+    private int cacheMaxSize;
+
+    @Value("${search.indexing.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${search.indexing.batch.max-size:100}")
+    private int batchMaxSize;
+
+    @Value("${search.indexing.batch.max-delay:10ms}")
+    private Duration batchMaxDelay;
+
+    @Value("${search.indexing.batch.ack:flushed}")
+    private String batchAck;
+
+    @Value("${search.indexing.batch.max-pending:10000}")
+    private int batchMaxPending;
+
+    @Value("${search.facets.local.enabled:false}")
+    private boolean localFacetsEnabled;
+
+    @Value("${search.geo.local.enabled:false}")
+    private boolean localGeoEnabled;
+
+    @Value("${search.maintenance.enabled:false}")
+    private boolean maintenanceEnabled;
+
+    @Value("${search.maintenance.max-concurrent:2}")
+    private int maintenanceMaxConcurrent;
+
+    @Value("${search.maintenance.max-queued:4}")
+    private int maintenanceMaxQueued;
+
+    @Value("${search.maintenance.connections:8}")
+    private int maintenanceConnections;
+
+    @Value("${search.limiter.enabled:false}")
+    private boolean limiterEnabled;
+
+    @Value("${search.limiter.initial-limit:20}")
+    private int limiterInitialLimit;
+
+    @Value("${search.limiter.min-limit:2}")
+    private int limiterMinLimit;
+
+    @Value("${search.limiter.max-limit:200}")
+    private int limiterMaxLimit;
+
+    @Value("${search.limiter.tolerance:1.5}")
+    private double limiterTolerance;
+
+    @Value("${search.compare.timeout.azure:5s}")
+    private Duration compareTimeoutAzure;
+
+    @Value("${search.compare.timeout.elasticsearch:5s}")
+    private Duration compareTimeoutElasticsearch;
+
+    @Value("${search.compare.timeout.local:5s}")
+    private Duration compareTimeoutLocal;
+
     @Bean
     public RouterFunction<ServerResponse> hello() {
         return route()
@@ -43,24 +133,179 @@ public class Router {
     }
 
     @Bean
-    public RouterFunction<ServerResponse> search() {
+    public RouterFunction<ServerResponse> search(ClientPools pools, MeterRegistry registry) {
         RouteBuilder<SearchHandler> routeBuilder = new RouteBuilder<>(SearchHandler.class);
+        Lazy<AzureSearchHandler> azureHandler = lazily(() -> azureSearchHandler(pools));
+        Lazy<ElasticsearchHandler> elasticsearchHandler = lazily(() -> elasticsearchHandler(pools));
+        // Cache hits don't reach the backend, so they don't count against its limit
+        Map<String, ConcurrencyLimiter> limiters = new LinkedHashMap<>();
+        SearchHandler azure = cached("azure", limited("azure", backend(azureHandler), registry, limiters));
+        SearchHandler elasticsearch = cached("elasticsearch", limited("elasticsearch", backend(elasticsearchHandler), registry, limiters));
+        SearchHandler local = cached("local", new LocalSearchHandler());
+        CompareHandler compare = new CompareHandler(routeBuilder, registry)
+            .backend("azure", azure, compareTimeoutAzure)
+            .backend("elasticsearch", elasticsearch, compareTimeoutElasticsearch)
+            .backend("local", local, compareTimeoutLocal);
+
         return route()
             .path("search/azure",
-                builder -> routeBuilder.buildRoutes(builder, new AzureSearchHandler(searchEndpoint, searchAdminKey)))
+                builder -> routeBuilder.buildRoutes(builder, azure, new RouteMetrics(registry, "azure")))
             .path("search/elasticsearch",
-                builder -> routeBuilder.buildRoutes(builder, new ElasticsearchHandler(elasticsearchHost)))
+                builder -> routeBuilder.buildRoutes(builder, elasticsearch, new RouteMetrics(registry, "elasticsearch")))
+            .path("search/local",
+                builder -> routeBuilder.buildRoutes(builder, local, new RouteMetrics(registry, "local")))
+            .GET("search/compare/{operation}", compare::compare)
+            .GET("search/cache", request -> {
+                Map<String, ResponseCache.Stats> stats = new LinkedHashMap<>();
+                stats.put("azure", cacheStats(azure));
+                stats.put("elasticsearch", cacheStats(elasticsearch));
+                stats.put("local", cacheStats(local));
+                return ok().bodyValue(stats);
+            })
+            .GET("search/limits", request -> {
+                Map<String, ConcurrencyLimiter.Stats> stats = new LinkedHashMap<>();
+                stats.put("azure", limiterStats(limiters.get("azure")));
+                stats.put("elasticsearch", limiterStats(limiters.get("elasticsearch")));
+                return ok().bodyValue(stats);
+            })
+            .GET("search/maintenance", request -> {
+                Map<String, MaintenanceLane.Stats> stats = new LinkedHashMap<>();
+                stats.put("azure", azureHandler.ifBuilt(AzureSearchHandler::maintenanceLaneStats));
+                stats.put("elasticsearch", elasticsearchHandler.ifBuilt(ElasticsearchHandler::maintenanceLaneStats));
+                return ok().bodyValue(stats);
+            })
+            .GET("search/batching", request -> {
+                Map<String, MicroBatcher.Stats> stats = new LinkedHashMap<>();
+                stats.put("azure", azureHandler.ifBuilt(AzureSearchHandler::indexBatcherStats));
+                stats.put("elasticsearch", elasticsearchHandler.ifBuilt(ElasticsearchHandler::indexBatcherStats));
+                return ok().bodyValue(stats);
+            })
             .build();
     }
 
+    private AzureSearchHandler azureSearchHandler(ClientPools pools) {
+        AzureSearchHandler handler = new AzureSearchHandler(new SearchServiceClientBuilder()
+            .endpoint(searchEndpoint)
+            .credential(new ApiKeyCredentials(searchAdminKey))
+            .httpClient(pools.azureHttpClient())
+            .addPolicy(pools.azureTimeoutPolicy())
+            .buildAsyncClient(),
+            AzureSearchHandler.searchPipeline(searchAdminKey, pools.azureHttpClient(), pools.azureTimeoutPolicy()));
+        if (batchEnabled) {
+            handler.batchIndexing(batchMaxSize, batchMaxDelay, batchAck(), batchMaxPending);
+        }
+        if (maintenanceEnabled) {
+            handler.maintenanceLane(maintenanceLane("azure-maintenance"), new SearchServiceClientBuilder()
+                .endpoint(searchEndpoint)
+                .credential(new ApiKeyCredentials(searchAdminKey))
+                .httpClient(pools.azureHttpClient("azure-maintenance", maintenanceConnections, maintenanceMaxConcurrent))
+                .addPolicy(pools.azureTimeoutPolicy())
+                .buildAsyncClient());
+        }
+        if (localFacetsEnabled) {
+            handler.facetIndex(new FacetIndex());
+        }
+        if (localGeoEnabled) {
+            handler.geoIndex(new GeoIndex());
+        }
+        return handler;
+    }
+
+    private ElasticsearchHandler elasticsearchHandler(ClientPools pools) {
+        ElasticsearchHandler handler = new ElasticsearchHandler(pools.elasticsearch(elasticsearchHost));
+        if (batchEnabled) {
+            handler.batchIndexing(batchMaxSize, batchMaxDelay, batchAck(), batchMaxPending);
+        }
+        if (maintenanceEnabled) {
+            handler.maintenanceLane(maintenanceLane("elasticsearch-maintenance"),
+                pools.elasticsearch(elasticsearchHost, "elasticsearch-maintenance", maintenanceConnections, maintenanceMaxConcurrent));
+        }
+        if (localFacetsEnabled) {
+            handler.facetIndex(new FacetIndex());
+        }
+        if (localGeoEnabled) {
+            handler.geoIndex(new GeoIndex());
+        }
+        return handler;
+    }
+
+    private MicroBatcher.Ack batchAck() {
+        return MicroBatcher.Ack.valueOf(batchAck.toUpperCase(Locale.ROOT));
+    }
+
+    // With clients.lazy, backend clients are built on the first request that needs them rather than at startup
+    private <T> Lazy<T> lazily(Supplier<T> factory) {
+        Lazy<T> lazy = new Lazy<>(factory);
+        if (!lazyClients) {
+            lazy.get();
+        }
+        return lazy;
+    }
+
+    private SearchHandler backend(Lazy<? extends SearchHandler> handler) {
+        return lazyClients ? new LazySearchHandler(handler) : handler.get();
+    }
+
+    // Optionally put a response cache in front of a backend's read operations
+    private SearchHandler cached(String backend, SearchHandler handler) {
+        if (!cacheEnabled) {
+            return handler;
+        }
+        return new CachingSearchHandler(handler, backend, new ResponseCache(cacheTtl, cacheMaxSize));
+    }
+
+    private MaintenanceLane maintenanceLane(String name) {
+        return new MaintenanceLane(name, maintenanceMaxConcurrent, maintenanceMaxQueued, maintenanceConnections);
+    }
+
+    // Optionally give a remote backend its own adaptive limit on requests in flight, so one that slows down sheds its
+    // own load instead of tying up the others
+    private SearchHandler limited(String backend, SearchHandler handler, MeterRegistry registry,
+                                  Map<String, ConcurrencyLimiter> limiters) {
+        if (!limiterEnabled) {
+            return handler;
+        }
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(limiterInitialLimit, limiterMinLimit, limiterMaxLimit, limiterTolerance);
+        limiters.put(backend, limiter);
+
+        Gauge.builder("search.limiter.limit", limiter, ConcurrencyLimiter::limit)
+            .tag("backend", backend)
+            .description("Requests allowed in flight")
+            .register(registry);
+        Gauge.builder("search.limiter.inflight", limiter, ConcurrencyLimiter::inflight)
+            .tag("backend", backend)
+            .description("Requests holding a slot")
+            .register(registry);
+        FunctionCounter.builder("search.limiter.rejected", limiter, ConcurrencyLimiter::rejected)
+            .tag("backend", backend)
+            .description("Requests shed with a 503")
+            .register(registry);
+        return new LimitingSearchHandler(handler, backend, limiter);
+    }
+
+    private ConcurrencyLimiter.Stats limiterStats(ConcurrencyLimiter limiter) {
+        return limiter != null ? limiter.stats() : null;
+    }
+
+    private ResponseCache.Stats cacheStats(SearchHandler handler) {
+        return handler instanceof CachingSearchHandler ? ((CachingSearchHandler) handler).cache().stats() : null;
+    }
+
     @Bean
-    public RouterFunction<ServerResponse> storage() {
-        AzureStorageHandler handler = new AzureStorageHandler(storageConnString);
+    public RouterFunction<ServerResponse> storage(ClientPools pools) {
+        Lazy<AzureStorageHandler> handler = lazily(() -> new AzureStorageHandler(new BlobServiceClientBuilder()
+            .connectionString(storageConnString)
+            .httpClient(pools.azureHttpClient())
+            .addPolicy(pools.azureTimeoutPolicy())
+            .buildAsyncClient()));
 
         return route()
             .path("storage", builder -> builder
-                .GET("containers", handler::listContainers)
-                .GET("blobs", handler::listAllBlobs)
+                .GET("containers", request -> handler.async().flatMap(h -> h.listContainers(request)))
+                .GET("blobs", request -> handler.async().flatMap(h -> h.listAllBlobs(request)))
+                .GET("blobs/grouped", request -> handler.async().flatMap(h -> h.listAllBlobsGrouped(request)))
+                .GET("containers/{container}/blobs/{*blob}", request -> handler.async().flatMap(h -> h.downloadBlob(request)))
+                .PUT("containers/{container}/blobs/{*blob}", request -> handler.async().flatMap(h -> h.uploadBlob(request)))
             ).build();
     }
 }
@@ -0,0 +1,168 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.search.IndexBatchException;
+import com.azure.search.SearchIndexAsyncClient;
+import com.azure.search.models.IndexAction;
+import com.azure.search.models.IndexActionType;
+import com.azure.search.models.IndexBatch;
+import com.azure.search.models.IndexingResult;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Splits a stream of documents into service-sized IndexBatches and uploads them with bounded concurrency.
+ * When the service reports a partial failure, only the keys that failed with a retryable status are re-sent.
+ */
+public class AzureIndexBatcher<T> {
+    // The service rejects batches with more than 1000 actions
+    static final int MAX_BATCH_ACTIONS = 1000;
+
+    private final SearchIndexAsyncClient indexClient;
+    private final Function<T, String> keyOf;
+
+    private int maxActions = MAX_BATCH_ACTIONS;
+    private int concurrency = 4;
+    private int maxRetries = 3;
+    private Duration backoff = Duration.ofMillis(100);
+
+    public AzureIndexBatcher(SearchIndexAsyncClient indexClient, Function<T, String> keyOf) {
+        this.indexClient = indexClient;
+        this.keyOf = keyOf;
+    }
+
+    public AzureIndexBatcher<T> maxActions(int maxActions) {
+        this.maxActions = Math.min(maxActions, MAX_BATCH_ACTIONS);
+        return this;
+    }
+
+    public int concurrency() {
+        return concurrency;
+    }
+
+    public AzureIndexBatcher<T> concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public AzureIndexBatcher<T> maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public AzureIndexBatcher<T> backoff(Duration backoff) {
+        this.backoff = backoff;
+        return this;
+    }
+
+    public Mono<BulkIndexingStats> upload(Flux<T> documents) {
+        return index(documents.map(doc -> action(IndexActionType.UPLOAD, doc)));
+    }
+
+    public Mono<BulkIndexingStats> delete(Flux<T> documents) {
+        return index(documents.map(doc -> action(IndexActionType.DELETE, doc)));
+    }
+
+    public Mono<BulkIndexingStats> index(Flux<IndexAction<T>> actions) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return actions
+                .buffer(maxActions)
+                .flatMap(this::sendBatch, concurrency, 1)
+                .reduce(new BulkIndexingStats(), BulkIndexingStats::addBatch)
+                .map(stats -> stats.complete(start));
+        });
+    }
+
+    private Mono<BatchResult> sendBatch(List<IndexAction<T>> actions) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return send(actions, 0)
+                .map(result -> result.latency(System.nanoTime() - start));
+        });
+    }
+
+    // Send a batch, then re-send just the actions whose keys failed with a retryable status. A batch that fails as a
+    // whole with a retryable error is re-sent whole. Both kinds of retry come out of the same maxRetries attempts.
+    private Mono<BatchResult> send(List<IndexAction<T>> actions, int attempt) {
+        IndexBatch<T> batch = new IndexBatch<T>().actions(actions);
+
+        return indexClient.index(batch)
+            .map(res -> res.getResults())
+            .onErrorResume(IndexBatchException.class, err -> Mono.just(err.getIndexingResults()))
+            // Empty means retry everything, so that errors from the key retries below aren't caught here as well
+            .onErrorResume(err -> attempt < maxRetries && isRetryable(err), err -> Mono.empty())
+            .flatMap(results -> {
+                Map<String, IndexAction<T>> actionsByKey = null;
+                List<IndexAction<T>> retryable = new ArrayList<>();
+                int failed = 0;
+                for (IndexingResult result : results) {
+                    if (result.isSucceeded()) {
+                        continue;
+                    }
+                    if (attempt < maxRetries && isRetryable(result.getStatusCode())) {
+                        if (actionsByKey == null) {
+                            actionsByKey = byKey(actions);
+                        }
+                        IndexAction<T> action = actionsByKey.get(result.getKey());
+                        if (action != null) {
+                            retryable.add(action);
+                            continue;
+                        }
+                    }
+                    failed++;
+                }
+
+                int succeeded = actions.size() - retryable.size() - failed;
+                BatchResult result = new BatchResult(succeeded, failed, attempt);
+                if (retryable.isEmpty()) {
+                    return Mono.just(result);
+                }
+
+                return retry(retryable, attempt).map(result::plus);
+            })
+            .switchIfEmpty(Mono.defer(() -> retry(actions, attempt)));
+    }
+
+    private Mono<BatchResult> retry(List<IndexAction<T>> actions, int attempt) {
+        return Mono.delay(backoff.multipliedBy(1L << attempt))
+            .then(send(actions, attempt + 1));
+    }
+
+    private Map<String, IndexAction<T>> byKey(List<IndexAction<T>> actions) {
+        Map<String, IndexAction<T>> map = new HashMap<>(actions.size() * 2);
+        for (IndexAction<T> action : actions) {
+            map.put(keyOf.apply(action.getDocument()), action);
+        }
+        return map;
+    }
+
+    private static <T> IndexAction<T> action(IndexActionType type, T document) {
+        return new IndexAction<T>()
+            .setActionType(type)
+            .setDocument(document);
+    }
+
+    // Version conflicts, transient unprocessable entities and throttling are worth another try
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 409 || statusCode == 422 || statusCode == 503;
+    }
+
+    // A whole batch is only worth another try after a transport error or throttling - bad requests, auth and missing
+    // indexes will fail again
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) error).getResponse().getStatusCode();
+            return statusCode == 429 || statusCode == 503;
+        }
+        return error instanceof IOException;
+    }
+}
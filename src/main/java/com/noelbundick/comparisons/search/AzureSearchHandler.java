@@ -1,37 +1,97 @@
 package com.noelbundick.comparisons.search;
 
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpClient;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.policy.AddHeadersPolicy;
+import com.azure.core.http.policy.HttpPipelinePolicy;
 import com.azure.search.ApiKeyCredentials;
+import com.azure.search.IndexBatchException;
 import com.azure.search.SearchIndexAsyncClient;
 import com.azure.search.SearchServiceAsyncClient;
 import com.azure.search.SearchServiceClientBuilder;
 import com.azure.search.models.*;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.noelbundick.comparisons.search.models.AzureHotel;
 import com.noelbundick.comparisons.search.models.HotelAddress;
-import org.springframework.core.ParameterizedTypeReference;
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+import com.noelbundick.comparisons.web.RequestMetrics;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 public class AzureSearchHandler implements SearchHandler {
+    // In FacetIndex order
+    static final String[] FACETS = {"Category", "Rating", "ParkingIncluded", "Rooms/SmokingAllowed"};
+
+    // $skip is capped by the service, so a single pass can't see more than this many results
+    private static final int MAX_SKIP = 100000;
+    private static final int MAX_CLEAR_PASSES = 10;
+    // Deletes take a moment to show up in search results and counts, so give them a chance before another pass
+    private static final Duration CLEAR_PASS_DELAY = Duration.ofSeconds(1);
+
+    private static final ObjectReader documentReader = new ObjectMapper().readerFor(new TypeReference<Map<String, Object>>() {
+    });
+
+    private final JsonCodec codec = JsonCodec.shared();
     private final SearchServiceAsyncClient serviceClient;
     private final SearchIndexAsyncClient indexClient;
+    private final HttpPipeline searchPipeline;
+    // Bulk uploads, deletes and index management go through these, which are the clients above unless there's a
+    // maintenance lane
+    private SearchServiceAsyncClient maintenanceServiceClient;
+    private SearchIndexAsyncClient maintenanceIndexClient;
+    private MaintenanceLane maintenanceLane;
+    private MicroBatcher<AzureHotel, IndexingResult> indexBatcher;
+    private FacetIndex facetIndex;
+    private GeoIndex geoIndex;
 
     public AzureSearchHandler(String endpoint, String adminKey) {
-        serviceClient = new SearchServiceClientBuilder()
+        this(new SearchServiceClientBuilder()
             .endpoint(endpoint)
             .credential(new ApiKeyCredentials(adminKey))
-            .buildAsyncClient();
+            .buildAsyncClient(),
+            searchPipeline(adminKey, HttpClient.createDefault()));
+    }
+
+    public AzureSearchHandler(SearchServiceAsyncClient serviceClient) {
+        this(serviceClient, null);
+    }
+
+    public AzureSearchHandler(SearchServiceAsyncClient serviceClient, HttpPipeline searchPipeline) {
+        this.serviceClient = serviceClient;
+        this.indexClient = serviceClient.getIndexClient("hotels");
+        this.searchPipeline = searchPipeline;
+        this.maintenanceServiceClient = serviceClient;
+        this.maintenanceIndexClient = indexClient;
+    }
 
-        indexClient = serviceClient.getIndexClient("hotels");
+    /**
+     * A pipeline for the REST calls the handler makes itself, authenticated the same way as the SDK
+     */
+    public static HttpPipeline searchPipeline(String adminKey, HttpClient httpClient, HttpPipelinePolicy... policies) {
+        HttpPipelinePolicy[] all = Arrays.copyOf(policies, policies.length + 1);
+        all[policies.length] = new AddHeadersPolicy(new HttpHeaders().put("api-key", adminKey));
+        return new HttpPipelineBuilder()
+            .httpClient(httpClient)
+            .policies(all)
+            .build();
     }
 
     @Override
@@ -48,45 +108,138 @@ public class AzureSearchHandler implements SearchHandler {
 
     @Override
     // There are convenience methods for upload/merge/mergeOrUpload/delete
+    // With batching on, concurrent calls are coalesced into IndexBatches; ack=queued responds before the flush
     public Mono<ServerResponse> indexing(ServerRequest request) {
         AzureHotel hotel = new AzureHotel()
             .hotelId(UUID.randomUUID().toString())
             .address(new HotelAddress().city("Seattle"));
+
+        if (indexBatcher != null) {
+            // Deferred so an unknown ack fails the Mono rather than the call
+            return Mono.defer(() -> indexBatcher.submit(hotel, indexBatcher.ack(request)))
+                .flatMap(result -> result.isSucceeded()
+                    ? ok().bodyValue(String.format("Indexed document %s", result.getKey()))
+                    : ServerResponse.status(result.getStatusCode()).bodyValue(result.getErrorMessage()))
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.accepted().bodyValue(String.format("Queued document %s", hotel.hotelId()))))
+                .doOnNext(res -> RequestMetrics.documents(request, 1))
+                .onErrorResume(RejectedExecutionException.class, err -> ServerResponse.status(503).bodyValue(err.getMessage()))
+                .onErrorResume(MicroBatcher.InvalidAckException.class, err -> ServerResponse.badRequest().bodyValue(err.getMessage()));
+        }
+
         List<AzureHotel> documents = Collections.singletonList(hotel);
 
         return indexClient.uploadDocuments(documents)
+            .doOnNext(res -> RequestMetrics.documents(request, res.getResults().size()))
+            .doOnNext(res -> indexed(hotel))
             .flatMap(res -> ok().bodyValue(String.format("Indexed %d documents", res.getResults().size())));
     }
 
+    /**
+     * Coalesce concurrent indexing() calls into IndexBatches of up to maxSize documents, waiting at most maxDelay
+     */
+    public AzureSearchHandler batchIndexing(int maxSize, Duration maxDelay, MicroBatcher.Ack ack, int maxPending) {
+        indexBatcher = new MicroBatcher<>(this::uploadBatch, Math.min(maxSize, AzureIndexBatcher.MAX_BATCH_ACTIONS), maxDelay, ack, maxPending)
+            .failedWhen(result -> !result.isSucceeded());
+        return this;
+    }
+
+    public MicroBatcher.Stats indexBatcherStats() {
+        return indexBatcher == null ? null : indexBatcher.stats();
+    }
+
+    /**
+     * Run bulkIndexing, clear, indexManagement and reset on a MaintenanceLane, sending their requests through a
+     * client of their own so they don't hold the connections or event loops searches need
+     */
+    public AzureSearchHandler maintenanceLane(MaintenanceLane lane, SearchServiceAsyncClient serviceClient) {
+        this.maintenanceLane = lane;
+        this.maintenanceServiceClient = serviceClient;
+        this.maintenanceIndexClient = serviceClient.getIndexClient("hotels");
+        return this;
+    }
+
+    public MaintenanceLane.Stats maintenanceLaneStats() {
+        return maintenanceLane == null ? null : maintenanceLane.stats();
+    }
+
+    /**
+     * Keep facet counts in process, fed by everything this handler indexes, and answer searchWithFacets from them
+     * when asked with source=local
+     */
+    public AzureSearchHandler facetIndex(FacetIndex facetIndex) {
+        this.facetIndex = facetIndex;
+        return this;
+    }
+
+    /**
+     * Keep hotel locations in process, fed by everything this handler indexes, and answer searchNearby from them
+     * when asked with source=local
+     */
+    public AzureSearchHandler geoIndex(GeoIndex geoIndex) {
+        this.geoIndex = geoIndex;
+        return this;
+    }
+
+    // Results come back in any order and the service fails the whole call when any document fails,
+    // so line the results up with the documents by key
+    private Mono<List<IndexingResult>> uploadBatch(List<AzureHotel> hotels) {
+        IndexBatch<AzureHotel> batch = new IndexBatch<>();
+        hotels.forEach(batch::addUploadAction);
+
+        return indexClient.index(batch)
+            .map(DocumentIndexResult::getResults)
+            .onErrorResume(IndexBatchException.class, err -> Mono.just(err.getIndexingResults()))
+            .map(results -> {
+                Map<String, IndexingResult> byKey = new HashMap<>(results.size() * 2);
+                results.forEach(result -> byKey.put(result.getKey(), result));
+
+                List<IndexingResult> ordered = new ArrayList<>(hotels.size());
+                for (AzureHotel hotel : hotels) {
+                    IndexingResult result = byKey.get(hotel.hotelId());
+                    if (result == null) {
+                        throw new IllegalStateException(String.format("No indexing result for document %s", hotel.hotelId()));
+                    }
+                    if (result.isSucceeded()) {
+                        indexed(hotel);
+                    }
+                    ordered.add(result);
+                }
+                return ordered;
+            });
+    }
+
     @Override
     // All indexing operations flow through an IndexBatch<T> that are sent to a single endpoint
+    // Documents are generated lazily and split into service-sized batches that are uploaded concurrently
+    // With source=synthetic, upload fully populated hotels from a seeded generator instead of bare ones
     public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
-        IndexBatch<AzureHotel> batch = new IndexBatch<>();
-        for (int i = 0; i < 10000; i++) {
-            batch.addUploadAction(new AzureHotel()
-                .hotelId(Integer.toString(i))
-                .address(new HotelAddress().city("Seattle"))
-            );
-        }
+        int count = request.queryParam("count").map(Integer::parseInt).orElse(10000);
 
-        return indexClient.index(batch)
-            .flatMap(res -> ok().bodyValue(String.format("Indexed %d documents", res.getResults().size())));
+        Flux<AzureHotel> hotels = isSynthetic(request)
+            ? hotelGenerator(request).azureHotels(count)
+            : Flux.range(0, count)
+                .map(i -> new AzureHotel()
+                    .hotelId(Integer.toString(i))
+                    .address(new HotelAddress().city("Seattle"))
+                );
+
+        return maintenance(this.<AzureHotel>indexBatcher(request, AzureHotel::hotelId)
+            .upload(produce(hotels.doOnNext(this::indexed)))
+            .doOnNext(this::staleIfFailed)
+            .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+            .flatMap(stats -> ok().bodyValue(stats)));
     }
 
     @Override
-    // Retrieve all documents and delete them by id
+    // Stream the ids of all documents and delete them in batches as they arrive
     public Mono<ServerResponse> clear(ServerRequest request) {
-        return indexClient.search("*")
-            .map(res -> (String) res.getDocument().get("HotelId"))
-            .collectList()
-            .flatMap(ids -> {
-                IndexBatch<?> batch = new IndexBatch<>();
-                batch.addDeleteAction("HotelId", ids);
-                return indexClient.index(batch);
-            })
-            .map(res -> res.getResults().size())
-            .onErrorReturn(0)
-            .flatMap(deleted -> ok().bodyValue(String.format("%d documents deleted", deleted)));
+        return maintenance(deleteAllDocuments(request)
+            .doOnNext(stats -> clearLocalIndexes())
+            .doOnError(err -> markLocalIndexesStale())
+            .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+            .flatMap(stats -> ok().bodyValue(stats))
+            .onErrorResume(IncompleteClearException.class, err -> ServerResponse.status(500).bodyValue(err.getMessage()))
+            .onErrorResume(err -> ok().bodyValue(new BulkIndexingStats())));
     }
 
     @Override
@@ -100,7 +253,7 @@ public class AzureSearchHandler implements SearchHandler {
     // Simple term search
     public Mono<ServerResponse> search(ServerRequest request) {
         Flux<SearchResult> results = indexClient.search("Seattle");
-        return ok().body(results, SearchResult.class);
+        return ok().body(RequestMetrics.countDocuments(request, results), SearchResult.class);
     }
 
     @Override
@@ -115,47 +268,125 @@ public class AzureSearchHandler implements SearchHandler {
         });
 
         Flux<SearchResult> results = indexClient.search("Seattle", options, new RequestOptions());
-        return ok().body(results, SearchResult.class);
+        return ok().body(RequestMetrics.countDocuments(request, results), SearchResult.class);
     }
 
     @Override
     // Interact with pages to retrieve facet information
+    // With source=local, count from the in-process facet index instead, or with source=check, compare the two
     public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return FacetSource.respond(request, facetIndex, FACETS, this::backendFacets);
+    }
+
+    private Mono<HashMap<String, HashMap<String, Long>>> backendFacets() {
         SearchOptions options = new SearchOptions()
-            .setFacets("Category", "Rating", "ParkingIncluded", "Rooms/SmokingAllowed");
+            .setFacets(FACETS);
 
-        Mono<HashMap<String, HashMap<String, Long>>> results = indexClient.search("*", options, new RequestOptions())
+        return indexClient.search("*", options, new RequestOptions())
             .byPage()
             .single()
-            .map(page -> {
-                HashMap<String, HashMap<String, Long>> facetResults = new HashMap<>();
-                for (Map.Entry<String, List<FacetResult>> entry : page.facets().entrySet()) {
-                    HashMap<String, Long> facetValues = new HashMap<>();
-                    for (FacetResult facetResult : entry.getValue()) {
-                        String value = facetResult.getDocument().get("value").toString();
-                        Long count = facetResult.getCount();
-                        facetValues.put(value, count);
-                    }
-                    facetResults.put(entry.getKey(), facetValues);
-                }
-                return facetResults;
-            });
+            .map(page -> facetCounts(page.facets()));
+    }
 
-        return ok().body(results, new ParameterizedTypeReference<>() {});
+    static HashMap<String, HashMap<String, Long>> facetCounts(Map<String, List<FacetResult>> facets) {
+        HashMap<String, HashMap<String, Long>> facetResults = new HashMap<>();
+        for (Map.Entry<String, List<FacetResult>> entry : facets.entrySet()) {
+            HashMap<String, Long> facetValues = new HashMap<>();
+            for (FacetResult facetResult : entry.getValue()) {
+                String value = facetResult.getDocument().get("value").toString();
+                Long count = facetResult.getCount();
+                facetValues.put(value, count);
+            }
+            facetResults.put(entry.getKey(), facetValues);
+        }
+        return facetResults;
     }
 
     @Override
-    // Bring-your-own custom marshaling with a properly configured mapper
+    // Bring-your-own custom marshaling with the shared, preconfigured codec
+    // The SDK only returns untyped documents, so the search is sent as a REST call and hotels are read from the raw response
+    // Without a pipeline for that, the SDK's documents are converted instead
     public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.registerModule(new JavaTimeModule());
-        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        if (searchPipeline == null) {
+            Flux<AzureHotel> results = indexClient.search("Seattle")
+                .take(5)
+                .map(result -> codec.convert(result.getDocument(), AzureHotel.class));
+            return ok().body(RequestMetrics.countDocuments(request, results), AzureHotel.class);
+        }
+
+        return searchHotels("{\"search\":\"Seattle\",\"top\":5}")
+            .doOnNext(hotels -> RequestMetrics.documents(request, hotels.size()))
+            .flatMap(hotels -> ok().bodyValue(hotels));
+    }
+
+    @Override
+    // Filter and order by geo.distance, with the same REST call and decoding as searchWithCustomTypes
+    // lat, lon (default downtown Seattle), distance in km (default 10) and size (default 10) pick the hotels
+    // With source=local, answer from the in-process geo index instead
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        double lat = request.queryParam("lat").map(Double::parseDouble).orElse(47.6062);
+        double lon = request.queryParam("lon").map(Double::parseDouble).orElse(-122.3321);
+        double distance = request.queryParam("distance").map(Double::parseDouble).orElse(10.0);
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(10);
+
+        boolean local = request.queryParam("source").map("local"::equals).orElse(false);
+        if (local && geoIndex != null && !geoIndex.isStale()) {
+            List<NearbyHotel> hotels = geoIndex.nearby(lat, lon, distance, size);
+            RequestMetrics.documents(request, hotels.size());
+            return ok().bodyValue(hotels);
+        }
+
+        // OData points are longitude first
+        String geoDistance = String.format(Locale.ROOT, "geo.distance(Location, geography'POINT(%f %f)')", lon, lat);
+        Mono<List<AzureHotel>> results;
+        if (searchPipeline == null) {
+            SearchOptions options = new SearchOptions()
+                .setFilter(String.format(Locale.ROOT, "%s le %f", geoDistance, distance))
+                .setOrderBy(geoDistance + " asc")
+                .setSelect("HotelId", "HotelName", "Location")
+                .setTop(size);
+            results = indexClient.search("*", options, new RequestOptions())
+                .take(size)
+                .map(result -> codec.convert(result.getDocument(), AzureHotel.class))
+                .collectList();
+        } else {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("search", "*");
+            body.put("filter", String.format(Locale.ROOT, "%s le %f", geoDistance, distance));
+            body.put("orderby", geoDistance + " asc");
+            body.put("select", "HotelId,HotelName,Location");
+            body.put("top", size);
+            results = searchHotels(codec.encodeToString(body));
+        }
 
-        Flux<AzureHotel> results = indexClient.search("Seattle")
-            .take(5)
-            .map(result -> mapper.convertValue(result.getDocument(), AzureHotel.class));
-        return ok().body(results, AzureHotel.class);
+        return results
+            .flatMap(hotels -> {
+                List<NearbyHotel> nearby = new ArrayList<>(hotels.size());
+                for (AzureHotel hotel : hotels) {
+                    List<Double> coordinates = hotel.location().getCoordinates();
+                    nearby.add(new NearbyHotel()
+                        .hotelId(hotel.hotelId())
+                        .hotelName(hotel.hotelName())
+                        .distanceKm(GeoIndex.distanceKm(lat, lon, coordinates.get(1), coordinates.get(0))));
+                }
+                RequestMetrics.documents(request, nearby.size());
+                return ok().bodyValue(nearby);
+            });
+    }
+
+    // POST a search body to the REST API and read the hotels straight from the response bytes
+    private Mono<List<AzureHotel>> searchHotels(String body) {
+        HttpRequest searchRequest = new HttpRequest(HttpMethod.POST, String.format("%s/indexes/%s/docs/search.post.search?api-version=%s",
+            serviceClient.getEndpoint(), indexClient.getIndexName(), serviceClient.getApiVersion()))
+            .setHeader("Content-Type", "application/json")
+            .setHeader("Accept", "application/json")
+            .setBody(body);
+
+        return searchPipeline.send(searchRequest)
+            .flatMap(res -> res.getStatusCode() == 200
+                ? res.getBodyAsByteArray()
+                : res.getBodyAsString().flatMap(error -> Mono.error(new HttpResponseException(error, res))))
+            .map(bytes -> codec.decodeArray(bytes, "value", AzureHotel.class));
     }
 
     @Override
@@ -178,34 +409,183 @@ public class AzureSearchHandler implements SearchHandler {
                     .setSortable(true)
             ));
 
-        Mono<Index> result = serviceClient.deleteIndex(indexName)
+        // Created before responding, so the operation holds its turn on a maintenance lane until it's done
+        return maintenance(maintenanceServiceClient.deleteIndex(indexName)
             .onErrorResume(__ -> Mono.empty())
-            .then(serviceClient.createIndex(simpleIndex));
-        return ok().body(result, Index.class);
+            .then(maintenanceServiceClient.createIndex(simpleIndex))
+            .flatMap(index -> ok().bodyValue(index)));
     }
 
     @Override
     // Clear an index and re-run an indexer to import from CosmosDB
+    // With source=file, upload the bundled sample data instead, or with source=synthetic, count generated hotels
     public Mono<ServerResponse> reset(ServerRequest request) {
         String indexerName = request.queryParam("indexer")
             .orElse("sample-indexer");
+        boolean fromFile = request.queryParam("source").map("file"::equals).orElse(false);
 
-        return clearDocuments()
+        // Documents left behind by a clear would be mixed in with the new ones, so that fails the reset
+        Mono<Void> clear = deleteAllDocuments(request)
+            .onErrorResume(err -> !(err instanceof IncompleteClearException), err -> Mono.empty())
+            .then(Mono.fromRunnable(this::clearLocalIndexes));
+        if (fromFile || isSynthetic(request)) {
+            return maintenance(clear
+                .then(uploadHotels(request))
+                .doOnNext(this::staleIfFailed)
+                .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+                .flatMap(stats -> ok().bodyValue(String.format("reset docs: %s", stats.documents())))
+                .onErrorResume(IncompleteClearException.class, err -> ServerResponse.status(500).bodyValue(err.getMessage())));
+        }
+        // The indexer writes to the service directly, so the local indexes never see its documents
+        return maintenance(clear
+            .then(Mono.fromRunnable(this::markLocalIndexesStale))
             .then(populateIndex(indexerName))
-            .then(ok().bodyValue("reset"));
+            .then(ok().bodyValue("reset"))
+            .onErrorResume(IncompleteClearException.class, err -> ServerResponse.status(500).bodyValue(err.getMessage())));
+    }
+
+    // The SDK serializes documents itself, so the stored JSON is read into maps as each batch is built
+    private Mono<BulkIndexingStats> uploadHotels(ServerRequest request) {
+        if (isSynthetic(request)) {
+            int count = request.queryParam("count").map(Integer::parseInt).orElse(10000);
+            return this.<AzureHotel>indexBatcher(request, AzureHotel::hotelId)
+                .upload(produce(hotelGenerator(request).azureHotels(count).doOnNext(this::indexed)));
+        }
+
+        // Hotels are only decoded when there's a local index to keep up to date
+        Flux<Map<String, Object>> hotels = HotelDataset.of(HotelDataset.AZURE)
+            .documents((id, source, offset, length) -> {
+                if (facetIndex != null || geoIndex != null) {
+                    indexed(codec.decode(source, offset, length, AzureHotel.class));
+                }
+                try {
+                    return documentReader.readValue(source, offset, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+        return this.<Map<String, Object>>indexBatcher(request, hotel -> (String) hotel.get("HotelId"))
+            .upload(produce(hotels));
+    }
+
+    // With a maintenance lane, wait for a turn on it, or answer 503 once too many operations are already waiting
+    private Mono<ServerResponse> maintenance(Mono<ServerResponse> operation) {
+        if (maintenanceLane == null) {
+            return operation;
+        }
+        return maintenanceLane.submit(operation)
+            .onErrorResume(RejectedExecutionException.class, err -> ServerResponse.status(503).bodyValue(err.getMessage()));
+    }
+
+    private <T> Flux<T> produce(Flux<T> documents) {
+        return maintenanceLane == null ? documents : maintenanceLane.produce(documents);
+    }
+
+    // Search pages are fetched with $skip, so deleting while paging shifts later pages and misses some documents, and
+    // a pass can't see past MAX_SKIP anyway. Keep making passes until the index counts no documents, and fail with an
+    // IncompleteClearException if there are still some after MAX_CLEAR_PASSES.
+    private Mono<BulkIndexingStats> deleteAllDocuments(ServerRequest request) {
+        AzureIndexBatcher<Map<String, Object>> batcher = indexBatcher(request, doc -> (String) doc.get("HotelId"));
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return deletePasses(batcher, new BulkIndexingStats(), 1)
+                .map(stats -> stats.complete(start));
+        });
+    }
+
+    private Mono<BulkIndexingStats> deletePasses(AzureIndexBatcher<Map<String, Object>> batcher, BulkIndexingStats deleted, int pass) {
+        return deletePass(batcher)
+            .map(deleted::plus)
+            .flatMap(stats -> maintenanceIndexClient.getDocumentCount()
+                .flatMap(remaining -> {
+                    if (remaining == 0) {
+                        return Mono.just(stats);
+                    }
+                    if (pass >= MAX_CLEAR_PASSES) {
+                        return Mono.error(new IncompleteClearException(remaining, stats));
+                    }
+                    return Mono.delay(CLEAR_PASS_DELAY)
+                        .then(deletePasses(batcher, stats, pass + 1));
+                }));
     }
 
-    private Mono<Integer> clearDocuments() {
-        return indexClient.search("*")
-            .map(SearchResult::getDocument)
-            .collectList()
-            .flatMap(indexClient::deleteDocuments)
-            .map(res -> res.getResults().size())
-            .onErrorReturn(0);
+    // Only select the key, and hand keys to the batcher as pages arrive rather than collecting them
+    private Mono<BulkIndexingStats> deletePass(AzureIndexBatcher<Map<String, Object>> batcher) {
+        SearchOptions options = new SearchOptions()
+            .setSelect("HotelId")
+            .setTop(MAX_SKIP);
+
+        Flux<Map<String, Object>> keys = maintenanceIndexClient.search("*", options, new RequestOptions())
+            .map(res -> Collections.singletonMap("HotelId", res.getDocument().get("HotelId")));
+        return batcher.delete(keys);
+    }
+
+    private void indexed(AzureHotel hotel) {
+        if (facetIndex != null) {
+            facetIndex.put(hotel);
+        }
+        if (geoIndex != null) {
+            geoIndex.put(hotel);
+        }
+    }
+
+    // Bulk uploads add hotels to the local indexes as they're sent, so any that fail leave them holding too many
+    private void staleIfFailed(BulkIndexingStats stats) {
+        if (stats.failed() > 0) {
+            markLocalIndexesStale();
+        }
+    }
+
+    private void markLocalIndexesStale() {
+        if (facetIndex != null) {
+            facetIndex.markStale();
+        }
+        if (geoIndex != null) {
+            geoIndex.markStale();
+        }
+    }
+
+    private void clearLocalIndexes() {
+        if (facetIndex != null) {
+            facetIndex.clear();
+        }
+        if (geoIndex != null) {
+            geoIndex.clear();
+        }
+    }
+
+    private static boolean isSynthetic(ServerRequest request) {
+        return request.queryParam("source").map("synthetic"::equals).orElse(false);
+    }
+
+    private static HotelGenerator hotelGenerator(ServerRequest request) {
+        return new HotelGenerator(request.queryParam("seed").map(Long::parseLong).orElse(HotelGenerator.DEFAULT_SEED));
+    }
+
+    private <T> AzureIndexBatcher<T> indexBatcher(ServerRequest request, Function<T, String> keyOf) {
+        AzureIndexBatcher<T> batcher = new AzureIndexBatcher<>(maintenanceIndexClient, keyOf);
+        request.queryParam("batchSize").ifPresent(v -> batcher.maxActions(Integer.parseInt(v)));
+        request.queryParam("concurrency").ifPresent(v -> batcher.concurrency(Integer.parseInt(v)));
+        if (maintenanceLane != null) {
+            batcher.concurrency(maintenanceLane.concurrency(batcher.concurrency()));
+        }
+        return batcher;
     }
 
     private Mono<Void> populateIndex(String indexerName) {
-        return serviceClient.resetIndexerWithResponse(indexerName, new RequestOptions())
-            .then(serviceClient.runIndexer(indexerName));
+        return maintenanceServiceClient.resetIndexerWithResponse(indexerName, new RequestOptions())
+            .then(maintenanceServiceClient.runIndexer(indexerName));
+    }
+
+    /**
+     * Documents were still left in the index after the last pass of a clear
+     */
+    static class IncompleteClearException extends IllegalStateException {
+        IncompleteClearException(long remaining, BulkIndexingStats deleted) {
+            super(String.format("Index not cleared: %d documents left after %d passes that deleted %d",
+                remaining, MAX_CLEAR_PASSES, deleted.documents()));
+        }
     }
 }
@@ -0,0 +1,43 @@
+package com.noelbundick.comparisons.search;
+
+/**
+ * Outcome of sending one batch to a backend, folded into BulkIndexingStats
+ */
+class BatchResult {
+    private final long succeeded;
+    private final long failed;
+    private final long retries;
+    private long latencyNanos;
+
+    BatchResult(long succeeded, long failed, long retries) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.retries = retries;
+    }
+
+    long succeeded() {
+        return succeeded;
+    }
+
+    long failed() {
+        return failed;
+    }
+
+    long retries() {
+        return retries;
+    }
+
+    long latencyNanos() {
+        return latencyNanos;
+    }
+
+    // Combine with the result of re-sending part of the same batch
+    BatchResult plus(BatchResult other) {
+        return new BatchResult(succeeded + other.succeeded, failed + other.failed, Math.max(retries, other.retries));
+    }
+
+    BatchResult latency(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+        return this;
+    }
+}
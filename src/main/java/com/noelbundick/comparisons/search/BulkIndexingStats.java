@@ -0,0 +1,118 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and per-batch latency for a bulk indexing run
+ */
+public class BulkIndexingStats {
+    @JsonProperty(value = "documents")
+    private long documents;
+
+    @JsonProperty(value = "failed")
+    private long failed;
+
+    @JsonProperty(value = "batches")
+    private long batches;
+
+    @JsonProperty(value = "retries")
+    private long retries;
+
+    @JsonProperty(value = "elapsedMs")
+    private long elapsedMs;
+
+    @JsonProperty(value = "docsPerSecond")
+    private double docsPerSecond;
+
+    @JsonProperty(value = "batchLatencyMs")
+    private Latency batchLatency = new Latency();
+
+    private long totalBatchNanos;
+
+    public long documents() {
+        return this.documents;
+    }
+
+    public long failed() {
+        return this.failed;
+    }
+
+    public long batches() {
+        return this.batches;
+    }
+
+    public long retries() {
+        return this.retries;
+    }
+
+    public long elapsedMs() {
+        return this.elapsedMs;
+    }
+
+    public double docsPerSecond() {
+        return this.docsPerSecond;
+    }
+
+    /**
+     * Record a batch that has been fully sent, including any retries
+     */
+    BulkIndexingStats addBatch(BatchResult result) {
+        return addBatch(result.succeeded(), result.failed(), result.retries(), result.latencyNanos());
+    }
+
+    private BulkIndexingStats addBatch(long documents, long failed, long retries, long latencyNanos) {
+        this.documents += documents;
+        this.failed += failed;
+        this.retries += retries;
+        this.batches++;
+
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        this.totalBatchNanos += latencyNanos;
+        this.batchLatency.min = this.batches == 1 ? latencyMs : Math.min(this.batchLatency.min, latencyMs);
+        this.batchLatency.max = Math.max(this.batchLatency.max, latencyMs);
+        this.batchLatency.avg = TimeUnit.NANOSECONDS.toMillis(this.totalBatchNanos / this.batches);
+        return this;
+    }
+
+    /**
+     * Fold in the batches of another run, e.g. a second pass over the same index
+     */
+    public BulkIndexingStats plus(BulkIndexingStats other) {
+        if (other.batches == 0) {
+            return this;
+        }
+
+        this.batchLatency.min = this.batches == 0 ? other.batchLatency.min : Math.min(this.batchLatency.min, other.batchLatency.min);
+        this.batchLatency.max = Math.max(this.batchLatency.max, other.batchLatency.max);
+        this.documents += other.documents;
+        this.failed += other.failed;
+        this.retries += other.retries;
+        this.batches += other.batches;
+        this.totalBatchNanos += other.totalBatchNanos;
+        this.batchLatency.avg = TimeUnit.NANOSECONDS.toMillis(this.totalBatchNanos / this.batches);
+        return this;
+    }
+
+    /**
+     * Stamp the wall-clock time of the whole run and derive throughput from it
+     */
+    public BulkIndexingStats complete(long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        this.elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        this.docsPerSecond = elapsedNanos == 0 ? 0 : this.documents * 1e9 / elapsedNanos;
+        return this;
+    }
+
+    static class Latency {
+        @JsonProperty(value = "min")
+        private long min;
+
+        @JsonProperty(value = "avg")
+        private long avg;
+
+        @JsonProperty(value = "max")
+        private long max;
+    }
+}
@@ -0,0 +1,121 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.web.BufferedResponse;
+import com.noelbundick.comparisons.web.ObservedResponse;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Caches the read operations of another SearchHandler, keyed by backend, operation and query params.
+ * Write operations pass through and invalidate the cache both when they start and once they've finished writing.
+ */
+public class CachingSearchHandler implements SearchHandler {
+    private final SearchHandler delegate;
+    private final String backend;
+    private final ResponseCache cache;
+
+    public CachingSearchHandler(SearchHandler delegate, String backend, ResponseCache cache) {
+        this.delegate = delegate;
+        this.backend = backend;
+        this.cache = cache;
+    }
+
+    public ResponseCache cache() {
+        return this.cache;
+    }
+
+    @Override
+    public Mono<ServerResponse> errorHandling(ServerRequest request) {
+        return delegate.errorHandling(request);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexing(ServerRequest request) {
+        return invalidating(request, delegate::indexing);
+    }
+
+    @Override
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        return invalidating(request, delegate::bulkIndexing);
+    }
+
+    @Override
+    public Mono<ServerResponse> clear(ServerRequest request) {
+        return invalidating(request, delegate::clear);
+    }
+
+    @Override
+    public Mono<ServerResponse> count(ServerRequest request) {
+        return cached("count", request, delegate::count);
+    }
+
+    @Override
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return cached("search", request, delegate::search);
+    }
+
+    @Override
+    // Results are streamed page by page, so there's nothing to hold on to
+    public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
+        return delegate.searchWithPaging(request);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return cached("searchWithFacets", request, delegate::searchWithFacets);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
+        return cached("searchWithCustomTypes", request, delegate::searchWithCustomTypes);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        return cached("searchNearby", request, delegate::searchNearby);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexManagement(ServerRequest request) {
+        return invalidating(request, delegate::indexManagement);
+    }
+
+    @Override
+    public Mono<ServerResponse> reset(ServerRequest request) {
+        return invalidating(request, delegate::reset);
+    }
+
+    private Mono<ServerResponse> cached(String operation, ServerRequest request,
+                                        Function<ServerRequest, Mono<ServerResponse>> handler) {
+        return cache.get(key(operation, request), () -> handler.apply(request).flatMap(BufferedResponse::from))
+            .flatMap(BufferedResponse::toResponse);
+    }
+
+    private Mono<ServerResponse> invalidating(ServerRequest request, Function<ServerRequest, Mono<ServerResponse>> handler) {
+        return Mono.defer(() -> {
+            cache.invalidate();
+            return handler.apply(request);
+        })
+            .map(response -> ObservedResponse.doFinallyWrite(response, signal -> cache.invalidate()))
+            .doOnError(err -> cache.invalidate());
+    }
+
+    private String key(String operation, ServerRequest request) {
+        StringBuilder key = new StringBuilder(backend).append(':').append(operation);
+        Map<String, List<String>> params = new TreeMap<>(request.queryParams());
+        char separator = '?';
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            for (String value : param.getValue()) {
+                key.append(separator).append(param.getKey()).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds how many requests one backend has in flight, adapting the bound to the latency it observes.
+ * The limit follows the gradient between a long-term and a short-term average latency: while requests take about as
+ * long as they usually do it grows by a small queue allowance, and as they slow down it shrinks in proportion.
+ * Requests over the limit are rejected at once rather than queued.
+ */
+public class ConcurrencyLimiter {
+    // Samples averaged into the short-term and long-term latency
+    static final int SHORT_WINDOW = 10;
+    static final int LONG_WINDOW = 600;
+    // How far a new limit moves the current one
+    static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimatedLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * @param tolerance how much slower than the long-term latency requests can get before the limit shrinks
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit || tolerance < 1) {
+            throw new IllegalArgumentException(String.format("Invalid limits: initial %d, min %d, max %d, tolerance %s",
+                initialLimit, minLimit, maxLimit, tolerance));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * Take a slot for a request, or null if the backend is already at its limit
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return null;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return new Permit(current + 1);
+            }
+        }
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inflight() {
+        return inflight.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(limit, inflight.get(), rejected.get(), shortRtt / 1e6, longRtt / 1e6);
+    }
+
+    // Requests that didn't keep at least half the slots busy say nothing about whether the limit is too low
+    synchronized void sample(long rttNanos, int inflightAtStart) {
+        if (longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+        }
+        shortRtt += (rttNanos - shortRtt) * 2 / (SHORT_WINDOW + 1);
+        longRtt += (rttNanos - longRtt) * 2 / (LONG_WINDOW + 1);
+
+        // After a lasting slowdown, let the long-term latency catch up rather than shrinking the limit forever
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        if (inflightAtStart < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * A request's slot, given back once with either its latency or, if it says nothing about the backend, without
+     */
+    public class Permit {
+        private final int inflightAtStart;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inflightAtStart) {
+            this.inflightAtStart = inflightAtStart;
+        }
+
+        public long start() {
+            return start;
+        }
+
+        /**
+         * Give the slot back, recording the request's latency
+         */
+        public void release(long rttNanos) {
+            if (released.compareAndSet(false, true)) {
+                inflight.decrementAndGet();
+                sample(rttNanos, inflightAtStart);
+            }
+        }
+
+        /**
+         * Give the slot back without a latency, e.g. when the client went away
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                inflight.decrementAndGet();
+            }
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty(value = "limit")
+        private final int limit;
+
+        @JsonProperty(value = "inflight")
+        private final int inflight;
+
+        @JsonProperty(value = "rejected")
+        private final long rejected;
+
+        @JsonProperty(value = "shortRttMs")
+        private final double shortRttMs;
+
+        @JsonProperty(value = "longRttMs")
+        private final double longRttMs;
+
+        Stats(int limit, int inflight, long rejected, double shortRttMs, double longRttMs) {
+            this.limit = limit;
+            this.inflight = inflight;
+            this.rejected = rejected;
+            this.shortRttMs = shortRttMs;
+            this.longRttMs = longRttMs;
+        }
+
+        public int limit() {
+            return limit;
+        }
+
+        public int inflight() {
+            return inflight;
+        }
+
+        public long rejected() {
+            return rejected;
+        }
+
+        public double shortRttMs() {
+            return shortRttMs;
+        }
+
+        public double longRttMs() {
+            return longRttMs;
+        }
+    }
+}
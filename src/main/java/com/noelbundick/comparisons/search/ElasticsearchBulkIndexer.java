@@ -0,0 +1,160 @@
+package com.noelbundick.comparisons.search;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.noelbundick.comparisons.search.ElasticsearchHandler.getListenerForSink;
+
+/**
+ * Streams index requests to Elasticsearch as a series of bounded bulk requests.
+ * Batches are cut by document count or by source size, whichever is hit first, and only a fixed number of
+ * bulk requests are in flight at a time so memory use doesn't depend on how many documents are pushed.
+ */
+public class ElasticsearchBulkIndexer {
+    private final RestHighLevelClient client;
+
+    private int maxActions = 1000;
+    private long maxBytes = 5 * 1024 * 1024;
+    private int concurrency = 4;
+    private int maxRetries = 3;
+    private Duration backoff = Duration.ofMillis(100);
+
+    public ElasticsearchBulkIndexer(RestHighLevelClient client) {
+        this.client = client;
+    }
+
+    public ElasticsearchBulkIndexer maxActions(int maxActions) {
+        this.maxActions = maxActions;
+        return this;
+    }
+
+    public ElasticsearchBulkIndexer maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public int concurrency() {
+        return concurrency;
+    }
+
+    public ElasticsearchBulkIndexer concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public ElasticsearchBulkIndexer maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public ElasticsearchBulkIndexer backoff(Duration backoff) {
+        this.backoff = backoff;
+        return this;
+    }
+
+    public Mono<BulkIndexingStats> index(Flux<IndexRequest> requests) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return batch(requests)
+                .flatMap(this::sendBatch, concurrency, 1)
+                .reduce(new BulkIndexingStats(), BulkIndexingStats::addBatch)
+                .map(stats -> stats.complete(start));
+        });
+    }
+
+    // Cut the stream into batches by count and by size. The counters are per-subscription state.
+    private Flux<List<IndexRequest>> batch(Flux<IndexRequest> requests) {
+        return Flux.defer(() -> {
+            long[] bytes = {0};
+            int[] count = {0};
+            return requests.bufferUntil(request -> {
+                bytes[0] += request.source().length();
+                count[0]++;
+                if (count[0] >= maxActions || bytes[0] >= maxBytes) {
+                    bytes[0] = 0;
+                    count[0] = 0;
+                    return true;
+                }
+                return false;
+            });
+        });
+    }
+
+    private Mono<BatchResult> sendBatch(List<IndexRequest> requests) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return send(requests, 0)
+                .map(result -> result.latency(System.nanoTime() - start));
+        });
+    }
+
+    // Send a bulk request, then re-send just the items that failed with a retryable status. A request that fails as a
+    // whole with a retryable error is re-sent whole. Both kinds of retry come out of the same maxRetries attempts.
+    private Mono<BatchResult> send(List<IndexRequest> requests, int attempt) {
+        BulkRequest bulkRequest = new BulkRequest();
+        requests.forEach(bulkRequest::add);
+
+        return Mono.<BulkResponse>create(sink -> client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            // Empty means retry everything, so that errors from the item retries below aren't caught here as well
+            .onErrorResume(e -> attempt < maxRetries && isRetryable(e), e -> Mono.empty())
+            .flatMap(res -> {
+                if (!res.hasFailures()) {
+                    return Mono.just(new BatchResult(requests.size(), 0, attempt));
+                }
+
+                List<IndexRequest> retryable = new ArrayList<>();
+                int failed = 0;
+                for (BulkItemResponse item : res.getItems()) {
+                    if (!item.isFailed()) {
+                        continue;
+                    }
+                    if (attempt < maxRetries && isRetryable(item.status())) {
+                        retryable.add(requests.get(item.getItemId()));
+                    } else {
+                        failed++;
+                    }
+                }
+
+                int succeeded = requests.size() - retryable.size() - failed;
+                BatchResult result = new BatchResult(succeeded, failed, attempt);
+                if (retryable.isEmpty()) {
+                    return Mono.just(result);
+                }
+
+                return retry(retryable, attempt).map(result::plus);
+            })
+            .switchIfEmpty(Mono.defer(() -> retry(requests, attempt)));
+    }
+
+    private Mono<BatchResult> retry(List<IndexRequest> requests, int attempt) {
+        return Mono.delay(backoff.multipliedBy(1L << attempt))
+            .then(send(requests, attempt + 1));
+    }
+
+    // Connection failures and the statuses below are worth retrying, anything else the whole request would fail again
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof IOException
+            || error instanceof ElasticsearchStatusException && isRetryable(((ElasticsearchStatusException) error).status());
+    }
+
+    // Mapping errors and the like will fail again - only back-pressure and availability errors are worth retrying
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS
+            || status == RestStatus.SERVICE_UNAVAILABLE
+            || status == RestStatus.GATEWAY_TIMEOUT
+            || status == RestStatus.BAD_GATEWAY;
+    }
+}
@@ -1,54 +1,106 @@
 package com.noelbundick.comparisons.search;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
 import com.noelbundick.comparisons.search.models.HotelAddress;
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+import com.noelbundick.comparisons.web.RequestMetrics;
 import org.apache.http.HttpHost;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.DistanceUnit;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.Scroll;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
 
-import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 public class ElasticsearchHandler implements SearchHandler {
+    // In FacetIndex order
+    static final String[] FACETS = {"Category", "Rating", "ParkingIncluded", "Rooms.SmokingAllowed"};
+
+    // Below this many hits per thread, handing decoding off costs more than it saves
+    private static final int PARALLEL_DECODE_MIN_HITS = 64;
+
+    // Reads and writes go to the hotels alias, which reset and indexManagement move onto versioned indices
+    private static final String ALIAS = "hotels";
+    private static final DateTimeFormatter VERSION = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC);
 
     private final RestHighLevelClient client;
-    private final ObjectMapper mapper = new ObjectMapper();
+    // Bulk uploads and index management go through this, which is client unless there's a maintenance lane
+    private RestHighLevelClient maintenanceClient;
+    private MaintenanceLane maintenanceLane;
+    // One alias swap at a time, so two rebuilds can't both move the alias off the same index and leave it on both
+    private final MaintenanceLane aliasSwaps = new MaintenanceLane("elasticsearch-alias-swaps", 1, Integer.MAX_VALUE, 1, Schedulers.immediate());
+    private final JsonCodec codec = JsonCodec.shared();
+    private MicroBatcher<ElasticsearchHotel, BulkItemResponse> indexBatcher;
+    private FacetIndex facetIndex;
+    private GeoIndex geoIndex;
 
     public ElasticsearchHandler(String endpoint) {
-        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(endpoint)));
+        this(RestClient.builder(HttpHost.create(endpoint)));
+    }
+
+    public ElasticsearchHandler(RestClientBuilder builder) {
+        client = new RestHighLevelClient(builder);
+        maintenanceClient = client;
     }
 
     @Override
@@ -63,50 +115,142 @@ public class ElasticsearchHandler implements SearchHandler {
 
     @Override
     // There are different methods for single vs bulk (preferred) indexing documents
+    // With batching on, concurrent calls are coalesced into bulk requests; ack=queued responds before the flush
     public Mono<ServerResponse> indexing(ServerRequest request) {
         ElasticsearchHotel hotel = new ElasticsearchHotel()
             .hotelId(UUID.randomUUID().toString())
             .address(new HotelAddress().city("Seattle"));
-        String json = serialize(hotel);
 
-        IndexRequest indexRequest = new IndexRequest("hotels")
-            .id(hotel.hotelId())
-            .source(json, XContentType.JSON);
+        if (indexBatcher != null) {
+            // Deferred so an unknown ack fails the Mono rather than the call
+            return Mono.defer(() -> indexBatcher.submit(hotel, indexBatcher.ack(request)))
+                .flatMap(item -> item.isFailed()
+                    ? ServerResponse.status(item.status().getStatus()).bodyValue(item.getFailureMessage())
+                    : ok().bodyValue(item.getResponse()))
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.accepted().bodyValue(String.format("Queued document %s", hotel.hotelId()))))
+                .doOnNext(res -> RequestMetrics.documents(request, 1))
+                .onErrorResume(RejectedExecutionException.class, err -> ServerResponse.status(503).bodyValue(err.getMessage()))
+                .onErrorResume(MicroBatcher.InvalidAckException.class, err -> ServerResponse.badRequest().bodyValue(err.getMessage()));
+        }
+
+        IndexRequest indexRequest = indexRequest(hotel);
 
         return Mono.<IndexResponse>create(sink -> client.indexAsync(indexRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            .doOnNext(res -> RequestMetrics.documents(request, 1))
+            .doOnNext(res -> indexed(hotel))
             .flatMap(res -> ok().bodyValue(res));
     }
 
-    @Override
-    // Compile index operations and send all at once
-    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+    /**
+     * Coalesce concurrent indexing() calls into bulk requests of up to maxSize documents, waiting at most maxDelay
+     */
+    public ElasticsearchHandler batchIndexing(int maxSize, Duration maxDelay, MicroBatcher.Ack ack, int maxPending) {
+        indexBatcher = new MicroBatcher<>(this::bulk, maxSize, maxDelay, ack, maxPending)
+            .failedWhen(BulkItemResponse::isFailed);
+        return this;
+    }
+
+    public MicroBatcher.Stats indexBatcherStats() {
+        return indexBatcher == null ? null : indexBatcher.stats();
+    }
+
+    /**
+     * Run bulkIndexing, clear, indexManagement and reset on a MaintenanceLane, sending their requests through a
+     * client of their own so they don't hold the connections searches need
+     */
+    public ElasticsearchHandler maintenanceLane(MaintenanceLane lane, RestClientBuilder builder) {
+        this.maintenanceLane = lane;
+        this.maintenanceClient = new RestHighLevelClient(builder);
+        return this;
+    }
+
+    public MaintenanceLane.Stats maintenanceLaneStats() {
+        return maintenanceLane == null ? null : maintenanceLane.stats();
+    }
+
+    /**
+     * Keep facet counts in process, fed by everything this handler indexes, and answer searchWithFacets from them
+     * when asked with source=local
+     */
+    public ElasticsearchHandler facetIndex(FacetIndex facetIndex) {
+        this.facetIndex = facetIndex;
+        return this;
+    }
+
+    /**
+     * Keep hotel locations in process, fed by everything this handler indexes, and answer searchNearby from them
+     * when asked with source=local
+     */
+    public ElasticsearchHandler geoIndex(GeoIndex geoIndex) {
+        this.geoIndex = geoIndex;
+        return this;
+    }
+
+    // One bulk request per batch, with an item response for each hotel in the order they were added
+    private Mono<List<BulkItemResponse>> bulk(List<ElasticsearchHotel> hotels) {
         BulkRequest bulkRequest = new BulkRequest();
-        for (int i = 0; i < 10000; i++) {
-            ElasticsearchHotel hotel = new ElasticsearchHotel()
-                .hotelId(Integer.toString(i))
-                .address(new HotelAddress().city("Seattle"));
-
-            bulkRequest.add(new IndexRequest("hotels")
-                .id(hotel.hotelId())
-                .source(serialize(hotel), XContentType.JSON));
-        }
+        hotels.forEach(hotel -> bulkRequest.add(indexRequest(hotel)));
 
         return Mono.<BulkResponse>create(sink -> client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
-            .flatMap(res -> ok().bodyValue(String.format("Indexed %d documents", res.getItems().length)));
+            .map(res -> Arrays.asList(res.getItems()))
+            .doOnNext(items -> {
+                for (BulkItemResponse item : items) {
+                    if (!item.isFailed()) {
+                        indexed(hotels.get(item.getItemId()));
+                    }
+                }
+            });
     }
 
     @Override
-    // Delete the entire index
+    // Stream index operations through bounded bulk requests
+    // Batch size, batch bytes and concurrency can be tuned with query params
+    // With source=synthetic, index fully populated hotels from a seeded generator instead of bare ones
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        int count = request.queryParam("count").map(Integer::parseInt).orElse(10000);
+
+        Flux<ElasticsearchHotel> hotels = isSynthetic(request)
+            ? hotelGenerator(request).elasticsearchHotels(count)
+            : Flux.range(0, count)
+                .map(i -> new ElasticsearchHotel()
+                    .hotelId(Integer.toString(i))
+                    .address(new HotelAddress().city("Seattle")));
+
+        return maintenance(bulkIndexer(request)
+            .index(produce(hotels.doOnNext(this::indexed).map(hotel -> indexRequest(ALIAS, hotel))))
+            .doOnNext(this::staleIfFailed)
+            .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+            .flatMap(stats -> ok().bodyValue(stats)));
+    }
+
+    @Override
+    // Delete the entire index, or every index behind the alias
     public Mono<ServerResponse> clear(ServerRequest request) {
-        DeleteIndexRequest deleteRequest = new DeleteIndexRequest("hotels");
-        return Mono.<AcknowledgedResponse>create(sink -> client.indices().deleteAsync(deleteRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
-            .flatMap(res -> ok().bodyValue("index deleted"));
+        return maintenance(currentIndices()
+            .flatMap(indices -> deleteIndices(indices.isEmpty() ? Collections.singletonList(ALIAS) : indices))
+            .doOnNext(res -> clearLocalIndexes())
+            .flatMap(res -> ok().bodyValue("index deleted")));
+    }
+
+    private Mono<AcknowledgedResponse> deleteIndices(List<String> indices) {
+        DeleteIndexRequest deleteRequest = new DeleteIndexRequest(indices.toArray(new String[0]));
+        return Mono.create(sink -> maintenanceClient.indices().deleteAsync(deleteRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
+    }
+
+    // The indices behind the alias, the index itself if it predates the alias, or none
+    private Mono<List<String>> currentIndices() {
+        GetIndexRequest getRequest = new GetIndexRequest(ALIAS);
+        return Mono.<GetIndexResponse>create(sink -> maintenanceClient.indices().getAsync(getRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            .map(res -> Arrays.asList(res.getIndices()))
+            .onErrorResume(ElasticsearchStatusException.class, err -> err.status() == RestStatus.NOT_FOUND
+                ? Mono.just(Collections.emptyList())
+                : Mono.error(err));
     }
 
     @Override
     // Get a count of all documents in the index
     public Mono<ServerResponse> count(ServerRequest request) {
-        CountRequest countRequest = new CountRequest("hotels");
+        CountRequest countRequest = new CountRequest(ALIAS);
         return Mono.<CountResponse>create(sink -> client.countAsync(countRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
             .flatMap(res -> ok().bodyValue(res.getCount()));
     }
@@ -114,117 +258,453 @@ public class ElasticsearchHandler implements SearchHandler {
     @Override
     // Simple string search
     public Mono<ServerResponse> search(ServerRequest request) {
-        SearchRequest searchRequest = new SearchRequest("hotels");
+        SearchRequest searchRequest = new SearchRequest(ALIAS);
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
             .query(new QueryStringQueryBuilder("Seattle"));
         searchRequest.source(sourceBuilder);
 
         return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            .doOnNext(res -> RequestMetrics.documents(request, res.getHits().getHits().length))
             .flatMap(res -> ok().bodyValue(res.getHits()));
     }
 
     @Override
-    // Scroll the results, 5 at a time
+    // Stream hits to the client as each page arrives, 5 at a time by default
+    // Pages are fetched with search_after unless mode=scroll is requested; size and limit are optional query params
     public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
-        Scroll scroll = new Scroll(TimeValue.timeValueMinutes(1));
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(5);
+        long limit = request.queryParam("limit").map(Long::parseLong).orElse(Long.MAX_VALUE);
+        boolean scroll = request.queryParam("mode").map("scroll"::equals).orElse(false);
 
-        SearchRequest searchRequest = new SearchRequest("hotels");
-        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
-            .query(new QueryStringQueryBuilder("Seattle"))
-            .size(5);
-        searchRequest.source(sourceBuilder)
-            .scroll(scroll);
+        Flux<SearchHit> hits = (scroll ? scrollPages(size) : searchAfterPages(size))
+            .flatMapIterable(res -> Arrays.asList(res.getHits().getHits()))
+            .take(limit);
 
-        return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+        return ok()
+            .contentType(MediaType.APPLICATION_STREAM_JSON)
+            .body(RequestMetrics.countDocuments(request, hits), SearchHit.class);
+    }
+
+    // Cursor over the results using the sort values of the last hit on each page
+    // Ties on score are broken by HotelId so the cursor is stable
+    private Flux<SearchResponse> searchAfterPages(int size) {
+        return searchAfterPage(size, null)
             .expand(res -> {
-                if (res.getHits()==null || res.getHits().getHits().length==0) {
+                SearchHit[] hits = res.getHits().getHits();
+                if (hits.length < size) {
                     return Mono.empty();
                 }
+                return searchAfterPage(size, hits[hits.length - 1].getSortValues());
+            });
+    }
 
-                SearchScrollRequest scrollRequest = new SearchScrollRequest(res.getScrollId())
-                    .scroll(scroll);
-                return Mono.create(sink -> client.scrollAsync(scrollRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
-            })
-            .reduce(new ArrayList<SearchHit>(), (list, res) -> {
-                list.addAll(Arrays.asList(res.getHits().getHits()));
-                return list;
-            })
-            .flatMap(list -> ok().bodyValue(list));
+    private Mono<SearchResponse> searchAfterPage(int size, Object[] searchAfter) {
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+            .query(new QueryStringQueryBuilder("Seattle"))
+            .sort(SortBuilders.scoreSort())
+            .sort(SortBuilders.fieldSort("HotelId.keyword").order(SortOrder.ASC))
+            .size(size);
+        if (searchAfter != null) {
+            sourceBuilder.searchAfter(searchAfter);
+        }
+        SearchRequest searchRequest = new SearchRequest(ALIAS)
+            .source(sourceBuilder);
+
+        return Mono.create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
+    }
+
+    // Page through a scroll context, and always clear it - whether the client reads every hit, hits the limit,
+    // disconnects or the search fails
+    private Flux<SearchResponse> scrollPages(int size) {
+        return Flux.defer(() -> {
+            Scroll scroll = new Scroll(TimeValue.timeValueMinutes(1));
+            AtomicReference<String> scrollId = new AtomicReference<>();
+
+            SearchRequest searchRequest = new SearchRequest(ALIAS);
+            SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(new QueryStringQueryBuilder("Seattle"))
+                .size(size);
+            searchRequest.source(sourceBuilder)
+                .scroll(scroll);
+
+            return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+                .expand(res -> {
+                    if (res.getHits() == null || res.getHits().getHits().length == 0) {
+                        return Mono.empty();
+                    }
+
+                    SearchScrollRequest scrollRequest = new SearchScrollRequest(res.getScrollId())
+                        .scroll(scroll);
+                    return Mono.<SearchResponse>create(sink -> client.scrollAsync(scrollRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
+                })
+                .doOnNext(res -> scrollId.set(res.getScrollId()))
+                .doFinally(signal -> clearScroll(scrollId.get()));
+        });
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+
+        ClearScrollRequest clearRequest = new ClearScrollRequest();
+        clearRequest.addScrollId(scrollId);
+        Mono.<ClearScrollResponse>create(sink -> client.clearScrollAsync(clearRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            .subscribe(res -> {}, Throwable::printStackTrace);
     }
 
     @Override
     // Use the aggregations API
+    // With source=local, count from the in-process facet index instead, or with source=check, compare the two
     public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
-        SearchRequest searchRequest = new SearchRequest("hotels");
+        return FacetSource.respond(request, facetIndex, FACETS, this::backendFacets);
+    }
+
+    private Mono<HashMap<String, HashMap<String, Long>>> backendFacets() {
+        SearchRequest searchRequest = new SearchRequest(ALIAS);
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
-            .aggregation(AggregationBuilders.terms("Category"))
-            .aggregation(AggregationBuilders.terms("Rating"))
-            .aggregation(AggregationBuilders.terms("ParkingIncluded"))
-            .aggregation(AggregationBuilders.terms("Rooms.SmokingAllowed"));
+            .aggregation(AggregationBuilders.terms(FACETS[FacetIndex.CATEGORY]).field("Category.keyword"))
+            .aggregation(AggregationBuilders.terms(FACETS[FacetIndex.RATING]).field("Rating"))
+            .aggregation(AggregationBuilders.terms(FACETS[FacetIndex.PARKING_INCLUDED]).field("ParkingIncluded"))
+            .aggregation(AggregationBuilders.terms(FACETS[FacetIndex.ROOMS_SMOKING_ALLOWED]).field("Rooms.SmokingAllowed"));
         searchRequest.source(sourceBuilder);
 
         return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
-            .map(res -> res.getAggregations().asList())
-            .flatMap(list -> ok().bodyValue(list));
+            .map(res -> facetCounts(res.getAggregations()));
+    }
+
+    // Same shape as the Azure facets: field -> value -> count
+    static HashMap<String, HashMap<String, Long>> facetCounts(Aggregations aggregations) {
+        HashMap<String, HashMap<String, Long>> facetResults = new HashMap<>();
+        for (Aggregation aggregation : aggregations) {
+            HashMap<String, Long> facetValues = new HashMap<>();
+            for (Terms.Bucket bucket : ((Terms) aggregation).getBuckets()) {
+                facetValues.put(bucket.getKeyAsString(), bucket.getDocCount());
+            }
+            facetResults.put(aggregation.getName(), facetValues);
+        }
+        return facetResults;
     }
 
     @Override
-    // Bring-your-own custom marshaling with an ObjectMapper
+    // Bring-your-own custom marshaling, reading each hit's _source bytes straight into the model
+    // fields limits _source to a comma-separated list of fields, and size sets the page size
+    // With parallel=true, large pages are decoded in chunks on the parallel scheduler
     public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
-        SearchRequest searchRequest = new SearchRequest("hotels");
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(5);
+        boolean parallel = request.queryParam("parallel").map(Boolean::parseBoolean).orElse(false);
+
+        SearchRequest searchRequest = new SearchRequest(ALIAS);
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
             .query(new QueryStringQueryBuilder("Seattle"))
-            .size(5);
+            .size(size);
+        request.queryParam("fields")
+            .ifPresent(fields -> sourceBuilder.fetchSource(fields.split(","), null));
         searchRequest.source(sourceBuilder);
 
         return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
-            .flatMap(res -> {
-                List<ElasticsearchHotel> hotels = Arrays.stream(res.getHits().getHits())
-                    .map(item -> deserialize(item.getSourceAsString(), ElasticsearchHotel.class))
-                    .collect(Collectors.toList());
+            .flatMap(res -> decodeHits(res.getHits().getHits(), parallel))
+            .flatMap(hotels -> {
+                RequestMetrics.documents(request, hotels.size());
                 return ok().bodyValue(hotels);
             });
     }
 
     @Override
-    // Create an index using only a name
+    // Filter with geo_distance and sort with _geo_distance, which needs Location mapped as a geo_point
+    // lat, lon (default downtown Seattle), distance in km (default 10) and size (default 10) pick the hotels
+    // With source=local, answer from the in-process geo index instead
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        double lat = request.queryParam("lat").map(Double::parseDouble).orElse(47.6062);
+        double lon = request.queryParam("lon").map(Double::parseDouble).orElse(-122.3321);
+        double distance = request.queryParam("distance").map(Double::parseDouble).orElse(10.0);
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(10);
+
+        boolean local = request.queryParam("source").map("local"::equals).orElse(false);
+        if (local && geoIndex != null && !geoIndex.isStale()) {
+            List<NearbyHotel> hotels = geoIndex.nearby(lat, lon, distance, size);
+            RequestMetrics.documents(request, hotels.size());
+            return ok().bodyValue(hotels);
+        }
+
+        SearchRequest searchRequest = new SearchRequest(ALIAS);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+            .query(QueryBuilders.geoDistanceQuery("Location").point(lat, lon).distance(distance, DistanceUnit.KILOMETERS))
+            .sort(SortBuilders.geoDistanceSort("Location", lat, lon).unit(DistanceUnit.KILOMETERS).order(SortOrder.ASC))
+            .fetchSource(new String[]{"HotelId", "HotelName", "Location"}, null)
+            .size(size);
+        searchRequest.source(sourceBuilder);
+
+        return Mono.<SearchResponse>create(sink -> client.searchAsync(searchRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+            .flatMap(res -> decodeHits(res.getHits().getHits(), false))
+            .flatMap(hotels -> {
+                List<NearbyHotel> nearby = new ArrayList<>(hotels.size());
+                for (ElasticsearchHotel hotel : hotels) {
+                    nearby.add(new NearbyHotel()
+                        .hotelId(hotel.hotelId())
+                        .hotelName(hotel.hotelName())
+                        .distanceKm(GeoIndex.distanceKm(lat, lon, hotel.location().getLat(), hotel.location().getLon())));
+                }
+                RequestMetrics.documents(request, nearby.size());
+                return ok().bodyValue(nearby);
+            });
+    }
+
+    // Decoding is CPU-bound, so it's only worth handing to other threads when there's enough of it
+    Mono<List<ElasticsearchHotel>> decodeHits(SearchHit[] hits, boolean parallel) {
+        int chunks = Math.min(Schedulers.DEFAULT_POOL_SIZE, hits.length / PARALLEL_DECODE_MIN_HITS);
+        if (!parallel || chunks < 2) {
+            return Mono.fromSupplier(() -> decodeHits(hits, 0, hits.length));
+        }
+
+        int chunkSize = (hits.length + chunks - 1) / chunks;
+        return Flux.range(0, chunks)
+            .flatMapSequential(chunk -> Mono.fromSupplier(() -> decodeHits(hits, chunk * chunkSize, Math.min(hits.length, (chunk + 1) * chunkSize)))
+                .subscribeOn(Schedulers.parallel()), chunks)
+            .collect(() -> new ArrayList<ElasticsearchHotel>(hits.length), List::addAll);
+    }
+
+    private List<ElasticsearchHotel> decodeHits(SearchHit[] hits, int from, int to) {
+        List<ElasticsearchHotel> hotels = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            // Hits have no _source when none of the requested fields exist
+            BytesReference sourceRef = hits[i].getSourceRef();
+            if (sourceRef == null) {
+                hotels.add(new ElasticsearchHotel().hotelId(hits[i].getId()));
+                continue;
+            }
+            BytesRef source = sourceRef.toBytesRef();
+            hotels.add(codec.decode(source.bytes, source.offset, source.length, ElasticsearchHotel.class));
+        }
+        return hotels;
+    }
+
+    @Override
+    // Rebuild the index with the current mapping: create a versioned index, copy every document into it, then swap it in
+    // Only Location is mapped: dynamic mapping would make its {lat, lon} two floats, not a geo_point
     public Mono<ServerResponse> indexManagement(ServerRequest request) {
-        CreateIndexRequest createRequest = new CreateIndexRequest("hotels");
-        return Mono.<CreateIndexResponse>create(sink -> client.indices().createAsync(createRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
-            .flatMap(res -> ok().bodyValue(String.format("index created: %s", res.index())));
+        return maintenance(rebuild(this::copyInto)
+            .flatMap(ElasticsearchHandler::swapResponse));
+    }
+
+    private Mono<CreateIndexResponse> createIndex(String index) {
+        CreateIndexRequest createRequest = new CreateIndexRequest(index)
+            .mapping("{\"properties\":{\"Location\":{\"type\":\"geo_point\"}}}", XContentType.JSON);
+        return Mono.create(sink -> maintenanceClient.indices().createAsync(createRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
+    }
+
+    // Nothing to copy the first time, before there's an index
+    private Mono<BulkIndexingStats> copyInto(String index) {
+        long start = System.nanoTime();
+        return currentIndices().flatMap(current -> {
+            if (current.isEmpty()) {
+                return Mono.just(new BulkIndexingStats().complete(start));
+            }
+            ReindexRequest reindexRequest = new ReindexRequest()
+                .setSourceIndices(ALIAS)
+                .setDestIndex(index);
+            return Mono.<BulkByScrollResponse>create(sink -> maintenanceClient.reindexAsync(reindexRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+                .map(res -> new BulkIndexingStats()
+                    .addBatch(new BatchResult(res.getCreated(), res.getBulkFailures().size() + res.getSearchFailures().size(), 0)
+                        .latency(res.getTook().nanos()))
+                    .complete(start));
+        });
     }
 
     @Override
-    // Drop and recreate an index, then upload some data
+    // Load a new versioned index with some data, then swap it in
+    // With source=synthetic, upload count generated hotels instead of the sample data
     public Mono<ServerResponse> reset(ServerRequest request) {
-        return clear(request)
-            .onErrorResume(ElasticsearchException.class, err -> ok().bodyValue("ignored"))
-            .flatMap(res -> indexManagement(request))
-            .flatMap(res -> uploadHotels())
-            .flatMap(res -> ok().bodyValue(String.format("reset docs: %s", res.getItems().length)));
+        return maintenance(rebuild(index -> {
+                // Local requests go to the backend, and its old index, until the new one is in place
+                clearLocalIndexes();
+                staleLocalIndexes();
+                return uploadHotels(request, index);
+            })
+            .doOnNext(swap -> {
+                if (swap.swapped()) {
+                    freshLocalIndexes();
+                }
+            })
+            .doOnNext(swap -> RequestMetrics.documents(request, swap.load().documents()))
+            .flatMap(ElasticsearchHandler::swapResponse));
+    }
+
+    private Mono<BulkIndexingStats> uploadHotels(ServerRequest request, String index) {
+        if (isSynthetic(request)) {
+            int count = request.queryParam("count").map(Integer::parseInt).orElse(10000);
+            return bulkIndexer(request).index(produce(hotelGenerator(request).elasticsearchHotels(count).doOnNext(this::indexed).map(hotel -> indexRequest(index, hotel))));
+        }
+        return bulkIndexer(request).index(produce(readHotels(index)));
     }
 
-    private Mono<BulkResponse> uploadHotels() {
-        try {
-            URL filePath = getClass().getClassLoader().getResource("search-hotels-elasticsearch.json");
-            List<Map<String, ?>> hotels = mapper.readValue(filePath, new TypeReference<>() {
+    // Build a versioned index with load, refresh it so every document is searchable, then move the alias onto it.
+    // Searches see the old index until the swap and all of the new one after it, never neither or a partial one.
+    // Writes that reach the old index while the new one is loading are dropped with it.
+    private Mono<IndexSwap> rebuild(Function<String, Mono<BulkIndexingStats>> load) {
+        return Mono.defer(() -> {
+            String index = ALIAS + "-" + VERSION.format(Instant.now());
+            return createIndex(index)
+                .then(Mono.defer(() -> load.apply(index))
+                    .flatMap(stats -> {
+                        if (stats.failed() > 0) {
+                            return deleteIndices(Collections.singletonList(index))
+                                .thenReturn(IndexSwap.abandoned(ALIAS, index, stats));
+                        }
+                        return refresh(index).then(swapAlias(index, stats));
+                    })
+                    // Don't leave a half-built index behind
+                    .onErrorResume(err -> deleteIndices(Collections.singletonList(index))
+                        .onErrorResume(ElasticsearchException.class, e -> Mono.empty())
+                        .then(Mono.error(err))));
+        });
+    }
+
+    private Mono<RefreshResponse> refresh(String index) {
+        RefreshRequest refreshRequest = new RefreshRequest(index);
+        return Mono.create(sink -> maintenanceClient.indices().refreshAsync(refreshRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
+    }
+
+    // One aliases request adds the new index and removes the old ones, which Elasticsearch applies atomically.
+    // The old indices are dropped afterwards
+    private Mono<IndexSwap> swapAlias(String index, BulkIndexingStats stats) {
+        return aliasSwaps.submit(currentIndices().flatMap(current -> {
+                IndicesAliasesRequest aliasesRequest = new IndicesAliasesRequest()
+                    .addAliasAction(AliasActions.add().index(index).alias(ALIAS));
+                for (String old : current) {
+                    // An index from before the alias has its name, so it has to go in the same step
+                    aliasesRequest.addAliasAction(old.equals(ALIAS)
+                        ? AliasActions.removeIndex().index(old)
+                        : AliasActions.remove().index(old).alias(ALIAS));
+                }
+                long start = System.nanoTime();
+                return Mono.<AcknowledgedResponse>create(sink -> maintenanceClient.indices().updateAliasesAsync(aliasesRequest, RequestOptions.DEFAULT, getListenerForSink(sink)))
+                    .map(res -> IndexSwap.swapped(ALIAS, index, current, System.nanoTime() - start, stats));
+            }))
+            .flatMap(swap -> {
+                List<String> old = new ArrayList<>(swap.replaced());
+                old.remove(ALIAS);
+                if (old.isEmpty()) {
+                    return Mono.just(swap);
+                }
+                // Nothing reads from them any more, so one that can't be dropped now doesn't fail the swap
+                return deleteIndices(old)
+                    .map(res -> swap)
+                    .onErrorReturn(ElasticsearchException.class, swap);
             });
+    }
 
-            BulkRequest bulkRequest = new BulkRequest();
-            for (Map<String, ?> hotel : hotels) {
-                bulkRequest.add(new IndexRequest("hotels")
-                    .id((String) hotel.get("HotelId"))
-                    .source(hotel));
-            }
+    private static Mono<ServerResponse> swapResponse(IndexSwap swap) {
+        return ServerResponse.status(swap.swapped() ? 200 : 500).bodyValue(swap);
+    }
+
+    // With a maintenance lane, wait for a turn on it, or answer 503 once too many operations are already waiting
+    private Mono<ServerResponse> maintenance(Mono<ServerResponse> operation) {
+        if (maintenanceLane == null) {
+            return operation;
+        }
+        return maintenanceLane.submit(operation)
+            .onErrorResume(RejectedExecutionException.class, err -> ServerResponse.status(503).bodyValue(err.getMessage()));
+    }
+
+    private <T> Flux<T> produce(Flux<T> documents) {
+        return maintenanceLane == null ? documents : maintenanceLane.produce(documents);
+    }
+
+    private IndexRequest indexRequest(ElasticsearchHotel hotel) {
+        return indexRequest(ALIAS, hotel);
+    }
+
+    private IndexRequest indexRequest(String index, ElasticsearchHotel hotel) {
+        return new IndexRequest(index)
+            .id(hotel.hotelId())
+            .source(serializeToBytes(hotel), XContentType.JSON);
+    }
+
+    // The sample data is parsed once and each hotel handed to the bulk request as the JSON it was stored as
+    // Hotels are only decoded when there's a local index to keep up to date
+    private Flux<IndexRequest> readHotels(String index) {
+        return HotelDataset.of(HotelDataset.ELASTICSEARCH)
+            .documents((id, source, offset, length) -> {
+                if (facetIndex != null || geoIndex != null) {
+                    indexed(codec.decode(source, offset, length, ElasticsearchHotel.class));
+                }
+                return new IndexRequest(index)
+                    .id(id)
+                    .source(source, offset, length, XContentType.JSON);
+            });
+    }
+
+    private void indexed(ElasticsearchHotel hotel) {
+        if (facetIndex != null) {
+            facetIndex.put(hotel);
+        }
+        if (geoIndex != null) {
+            geoIndex.put(hotel);
+        }
+    }
 
-            return Mono.create(sink -> client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, getListenerForSink(sink)));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    // Bulk uploads add hotels to the local indexes as they're sent, so any that fail leave them holding too many
+    private void staleIfFailed(BulkIndexingStats stats) {
+        if (stats.failed() == 0) {
+            return;
+        }
+        if (facetIndex != null) {
+            facetIndex.markStale();
+        }
+        if (geoIndex != null) {
+            geoIndex.markStale();
         }
     }
 
+    private void staleLocalIndexes() {
+        if (facetIndex != null) {
+            facetIndex.markStale();
+        }
+        if (geoIndex != null) {
+            geoIndex.markStale();
+        }
+    }
+
+    private void freshLocalIndexes() {
+        if (facetIndex != null) {
+            facetIndex.markFresh();
+        }
+        if (geoIndex != null) {
+            geoIndex.markFresh();
+        }
+    }
+
+    private void clearLocalIndexes() {
+        if (facetIndex != null) {
+            facetIndex.clear();
+        }
+        if (geoIndex != null) {
+            geoIndex.clear();
+        }
+    }
+
+    private static boolean isSynthetic(ServerRequest request) {
+        return request.queryParam("source").map("synthetic"::equals).orElse(false);
+    }
+
+    private static HotelGenerator hotelGenerator(ServerRequest request) {
+        return new HotelGenerator(request.queryParam("seed").map(Long::parseLong).orElse(HotelGenerator.DEFAULT_SEED));
+    }
+
+    private ElasticsearchBulkIndexer bulkIndexer(ServerRequest request) {
+        ElasticsearchBulkIndexer indexer = new ElasticsearchBulkIndexer(maintenanceClient);
+        request.queryParam("batchSize").ifPresent(v -> indexer.maxActions(Integer.parseInt(v)));
+        request.queryParam("batchBytes").ifPresent(v -> indexer.maxBytes(Long.parseLong(v)));
+        request.queryParam("concurrency").ifPresent(v -> indexer.concurrency(Integer.parseInt(v)));
+        if (maintenanceLane != null) {
+            indexer.concurrency(maintenanceLane.concurrency(indexer.concurrency()));
+        }
+        return indexer;
+    }
+
     // Utility method to convert ActionListener async callback to Mono<>
-    private <T> ActionListener<T> getListenerForSink(MonoSink<T> sink) {
+    static <T> ActionListener<T> getListenerForSink(MonoSink<T> sink) {
         return new ActionListener<>() {
             @Override
             public void onResponse(T response) {
@@ -238,23 +718,17 @@ public class ElasticsearchHandler implements SearchHandler {
         };
     }
 
-    // Utility to serialize objects to JSON
-    // Convert JSON errors to RuntimeException for hacking around
-    private String serialize(Object obj) {
-        try {
-            return mapper.writeValueAsString(obj);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+    // Utilities to (de)serialize the models with the shared, preconfigured readers and writers
+    // JSON errors surface as UncheckedIOException
+    String serialize(Object obj) {
+        return codec.encodeToString(obj);
     }
 
-    // Utility to deserialize objects from JSON
-    // Convert JSON errors to RuntimeException for hacking around
-    private <T> T deserialize(String json, Class<T> clazz) {
-        try {
-            return mapper.readValue(json, clazz);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+    byte[] serializeToBytes(Object obj) {
+        return codec.encode(obj);
+    }
+
+    <T> T deserialize(String json, Class<T> clazz) {
+        return codec.decode(json, clazz);
     }
 }
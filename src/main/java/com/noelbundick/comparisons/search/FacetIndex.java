@@ -0,0 +1,321 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelRoom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The fields searchWithFacets asks for, kept in process as one primitive column per field so facet counts over the
+ * whole index are a scan over arrays rather than a backend call.
+ * Categories are dictionary-encoded into a short per hotel, ratings are a byte, and the booleans are bitsets.
+ * Every hotel has a row; removing one only clears its bit in the live set, and putting it again reuses the row.
+ */
+public class FacetIndex {
+    // Facet order used by counts() and the handlers' FACETS
+    static final int CATEGORY = 0;
+    static final int RATING = 1;
+    static final int PARKING_INCLUDED = 2;
+    static final int ROOMS_SMOKING_ALLOWED = 3;
+
+    private static final int MAX_RATING = 5;
+    private static final int INITIAL_ROWS = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> rows = new HashMap<>();
+    private final Map<String, Short> categoryCodes = new HashMap<>();
+    // Code 0 is a hotel with no category
+    private final List<String> categories = new ArrayList<>();
+
+    private int rowCount;
+    private short[] category = new short[INITIAL_ROWS];
+    // 0 is a hotel with no rating
+    private byte[] rating = new byte[INITIAL_ROWS];
+    private long[] live = new long[INITIAL_ROWS / 64];
+    private long[] parkingIncluded = new long[INITIAL_ROWS / 64];
+    private long[] parkingExcluded = new long[INITIAL_ROWS / 64];
+    private long[] roomsSmoking = new long[INITIAL_ROWS / 64];
+    private long[] roomsNonSmoking = new long[INITIAL_ROWS / 64];
+
+    private volatile boolean stale;
+
+    public FacetIndex() {
+        categories.add(null);
+    }
+
+    public void put(ElasticsearchHotel hotel) {
+        put(hotel.hotelId(), hotel.category(), hotel.rating(), hotel.parkingIncluded(), hotel.rooms());
+    }
+
+    public void put(AzureHotel hotel) {
+        put(hotel.hotelId(), hotel.category(), hotel.rating(), hotel.parkingIncluded(), hotel.rooms());
+    }
+
+    public void put(String hotelId, String hotelCategory, Integer hotelRating, Boolean hotelParkingIncluded, List<HotelRoom> rooms) {
+        boolean smoking = false;
+        boolean nonSmoking = false;
+        if (rooms != null) {
+            for (HotelRoom room : rooms) {
+                if (room.smokingAllowed() != null) {
+                    smoking |= room.smokingAllowed();
+                    nonSmoking |= !room.smokingAllowed();
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int row = rows.computeIfAbsent(hotelId, id -> newRow());
+            category[row] = categoryCode(hotelCategory);
+            rating[row] = hotelRating == null || hotelRating < 1 || hotelRating > MAX_RATING ? 0 : hotelRating.byteValue();
+            set(live, row, true);
+            set(parkingIncluded, row, Boolean.TRUE.equals(hotelParkingIncluded));
+            set(parkingExcluded, row, Boolean.FALSE.equals(hotelParkingIncluded));
+            set(roomsSmoking, row, smoking);
+            set(roomsNonSmoking, row, nonSmoking);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String hotelId) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rows.get(hotelId);
+            if (row != null) {
+                set(live, row, false);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            Arrays.fill(live, 0);
+            rowCount = 0;
+            stale = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The backend was changed in a way the index didn't see, so its counts can't be trusted until it's rebuilt
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * The index has caught up with the backend again, e.g. it was rebuilt alongside a new backend index
+     */
+    public void markFresh() {
+        stale = false;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return cardinality(live, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count every facet value over the live hotels
+     */
+    public Counts counts() {
+        lock.readLock().lock();
+        try {
+            long[] categoryCounts = new long[categories.size()];
+            long[] ratingCounts = new long[MAX_RATING + 1];
+            for (int word = 0; word * 64 < rowCount; word++) {
+                long bits = live[word];
+                while (bits != 0) {
+                    int row = word * 64 + Long.numberOfTrailingZeros(bits);
+                    categoryCounts[category[row]]++;
+                    ratingCounts[rating[row]]++;
+                    bits &= bits - 1;
+                }
+            }
+
+            return new Counts(
+                categories.toArray(new String[0]),
+                categoryCounts,
+                ratingCounts,
+                cardinality(live, parkingIncluded),
+                cardinality(live, parkingExcluded),
+                cardinality(live, roomsSmoking),
+                cardinality(live, roomsNonSmoking));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Every value whose count differs between two sets of facet counts, as "field/value: expected != actual"
+     */
+    public static List<String> differences(Map<String, ? extends Map<String, Long>> expected, Map<String, ? extends Map<String, Long>> actual) {
+        List<String> differences = new ArrayList<>();
+        TreeSet<String> fields = new TreeSet<>(expected.keySet());
+        fields.addAll(actual.keySet());
+        for (String field : fields) {
+            Map<String, Long> expectedValues = expected.containsKey(field) ? expected.get(field) : Collections.emptyMap();
+            Map<String, Long> actualValues = actual.containsKey(field) ? actual.get(field) : Collections.emptyMap();
+            TreeSet<String> values = new TreeSet<>(expectedValues.keySet());
+            values.addAll(actualValues.keySet());
+            for (String value : values) {
+                Long expectedCount = expectedValues.get(value);
+                Long actualCount = actualValues.get(value);
+                if (!Objects.equals(expectedCount, actualCount)) {
+                    differences.add(String.format("%s/%s: %s != %s", field, value, expectedCount, actualCount));
+                }
+            }
+        }
+        return differences;
+    }
+
+    private int newRow() {
+        int row = rowCount++;
+        if (row == category.length) {
+            int capacity = category.length * 2;
+            category = Arrays.copyOf(category, capacity);
+            rating = Arrays.copyOf(rating, capacity);
+            live = Arrays.copyOf(live, capacity / 64);
+            parkingIncluded = Arrays.copyOf(parkingIncluded, capacity / 64);
+            parkingExcluded = Arrays.copyOf(parkingExcluded, capacity / 64);
+            roomsSmoking = Arrays.copyOf(roomsSmoking, capacity / 64);
+            roomsNonSmoking = Arrays.copyOf(roomsNonSmoking, capacity / 64);
+        }
+        return row;
+    }
+
+    private short categoryCode(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return categoryCodes.computeIfAbsent(value, v -> {
+            categories.add(v);
+            return (short) (categories.size() - 1);
+        });
+    }
+
+    private static void set(long[] bits, int row, boolean value) {
+        if (value) {
+            bits[row >>> 6] |= 1L << row;
+        } else {
+            bits[row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    // Bits set in both, or just in the first when the second is null
+    private int cardinality(long[] first, long[] second) {
+        int count = 0;
+        for (int word = 0; word * 64 < rowCount; word++) {
+            count += Long.bitCount(second == null ? first[word] : first[word] & second[word]);
+        }
+        return count;
+    }
+
+    /**
+     * Facet counts as primitives. Only toMap() boxes, and only the handful of values that have a count.
+     */
+    public static class Counts {
+        private final String[] categories;
+        private final long[] categoryCounts;
+        private final long[] ratingCounts;
+        private final long parkingIncluded;
+        private final long parkingExcluded;
+        private final long roomsSmoking;
+        private final long roomsNonSmoking;
+
+        Counts(String[] categories, long[] categoryCounts, long[] ratingCounts, long parkingIncluded, long parkingExcluded,
+               long roomsSmoking, long roomsNonSmoking) {
+            this.categories = categories;
+            this.categoryCounts = categoryCounts;
+            this.ratingCounts = ratingCounts;
+            this.parkingIncluded = parkingIncluded;
+            this.parkingExcluded = parkingExcluded;
+            this.roomsSmoking = roomsSmoking;
+            this.roomsNonSmoking = roomsNonSmoking;
+        }
+
+        public long category(String value) {
+            for (int code = 1; code < categories.length; code++) {
+                if (categories[code].equals(value)) {
+                    return categoryCounts[code];
+                }
+            }
+            return 0;
+        }
+
+        public long rating(int value) {
+            return value < 1 || value > MAX_RATING ? 0 : ratingCounts[value];
+        }
+
+        public long parkingIncluded(boolean value) {
+            return value ? parkingIncluded : parkingExcluded;
+        }
+
+        public long roomsSmokingAllowed(boolean value) {
+            return value ? roomsSmoking : roomsNonSmoking;
+        }
+
+        /**
+         * The same field -> value -> count shape the handlers return, leaving out values nothing has.
+         * Field names are given in CATEGORY, RATING, PARKING_INCLUDED, ROOMS_SMOKING_ALLOWED order.
+         */
+        public HashMap<String, HashMap<String, Long>> toMap(String... fields) {
+            HashMap<String, HashMap<String, Long>> facets = new HashMap<>();
+
+            HashMap<String, Long> categoryValues = new HashMap<>();
+            for (int code = 1; code < categories.length; code++) {
+                putCount(categoryValues, categories[code], categoryCounts[code]);
+            }
+            facets.put(fields[CATEGORY], categoryValues);
+
+            HashMap<String, Long> ratingValues = new HashMap<>();
+            for (int value = 1; value <= MAX_RATING; value++) {
+                putCount(ratingValues, Integer.toString(value), ratingCounts[value]);
+            }
+            facets.put(fields[RATING], ratingValues);
+
+            HashMap<String, Long> parkingValues = new HashMap<>();
+            putCount(parkingValues, "true", parkingIncluded);
+            putCount(parkingValues, "false", parkingExcluded);
+            facets.put(fields[PARKING_INCLUDED], parkingValues);
+
+            HashMap<String, Long> smokingValues = new HashMap<>();
+            putCount(smokingValues, "true", roomsSmoking);
+            putCount(smokingValues, "false", roomsNonSmoking);
+            facets.put(fields[ROOMS_SMOKING_ALLOWED], smokingValues);
+
+            return facets;
+        }
+
+        private static void putCount(HashMap<String, Long> values, String value, long count) {
+            if (count > 0) {
+                values.put(value, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.noelbundick.comparisons.search;
+
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Where searchWithFacets gets its counts from, chosen per request with the source query param:
+ * the backend by default, source=local for the handler's FacetIndex, or source=check for both side by side.
+ * A local request falls back to the backend when there's no index or it has gone stale.
+ */
+class FacetSource {
+    private FacetSource() {
+    }
+
+    static Mono<ServerResponse> respond(ServerRequest request, FacetIndex facetIndex, String[] fields,
+                                        Supplier<Mono<HashMap<String, HashMap<String, Long>>>> backend) {
+        String source = request.queryParam("source").orElse("backend");
+        boolean usable = facetIndex != null && !facetIndex.isStale();
+
+        if ("local".equals(source) && usable) {
+            return ok().bodyValue(facetIndex.counts().toMap(fields));
+        }
+        if ("check".equals(source)) {
+            if (!usable) {
+                return ServerResponse.badRequest().bodyValue("No up to date local facet index to check");
+            }
+            return backend.get()
+                .flatMap(expected -> ok().bodyValue(check(expected, facetIndex.counts().toMap(fields))));
+        }
+        return backend.get()
+            .flatMap(facets -> ok().bodyValue(facets));
+    }
+
+    static Map<String, Object> check(HashMap<String, HashMap<String, Long>> backend, HashMap<String, HashMap<String, Long>> local) {
+        List<String> differences = FacetIndex.differences(backend, local);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("consistent", differences.isEmpty());
+        result.put("differences", differences);
+        result.put("local", local);
+        result.put("backend", backend);
+        return result;
+    }
+}
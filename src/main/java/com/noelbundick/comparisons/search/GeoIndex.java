@@ -0,0 +1,341 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hotel locations kept in process as primitive lat/lon columns, bucketed into a grid of 0.1 degree cells, so
+ * "hotels within X km, nearest first" only measures the hotels in the cells the circle can reach.
+ * Each location is also kept as a point on the unit sphere: straight-line distance between those orders hotels the
+ * same way as distance over the surface, and needs no trigonometry per hotel.
+ * Every hotel has a row; removing one takes it out of its cell, and putting it again reuses the row.
+ */
+public class GeoIndex {
+    // Mean radius, the same one Elasticsearch measures arc distances with
+    static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final double CELL_DEGREES = 0.1;
+    private static final int LAT_CELLS = 1800;
+    private static final int LON_CELLS = 3600;
+    private static final int INITIAL_ROWS = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> rows = new HashMap<>();
+    private final Map<Integer, Cell> cells = new HashMap<>();
+
+    private int rowCount;
+    private int size;
+    private double[] lat = new double[INITIAL_ROWS];
+    private double[] lon = new double[INITIAL_ROWS];
+    private double[] x = new double[INITIAL_ROWS];
+    private double[] y = new double[INITIAL_ROWS];
+    private double[] z = new double[INITIAL_ROWS];
+    // -1 is a row that isn't in any cell
+    private int[] cellOf = new int[INITIAL_ROWS];
+    private String[] ids = new String[INITIAL_ROWS];
+    private String[] names = new String[INITIAL_ROWS];
+
+    private volatile boolean stale;
+
+    public void put(ElasticsearchHotel hotel) {
+        if (hotel.location() == null) {
+            remove(hotel.hotelId());
+            return;
+        }
+        put(hotel.hotelId(), hotel.hotelName(), hotel.location().getLat(), hotel.location().getLon());
+    }
+
+    // GeoJSON coordinates are longitude first
+    public void put(AzureHotel hotel) {
+        if (hotel.location() == null || hotel.location().getCoordinates() == null) {
+            remove(hotel.hotelId());
+            return;
+        }
+        List<Double> coordinates = hotel.location().getCoordinates();
+        put(hotel.hotelId(), hotel.hotelName(), coordinates.get(1), coordinates.get(0));
+    }
+
+    public void put(String hotelId, String hotelName, double latitude, double longitude) {
+        int cell = cell(latitude, longitude);
+
+        lock.writeLock().lock();
+        try {
+            int row = rows.computeIfAbsent(hotelId, id -> newRow());
+            if (cellOf[row] != cell) {
+                move(row, cell);
+            }
+            ids[row] = hotelId;
+            names[row] = hotelName;
+            lat[row] = latitude;
+            lon[row] = longitude;
+            double cosLat = Math.cos(Math.toRadians(latitude));
+            x[row] = cosLat * Math.cos(Math.toRadians(longitude));
+            y[row] = cosLat * Math.sin(Math.toRadians(longitude));
+            z[row] = Math.sin(Math.toRadians(latitude));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String hotelId) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rows.get(hotelId);
+            if (row != null) {
+                move(row, -1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            cells.clear();
+            Arrays.fill(ids, 0, rowCount, null);
+            Arrays.fill(names, 0, rowCount, null);
+            rowCount = 0;
+            size = 0;
+            stale = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The backend was changed in a way the index didn't see, so its answers can't be trusted until it's rebuilt
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * The index has caught up with the backend again, e.g. it was rebuilt alongside a new backend index
+     */
+    public void markFresh() {
+        stale = false;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to count hotels within distanceKm of a point, nearest first
+     */
+    public List<NearbyHotel> nearby(double latitude, double longitude, double distanceKm, int count) {
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double px = cosLat * Math.cos(Math.toRadians(longitude));
+        double py = cosLat * Math.sin(Math.toRadians(longitude));
+        double pz = Math.sin(Math.toRadians(latitude));
+        // The squared chord subtended by an arc of distanceKm
+        double chord = 2 * Math.sin(Math.min(Math.PI, distanceKm / EARTH_RADIUS_KM) / 2);
+        double maxChordSquared = chord * chord;
+
+        lock.readLock().lock();
+        try {
+            // Each match packed as its squared chord's float bits above its row, so comparing longs compares distances.
+            // Only the nearest count are kept, in a max-heap with the farthest of them on top
+            Nearest nearest = new Nearest(count);
+            for (Cell cell : candidateCells(latitude, longitude, distanceKm)) {
+                for (int i = 0; i < cell.count; i++) {
+                    int row = cell.rows[i];
+                    double dx = x[row] - px;
+                    double dy = y[row] - py;
+                    double dz = z[row] - pz;
+                    double chordSquared = dx * dx + dy * dy + dz * dz;
+                    if (chordSquared <= maxChordSquared) {
+                        nearest.offer((long) Float.floatToIntBits((float) chordSquared) << 32 | row);
+                    }
+                }
+            }
+            long[] matches = nearest.sorted();
+
+            List<NearbyHotel> nearby = new ArrayList<>(matches.length);
+            for (long match : matches) {
+                int row = (int) match;
+                nearby.add(new NearbyHotel()
+                    .hotelId(ids[row])
+                    .hotelName(names[row])
+                    .distanceKm(distanceKm(latitude, longitude, lat[row], lon[row])));
+            }
+            return nearby;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Great-circle distance by the haversine formula
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // The cells a circle overlaps: a lat/lon box around it, or every cell when the box covers more cells than exist
+    private Iterable<Cell> candidateCells(double latitude, double longitude, double distanceKm) {
+        double latDelta = Math.toDegrees(distanceKm / EARTH_RADIUS_KM);
+        double farthestLat = Math.min(90, Math.max(Math.abs(latitude - latDelta), Math.abs(latitude + latDelta)));
+        double lonDelta = farthestLat >= 90 ? 180 : latDelta / Math.cos(Math.toRadians(farthestLat));
+
+        int minLatCell = latCell(latitude - latDelta);
+        int maxLatCell = latCell(latitude + latDelta);
+        int minLonCell = (int) Math.floor((longitude - lonDelta + 180) / CELL_DEGREES);
+        int maxLonCell = (int) Math.floor((longitude + lonDelta + 180) / CELL_DEGREES);
+        if (lonDelta >= 180 || maxLonCell - minLonCell >= LON_CELLS) {
+            minLonCell = 0;
+            maxLonCell = LON_CELLS - 1;
+        }
+        if ((maxLatCell - minLatCell + 1) * (maxLonCell - minLonCell + 1) >= cells.size()) {
+            return cells.values();
+        }
+
+        List<Cell> candidates = new ArrayList<>();
+        for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+            for (int lonCell = minLonCell; lonCell <= maxLonCell; lonCell++) {
+                Cell cell = cells.get(latCell * LON_CELLS + Math.floorMod(lonCell, LON_CELLS));
+                if (cell != null) {
+                    candidates.add(cell);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void move(int row, int cell) {
+        int previous = cellOf[row];
+        if (previous != -1) {
+            Cell from = cells.get(previous);
+            from.remove(row);
+            if (from.count == 0) {
+                cells.remove(previous);
+            }
+            size--;
+        }
+        if (cell != -1) {
+            cells.computeIfAbsent(cell, c -> new Cell()).add(row);
+            size++;
+        }
+        cellOf[row] = cell;
+    }
+
+    private int newRow() {
+        int row = rowCount++;
+        if (row == lat.length) {
+            int capacity = lat.length * 2;
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        cellOf[row] = -1;
+        return row;
+    }
+
+    private static int cell(double latitude, double longitude) {
+        return latCell(latitude) * LON_CELLS + Math.floorMod((int) Math.floor((longitude + 180) / CELL_DEGREES), LON_CELLS);
+    }
+
+    private static int latCell(double latitude) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    // A bounded max-heap of packed matches
+    private static class Nearest {
+        final int limit;
+        long[] heap = new long[16];
+        int size;
+
+        Nearest(int limit) {
+            this.limit = limit;
+        }
+
+        void offer(long match) {
+            if (size < limit) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, Math.min(limit, size * 2));
+                }
+                int i = size++;
+                while (i > 0 && heap[(i - 1) / 2] < match) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = match;
+            } else if (size > 0 && match < heap[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1] > heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] <= match) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = match;
+            }
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    // The rows in one grid cell, in no particular order
+    private static class Cell {
+        int[] rows = new int[4];
+        int count;
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+
+        void remove(int row) {
+            for (int i = 0; i < count; i++) {
+                if (rows[i] == row) {
+                    rows[i] = rows[--count];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A sample hotel dataset, parsed once and kept as the serialized JSON of each document.
+ * Every document is packed into a single array, so handing one to a client is just an offset and a length.
+ */
+public class HotelDataset {
+    public static final String ELASTICSEARCH = "search-hotels-elasticsearch.json";
+    public static final String AZURE = "search-hotels-azure.json";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Map<String, HotelDataset> datasets = new ConcurrentHashMap<>();
+
+    private final byte[] arena;
+    private final int[] offsets;
+    private final String[] ids;
+
+    private HotelDataset(byte[] arena, int[] offsets, String[] ids) {
+        this.arena = arena;
+        this.offsets = offsets;
+        this.ids = ids;
+    }
+
+    /**
+     * The dataset in a classpath resource, loaded the first time it's asked for
+     */
+    public static HotelDataset of(String resource) {
+        return datasets.computeIfAbsent(resource, HotelDataset::load);
+    }
+
+    static HotelDataset load(String resource) {
+        URL url = HotelDataset.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new IllegalArgumentException("No dataset named " + resource);
+        }
+
+        ByteArrayOutputStream arena = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+
+        // Stream through the array one hotel at a time, writing each back out compactly
+        try (JsonParser parser = mapper.getFactory().createParser(url);
+             JsonGenerator generator = mapper.getFactory().createGenerator(arena)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(String.format("%s is not an array of hotels", resource));
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode hotel = parser.readValueAsTree();
+                offsets.add(arena.size());
+                ids.add(hotel.get("HotelId").asText());
+                generator.writeTree(hotel);
+                generator.flush();
+            }
+            offsets.add(arena.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new HotelDataset(
+            arena.toByteArray(),
+            offsets.stream().mapToInt(Integer::intValue).toArray(),
+            ids.toArray(new String[0]));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String id(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Copy of a single document's JSON
+     */
+    public byte[] bytes(int i) {
+        byte[] document = new byte[offsets[i + 1] - offsets[i]];
+        System.arraycopy(arena, offsets[i], document, 0, document.length);
+        return document;
+    }
+
+    /**
+     * Lazily turn each document into whatever a client needs, straight from the shared array
+     */
+    public <T> Flux<T> documents(DocumentMapper<T> documentMapper) {
+        return Flux.range(0, size())
+            .map(i -> documentMapper.map(ids[i], arena, offsets[i], offsets[i + 1] - offsets[i]));
+    }
+
+    @FunctionalInterface
+    public interface DocumentMapper<T> {
+        T map(String id, byte[] source, int offset, int length);
+    }
+}
@@ -0,0 +1,265 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.search.models.GeoPoint;
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelAddress;
+import com.noelbundick.comparisons.search.models.HotelRoom;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic hotels shaped like the sample data, for indexing at sizes the sample data can't reach.
+ * Each hotel is derived from the seed and its own number alone, so any hotel can be regenerated on its own
+ * and a stream of any length holds only the hotel being indexed.
+ */
+public class HotelGenerator {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String[] CATEGORIES = {"Budget", "Resort and Spa", "Luxury", "Boutique", "Suite", "Extended-Stay"};
+    private static final String[] TAGS = {"24-hour front desk service", "air conditioning", "bar", "coffee in lobby",
+        "concierge", "continental breakfast", "free parking", "free wifi", "laundry service", "pool", "restaurant", "view"};
+    private static final String[] ROOM_TAGS = {"bathroom shower", "coffee maker", "jacuzzi tub", "suite", "tv", "vcr/dvd"};
+
+    private static final String[] NAME_PREFIXES = {"Grand", "Old Town", "Harbor", "Sunset", "Royal", "Twin Peaks",
+        "Riverside", "Lakeview", "Mountain", "Garden", "Historic", "Downtown"};
+    private static final String[] NAME_SUFFIXES = {"Inn", "Hotel", "Suites", "Lodge", "Resort", "Motel", "Retreat", "Plaza"};
+
+    // Descriptions are built from phrases that exist in both languages
+    private static final String[][] OPENINGS = {
+        {"A quiet retreat", "Une retraite tranquille"},
+        {"Our landmark hotel", "Notre hôtel emblématique"},
+        {"A family-friendly stay", "Un séjour familial"},
+        {"Modern comfort", "Le confort moderne"},
+        {"A historic property", "Une propriété historique"},
+    };
+    private static final String[][] LOCATIONS = {
+        {"in the heart of downtown", "au cœur du centre-ville"},
+        {"steps from the waterfront", "à quelques pas du front de mer"},
+        {"close to the airport", "près de l'aéroport"},
+        {"near the convention center", "près du centre des congrès"},
+        {"surrounded by parks", "entouré de parcs"},
+    };
+    private static final String[][] FEATURES = {
+        {"with a rooftop pool", "avec une piscine sur le toit"},
+        {"with free breakfast every morning", "avec petit-déjeuner gratuit tous les matins"},
+        {"with spacious rooms and city views", "avec des chambres spacieuses et une vue sur la ville"},
+        {"with an award-winning restaurant", "avec un restaurant primé"},
+        {"with a fitness center and spa", "avec un centre de remise en forme et un spa"},
+    };
+
+    private static final String[][] ROOM_TYPES = {
+        {"Budget Room", "Chambre Économique"},
+        {"Standard Room", "Chambre Standard"},
+        {"Deluxe Room", "Chambre Deluxe"},
+        {"Suite", "Suite"},
+    };
+    private static final String[][] BED_OPTIONS = {
+        {"1 Queen Bed", "1 grand lit"},
+        {"1 King Bed", "1 très grand lit"},
+        {"2 Queen Beds", "2 grands lits"},
+        {"2 Double Beds", "2 lits doubles"},
+    };
+    private static final int[] SLEEPS = {2, 2, 4, 4};
+    private static final String[][] VIEWS = {
+        {"Cityside", "côté ville"},
+        {"Mountain View", "vue sur la montagne"},
+        {"Waterfront View", "vue sur le front de mer"},
+        {"Amenities", "Commodités"},
+    };
+
+    private static final City[] CITIES = {
+        new City("Seattle", "WA", "USA", "981", 47.6062, -122.3321),
+        new City("New York", "NY", "USA", "100", 40.7128, -74.0060),
+        new City("San Francisco", "CA", "USA", "941", 37.7749, -122.4194),
+        new City("Chicago", "IL", "USA", "606", 41.8781, -87.6298),
+        new City("Atlanta", "GA", "USA", "303", 33.7490, -84.3880),
+        new City("Austin", "TX", "USA", "787", 30.2672, -97.7431),
+        new City("Denver", "CO", "USA", "802", 39.7392, -104.9903),
+        new City("Miami", "FL", "USA", "331", 25.7617, -80.1918),
+        new City("Boston", "MA", "USA", "021", 42.3601, -71.0589),
+        new City("Vancouver", "BC", "Canada", "V6B", 49.2827, -123.1207),
+        new City("Montreal", "QC", "Canada", "H2Y", 45.5017, -73.5673),
+        new City("Toronto", "ON", "Canada", "M5H", 43.6532, -79.3832),
+    };
+    private static final String[] STREETS = {"Pine St", "Main St", "1st Ave", "Broadway", "Oak Ave", "Market St",
+        "Lake Dr", "Park Ave", "Elm St", "Harbor Way"};
+
+    // 1970-01-01 to 2020-01-01, renovated at midnight UTC
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int RENOVATION_DAYS = 18262;
+
+    private final long seed;
+
+    public HotelGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * The first count hotels, each generated as it's requested
+     */
+    public Flux<ElasticsearchHotel> elasticsearchHotels(int count) {
+        return Flux.range(0, count).map(this::elasticsearchHotel);
+    }
+
+    public Flux<AzureHotel> azureHotels(int count) {
+        return Flux.range(0, count).map(this::azureHotel);
+    }
+
+    public ElasticsearchHotel elasticsearchHotel(int i) {
+        Hotel hotel = new Hotel(i);
+        return new ElasticsearchHotel()
+            .hotelId(hotel.id)
+            .hotelName(hotel.name)
+            .description(hotel.description)
+            .descriptionFr(hotel.descriptionFr)
+            .category(hotel.category)
+            .tags(hotel.tags)
+            .parkingIncluded(hotel.parkingIncluded)
+            .smokingAllowed(hotel.smokingAllowed)
+            .lastRenovationDate(hotel.lastRenovationDate)
+            .rating(hotel.rating)
+            .location(new org.elasticsearch.common.geo.GeoPoint(hotel.latitude, hotel.longitude))
+            .address(hotel.address)
+            .rooms(hotel.rooms);
+    }
+
+    public AzureHotel azureHotel(int i) {
+        Hotel hotel = new Hotel(i);
+        return new AzureHotel()
+            .hotelId(hotel.id)
+            .hotelName(hotel.name)
+            .description(hotel.description)
+            .descriptionFr(hotel.descriptionFr)
+            .category(hotel.category)
+            .tags(hotel.tags)
+            .parkingIncluded(hotel.parkingIncluded)
+            .smokingAllowed(hotel.smokingAllowed)
+            .lastRenovationDate(hotel.lastRenovationDate)
+            .rating(hotel.rating)
+            .location(GeoPoint.create(hotel.latitude, hotel.longitude))
+            .address(hotel.address)
+            .rooms(hotel.rooms);
+    }
+
+    // Everything both models have in common, drawn in a fixed order from a random seeded by the hotel number
+    private class Hotel {
+        final String id;
+        final String name;
+        final String description;
+        final String descriptionFr;
+        final String category;
+        final List<String> tags;
+        final boolean parkingIncluded;
+        final boolean smokingAllowed;
+        final Date lastRenovationDate;
+        final int rating;
+        final double latitude;
+        final double longitude;
+        final HotelAddress address;
+        final List<HotelRoom> rooms;
+
+        Hotel(int i) {
+            SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + i);
+            City city = pick(random, CITIES);
+
+            id = Integer.toString(i);
+            name = pick(random, NAME_PREFIXES) + " " + city.name + " " + pick(random, NAME_SUFFIXES);
+
+            String[] opening = pick(random, OPENINGS);
+            String[] location = pick(random, LOCATIONS);
+            String[] feature = pick(random, FEATURES);
+            description = opening[0] + " " + location[0] + " " + feature[0] + ".";
+            descriptionFr = opening[1] + " " + location[1] + " " + feature[1] + ".";
+
+            category = pick(random, CATEGORIES);
+            tags = sample(random, TAGS, 1 + random.nextInt(4));
+            parkingIncluded = random.nextBoolean();
+            smokingAllowed = random.nextInt(5) == 0;
+            lastRenovationDate = new Date(random.nextInt(RENOVATION_DAYS) * MILLIS_PER_DAY);
+            rating = 1 + random.nextInt(5);
+
+            // Within roughly 20km of the city center
+            latitude = city.latitude + (random.nextDouble() - 0.5) * 0.36;
+            longitude = city.longitude + (random.nextDouble() - 0.5) * 0.36;
+            address = new HotelAddress()
+                .streetAddress((1 + random.nextInt(9999)) + " " + pick(random, STREETS))
+                .city(city.name)
+                .stateProvince(city.stateProvince)
+                .country(city.country)
+                .postalCode(city.postalCode(random));
+
+            int roomCount = 2 + random.nextInt(7);
+            rooms = new ArrayList<>(roomCount);
+            for (int r = 0; r < roomCount; r++) {
+                rooms.add(room(random));
+            }
+        }
+    }
+
+    private static HotelRoom room(SplittableRandom random) {
+        int type = random.nextInt(ROOM_TYPES.length);
+        int bed = random.nextInt(BED_OPTIONS.length);
+        String[] view = pick(random, VIEWS);
+
+        return new HotelRoom()
+            .description(ROOM_TYPES[type][0] + ", " + BED_OPTIONS[bed][0] + " (" + view[0] + ")")
+            .descriptionFr(ROOM_TYPES[type][1] + ", " + BED_OPTIONS[bed][1] + " (" + view[1] + ")")
+            .type(ROOM_TYPES[type][0])
+            .baseRate(Math.round((50 + type * 60 + random.nextDouble() * 150) * 100) / 100.0)
+            .bedOptions(BED_OPTIONS[bed][0])
+            .sleepsCount(SLEEPS[bed])
+            .smokingAllowed(random.nextInt(5) == 0)
+            .tags(sample(random, ROOM_TAGS, 1 + random.nextInt(3)));
+    }
+
+    private static <T> T pick(SplittableRandom random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // Distinct values, kept in their original order
+    private static List<String> sample(SplittableRandom random, String[] values, int count) {
+        List<String> sample = new ArrayList<>(count);
+        int remaining = values.length;
+        for (String value : values) {
+            if (random.nextInt(remaining--) < count - sample.size()) {
+                sample.add(value);
+            }
+        }
+        return sample;
+    }
+
+    private static class City {
+        final String name;
+        final String stateProvince;
+        final String country;
+        final String postalPrefix;
+        final double latitude;
+        final double longitude;
+
+        City(String name, String stateProvince, String country, String postalPrefix, double latitude, double longitude) {
+            this.name = name;
+            this.stateProvince = stateProvince;
+            this.country = country;
+            this.postalPrefix = postalPrefix;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        String postalCode(SplittableRandom random) {
+            if ("USA".equals(country)) {
+                int suffix = random.nextInt(100);
+                return postalPrefix + (suffix < 10 ? "0" : "") + suffix;
+            }
+            return postalPrefix + " " + random.nextInt(10) + (char) ('A' + random.nextInt(26)) + random.nextInt(10);
+        }
+    }
+}
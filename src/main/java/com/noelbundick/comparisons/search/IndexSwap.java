@@ -0,0 +1,71 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of building a new index behind an alias: what it replaced, how loading it went, and how long the
+ * request that moved the alias onto it took. Reads are answered by the old index until then.
+ */
+public class IndexSwap {
+    @JsonProperty(value = "alias")
+    private final String alias;
+
+    @JsonProperty(value = "index")
+    private final String index;
+
+    @JsonProperty(value = "replaced")
+    private final List<String> replaced;
+
+    @JsonProperty(value = "swapped")
+    private final boolean swapped;
+
+    @JsonProperty(value = "swapMs")
+    private final double swapMs;
+
+    @JsonProperty(value = "load")
+    private final BulkIndexingStats load;
+
+    private IndexSwap(String alias, String index, List<String> replaced, boolean swapped, long swapNanos, BulkIndexingStats load) {
+        this.alias = alias;
+        this.index = index;
+        this.replaced = replaced;
+        this.swapped = swapped;
+        this.swapMs = swapNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        this.load = load;
+    }
+
+    static IndexSwap swapped(String alias, String index, List<String> replaced, long swapNanos, BulkIndexingStats load) {
+        return new IndexSwap(alias, index, replaced, true, swapNanos, load);
+    }
+
+    /**
+     * Some documents failed to load, so the alias was left where it was and the new index dropped
+     */
+    static IndexSwap abandoned(String alias, String index, BulkIndexingStats load) {
+        return new IndexSwap(alias, index, Collections.emptyList(), false, 0, load);
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public List<String> replaced() {
+        return replaced;
+    }
+
+    public boolean swapped() {
+        return swapped;
+    }
+
+    public double swapMs() {
+        return swapMs;
+    }
+
+    public BulkIndexingStats load() {
+        return load;
+    }
+}
@@ -0,0 +1,476 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hotels kept in process with a full-text index over them: each term maps to a primitive posting list of the rows
+ * that contain it and how often, and matches are ranked by BM25 as Lucene 8 computes it.
+ * The text is the hotel's name, descriptions, category, tags and address as one field, lower-cased and split on
+ * anything that isn't a letter or a digit. Any term matches (OR), like a query_string or simple search does.
+ * Rows are only appended, so every posting list stays sorted: putting a hotel again or removing it retires its old
+ * row, and once retired rows outnumber live ones they're compacted away. Scores only count live hotels, retired rows
+ * or not.
+ */
+public class InvertedIndex {
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+
+    private static final int INITIAL_ROWS = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> rows = new HashMap<>();
+    private Map<String, Postings> postings = new HashMap<>();
+
+    private int rowCount;
+    private int size;
+    private long totalLength;
+    // Only live rows keep their hotel
+    private ElasticsearchHotel[] documents = new ElasticsearchHotel[INITIAL_ROWS];
+    private int[] lengths = new int[INITIAL_ROWS];
+    // The order rows were indexed in, which compaction keeps, unlike the row numbers themselves. Ascending by row
+    private int[] sequences = new int[INITIAL_ROWS];
+    private int nextSequence;
+
+    public void put(ElasticsearchHotel hotel) {
+        putAll(Collections.singletonList(hotel));
+    }
+
+    /**
+     * Index a batch of hotels under one lock. The text is tokenized before taking it
+     */
+    public void putAll(Collection<ElasticsearchHotel> hotels) {
+        List<Map<String, int[]>> terms = new ArrayList<>(hotels.size());
+        for (ElasticsearchHotel hotel : hotels) {
+            if (hotel.hotelId() == null) {
+                throw new IllegalArgumentException("A hotel needs a HotelId to be indexed");
+            }
+            terms.add(termFrequencies(hotel));
+        }
+
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (ElasticsearchHotel hotel : hotels) {
+                add(hotel, terms.get(i++));
+            }
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String hotelId) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rows.remove(hotelId);
+            if (row != null) {
+                retire(row);
+            }
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            postings = new HashMap<>();
+            Arrays.fill(documents, 0, rowCount, null);
+            rowCount = 0;
+            size = 0;
+            totalLength = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public ElasticsearchHotel get(String hotelId) {
+        lock.readLock().lock();
+        try {
+            Integer row = rows.get(hotelId);
+            return row == null ? null : documents[row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The best count hotels for a query, highest score first with ties in the order they were indexed.
+     * Passing the last hit of a page as after returns the page following it, like search_after, even if rows were
+     * compacted in between.
+     */
+    public Hits search(String query, int count, Hit after) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        long afterKey = after == null ? Long.MAX_VALUE : after.key;
+
+        lock.readLock().lock();
+        try {
+            List<Postings> matched = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings termPostings = postings.get(term);
+                if (termPostings != null) {
+                    matched.add(termPostings);
+                }
+            }
+
+            // Document at a time: walk every term's postings together, in row order
+            float avgLength = size == 0 ? 1 : (float) totalLength / size;
+            float[] idf = new float[matched.size()];
+            int[] cursors = new int[matched.size()];
+            for (int t = 0; t < matched.size(); t++) {
+                int df = matched.get(t).live;
+                idf[t] = (float) Math.log(1 + (size - df + 0.5) / (df + 0.5));
+            }
+
+            Best best = new Best(count);
+            long total = 0;
+            float maxScore = 0;
+            while (true) {
+                int row = Integer.MAX_VALUE;
+                for (int t = 0; t < matched.size(); t++) {
+                    if (cursors[t] < matched.get(t).count) {
+                        row = Math.min(row, matched.get(t).rows[cursors[t]]);
+                    }
+                }
+                if (row == Integer.MAX_VALUE) {
+                    break;
+                }
+
+                float score = 0;
+                float norm = K1 * (1 - B + B * lengths[row] / avgLength);
+                for (int t = 0; t < matched.size(); t++) {
+                    Postings termPostings = matched.get(t);
+                    if (cursors[t] < termPostings.count && termPostings.rows[cursors[t]] == row) {
+                        int freq = termPostings.freqs[cursors[t]++];
+                        score += idf[t] * freq / (freq + norm);
+                    }
+                }
+                if (documents[row] == null) {
+                    continue;
+                }
+
+                total++;
+                maxScore = Math.max(maxScore, score);
+                long key = key(score, sequences[row]);
+                if (key < afterKey) {
+                    best.offer(key);
+                }
+            }
+
+            long[] keys = best.sorted();
+            List<Hit> hits = new ArrayList<>(keys.length);
+            for (long key : keys) {
+                int row = Arrays.binarySearch(sequences, 0, rowCount, Integer.MAX_VALUE - (int) key);
+                hits.add(new Hit(documents[row].hotelId(), Float.intBitsToFloat((int) (key >>> 32)), documents[row], key));
+            }
+            return new Hits(total, maxScore, hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Scores are positive, so their float bits order like the scores do. Earlier sequences get higher keys to win ties
+    private static long key(float score, int sequence) {
+        return (long) Float.floatToIntBits(score) << 32 | (Integer.MAX_VALUE - sequence);
+    }
+
+    private void add(ElasticsearchHotel hotel, Map<String, int[]> terms) {
+        Integer previous = rows.get(hotel.hotelId());
+        if (previous != null) {
+            retire(previous);
+        }
+
+        int row = newRow();
+        int length = 0;
+        for (Map.Entry<String, int[]> term : terms.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), t -> new Postings()).add(row, term.getValue()[0]);
+            length += term.getValue()[0];
+        }
+        rows.put(hotel.hotelId(), row);
+        documents[row] = hotel;
+        lengths[row] = length;
+        sequences[row] = nextSequence();
+        size++;
+        totalLength += length;
+    }
+
+    // The retired hotel's terms are found again by tokenizing it, rather than keeping every row's terms around
+    private void retire(int row) {
+        for (String term : termFrequencies(documents[row]).keySet()) {
+            postings.get(term).live--;
+        }
+        documents[row] = null;
+        size--;
+        totalLength -= lengths[row];
+    }
+
+    private int newRow() {
+        int row = rowCount++;
+        if (row == documents.length) {
+            int capacity = documents.length * 2;
+            documents = Arrays.copyOf(documents, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+        }
+        return row;
+    }
+
+    // Only after billions of puts do sequences run out. Renumbering them keeps their order, but a paging cursor from
+    // before then no longer points at the right place
+    private int nextSequence() {
+        if (nextSequence == Integer.MAX_VALUE) {
+            for (int row = 0; row < rowCount; row++) {
+                sequences[row] = row;
+            }
+            nextSequence = rowCount;
+        }
+        return nextSequence++;
+    }
+
+    // Renumber the live rows from 0, keeping their order, and drop retired rows from every posting list
+    private void compactIfSparse() {
+        if (rowCount - size <= Math.max(size, INITIAL_ROWS)) {
+            return;
+        }
+
+        int[] renumbered = new int[rowCount];
+        int live = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (documents[row] != null) {
+                renumbered[row] = live;
+                documents[live] = documents[row];
+                lengths[live] = lengths[row];
+                sequences[live] = sequences[row];
+                rows.put(documents[live].hotelId(), live);
+                live++;
+            } else {
+                renumbered[row] = -1;
+            }
+        }
+        Arrays.fill(documents, live, rowCount, null);
+        rowCount = live;
+
+        Map<String, Postings> compacted = new HashMap<>();
+        for (Map.Entry<String, Postings> term : postings.entrySet()) {
+            Postings termPostings = term.getValue();
+            Postings kept = new Postings();
+            for (int i = 0; i < termPostings.count; i++) {
+                int row = renumbered[termPostings.rows[i]];
+                if (row != -1) {
+                    kept.add(row, termPostings.freqs[i]);
+                }
+            }
+            if (kept.count > 0) {
+                compacted.put(term.getKey(), kept);
+            }
+        }
+        postings = compacted;
+    }
+
+    private static Map<String, int[]> termFrequencies(ElasticsearchHotel hotel) {
+        Map<String, int[]> terms = new HashMap<>();
+        List<String> text = new ArrayList<>();
+        text.add(hotel.hotelName());
+        text.add(hotel.description());
+        text.add(hotel.descriptionFr());
+        text.add(hotel.category());
+        if (hotel.tags() != null) {
+            text.addAll(hotel.tags());
+        }
+        HotelAddress address = hotel.address();
+        if (address != null) {
+            text.add(address.streetAddress());
+            text.add(address.city());
+            text.add(address.stateProvince());
+            text.add(address.postalCode());
+            text.add(address.country());
+        }
+        for (String value : text) {
+            for (String term : tokenize(value)) {
+                terms.computeIfAbsent(term, t -> new int[1])[0]++;
+            }
+        }
+        return terms;
+    }
+
+    static List<String> tokenize(String value) {
+        List<String> terms = new ArrayList<>();
+        if (value == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean letterOrDigit = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (letterOrDigit && start == -1) {
+                start = i;
+            } else if (!letterOrDigit && start != -1) {
+                terms.add(value.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    // Rows containing a term, ascending, with how many times it appears in each. live counts the rows that aren't
+    // retired, the term's document frequency
+    private static class Postings {
+        int[] rows = new int[4];
+        int[] freqs = new int[4];
+        int count;
+        int live;
+
+        void add(int row, int freq) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                freqs = Arrays.copyOf(freqs, count * 2);
+            }
+            rows[count] = row;
+            freqs[count] = freq;
+            count++;
+            live++;
+        }
+    }
+
+    // A bounded min-heap of hit keys, keeping the highest
+    private static class Best {
+        final int limit;
+        long[] heap = new long[16];
+        int size;
+
+        Best(int limit) {
+            this.limit = limit;
+        }
+
+        void offer(long key) {
+            if (size < limit) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, Math.min(limit, size * 2));
+                }
+                int i = size++;
+                while (i > 0 && heap[(i - 1) / 2] > key) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = key;
+            } else if (size > 0 && key > heap[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] >= key) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = key;
+            }
+        }
+
+        // Highest first
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+                long swap = sorted[i];
+                sorted[i] = sorted[j];
+                sorted[j] = swap;
+            }
+            return sorted;
+        }
+    }
+
+    public static class Hits {
+        @JsonProperty(value = "total")
+        private final long total;
+
+        @JsonProperty(value = "maxScore")
+        private final float maxScore;
+
+        @JsonProperty(value = "hits")
+        private final List<Hit> hits;
+
+        Hits(long total, float maxScore, List<Hit> hits) {
+            this.total = total;
+            this.maxScore = maxScore;
+            this.hits = hits;
+        }
+
+        public long total() {
+            return this.total;
+        }
+
+        public float maxScore() {
+            return this.maxScore;
+        }
+
+        public List<Hit> hits() {
+            return this.hits;
+        }
+    }
+
+    public static class Hit {
+        @JsonProperty(value = "id")
+        private final String id;
+
+        @JsonProperty(value = "score")
+        private final float score;
+
+        @JsonProperty(value = "source")
+        private final ElasticsearchHotel source;
+
+        // Where this hit ranks, for search_after
+        private final long key;
+
+        Hit(String id, float score, ElasticsearchHotel source, long key) {
+            this.id = id;
+            this.score = score;
+            this.source = source;
+            this.key = key;
+        }
+
+        public String id() {
+            return this.id;
+        }
+
+        public float score() {
+            return this.score;
+        }
+
+        public ElasticsearchHotel source() {
+            return this.source;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.web.ObservedResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A bulkhead in front of another SearchHandler: every operation takes a slot from a ConcurrencyLimiter for as long as
+ * its response is being written, and once the backend is at its limit requests are answered with a 503 straight away.
+ * Only read operations feed their latency to the limiter, timed until the backend answered rather than until a
+ * streamed body was written; writes like bulkIndexing hold a slot but take too long to say anything about load.
+ */
+public class LimitingSearchHandler implements SearchHandler {
+    private final SearchHandler delegate;
+    private final String backend;
+    private final ConcurrencyLimiter limiter;
+
+    public LimitingSearchHandler(SearchHandler delegate, String backend, ConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.backend = backend;
+        this.limiter = limiter;
+    }
+
+    public ConcurrencyLimiter limiter() {
+        return this.limiter;
+    }
+
+    @Override
+    public Mono<ServerResponse> errorHandling(ServerRequest request) {
+        return limited(request, delegate::errorHandling, false);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexing(ServerRequest request) {
+        return limited(request, delegate::indexing, false);
+    }
+
+    @Override
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        return limited(request, delegate::bulkIndexing, false);
+    }
+
+    @Override
+    public Mono<ServerResponse> clear(ServerRequest request) {
+        return limited(request, delegate::clear, false);
+    }
+
+    @Override
+    public Mono<ServerResponse> count(ServerRequest request) {
+        return limited(request, delegate::count, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return limited(request, delegate::search, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
+        return limited(request, delegate::searchWithPaging, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return limited(request, delegate::searchWithFacets, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
+        return limited(request, delegate::searchWithCustomTypes, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        return limited(request, delegate::searchNearby, true);
+    }
+
+    @Override
+    public Mono<ServerResponse> indexManagement(ServerRequest request) {
+        return limited(request, delegate::indexManagement, false);
+    }
+
+    @Override
+    public Mono<ServerResponse> reset(ServerRequest request) {
+        return limited(request, delegate::reset, false);
+    }
+
+    private Mono<ServerResponse> limited(ServerRequest request, Function<ServerRequest, Mono<ServerResponse>> handler,
+                                         boolean sampled) {
+        return Mono.defer(() -> {
+            ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            if (permit == null) {
+                return ServerResponse.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .bodyValue(String.format("%s is at its limit of %d concurrent requests", backend, limiter.limit()));
+            }
+
+            // Deferred so a handler that throws or returns null while it's assembling, e.g. on a bad query param,
+            // ends up in doOnError below instead of keeping the permit
+            AtomicBoolean responded = new AtomicBoolean();
+            return Mono.defer(() -> handler.apply(request))
+                .map(response -> {
+                    responded.set(true);
+                    long rtt = System.nanoTime() - permit.start();
+                    return ObservedResponse.doFinallyWrite(response, signal -> release(permit, sampled, rtt));
+                })
+                .switchIfEmpty(Mono.fromRunnable(permit::release))
+                // A backend that failed slowly, e.g. timed out, is as much a sign of overload as a slow answer
+                .doOnError(err -> release(permit, sampled, System.nanoTime() - permit.start()))
+                // Once there's a response the write releases the permit
+                .doOnCancel(() -> {
+                    if (!responded.get()) {
+                        permit.release();
+                    }
+                });
+        });
+    }
+
+    private static void release(ConcurrencyLimiter.Permit permit, boolean sampled, long rtt) {
+        if (sampled) {
+            permit.release(rtt);
+        } else {
+            permit.release();
+        }
+    }
+}
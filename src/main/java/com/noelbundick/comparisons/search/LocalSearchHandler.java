@@ -0,0 +1,234 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelAddress;
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+import com.noelbundick.comparisons.web.RequestMetrics;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * A SearchHandler with no service behind it: hotels live in an InvertedIndex, with a FacetIndex and a GeoIndex kept
+ * beside it, and every operation is answered from those. It gives the other two handlers a zero-network baseline,
+ * and tests a handler that needs no stub server.
+ * Reads are in-memory scans and run on the calling thread. Bulk uploads are CPU-bound, so they run on the parallel
+ * scheduler rather than an event loop.
+ */
+public class LocalSearchHandler implements SearchHandler {
+    // Hotels are kept in the Elasticsearch model, so the facets have its names
+    static final String[] FACETS = ElasticsearchHandler.FACETS;
+
+    private static final String DEFAULT_QUERY = "Seattle";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final InvertedIndex index = new InvertedIndex();
+    private final FacetIndex facetIndex = new FacetIndex();
+    private final GeoIndex geoIndex = new GeoIndex();
+    private final JsonCodec codec = JsonCodec.shared();
+
+    @Override
+    // A hotel without an id can't be indexed, and the error that causes needs to be handled
+    public Mono<ServerResponse> errorHandling(ServerRequest request) {
+        return Mono.fromCallable(() -> {
+            put(Collections.singletonList(new ElasticsearchHotel()));
+            return "Indexed a document without an id";
+        })
+            .flatMap(res -> ok().bodyValue(res))
+            .onErrorResume(err -> ServerResponse.status(500).bodyValue("Unexpected error: " + err.toString()));
+    }
+
+    @Override
+    // Index a single document, searchable as soon as this returns
+    public Mono<ServerResponse> indexing(ServerRequest request) {
+        ElasticsearchHotel hotel = new ElasticsearchHotel()
+            .hotelId(UUID.randomUUID().toString())
+            .address(new HotelAddress().city("Seattle"));
+
+        put(Collections.singletonList(hotel));
+        RequestMetrics.documents(request, 1);
+        return ok().bodyValue(String.format("Indexed document %s", hotel.hotelId()));
+    }
+
+    @Override
+    // Index batches of batchSize (default 1000) documents, each under one lock
+    // With source=synthetic, index fully populated hotels from a seeded generator instead of bare ones
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        int count = request.queryParam("count").map(Integer::parseInt).orElse(10000);
+
+        Flux<ElasticsearchHotel> hotels = isSynthetic(request)
+            ? hotelGenerator(request).elasticsearchHotels(count)
+            : Flux.range(0, count)
+                .map(i -> new ElasticsearchHotel()
+                    .hotelId(Integer.toString(i))
+                    .address(new HotelAddress().city("Seattle")));
+
+        return upload(hotels, batchSize(request))
+            .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+            .flatMap(stats -> ok().bodyValue(stats));
+    }
+
+    @Override
+    // Drop every document
+    public Mono<ServerResponse> clear(ServerRequest request) {
+        clearIndexes();
+        return ok().bodyValue("index deleted");
+    }
+
+    @Override
+    // Get a count of all documents in the index
+    public Mono<ServerResponse> count(ServerRequest request) {
+        return ok().bodyValue((long) index.size());
+    }
+
+    @Override
+    // Simple string search, for q (default Seattle), returning the top size (default 10) hits
+    public Mono<ServerResponse> search(ServerRequest request) {
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(10);
+
+        InvertedIndex.Hits hits = index.search(query(request), size, null);
+        RequestMetrics.documents(request, hits.hits().size());
+        return ok().bodyValue(hits);
+    }
+
+    @Override
+    // Stream hits to the client a page at a time, 5 at a time by default, each page continuing after the last hit
+    // of the one before; size and limit are optional query params
+    public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
+        int size = Math.max(1, request.queryParam("size").map(Integer::parseInt).orElse(5));
+        long limit = request.queryParam("limit").map(Long::parseLong).orElse(Long.MAX_VALUE);
+        String query = query(request);
+
+        Flux<InvertedIndex.Hit> hits = Mono.fromSupplier(() -> index.search(query, size, null))
+            .expand(page -> {
+                List<InvertedIndex.Hit> pageHits = page.hits();
+                if (pageHits.size() < size) {
+                    return Mono.empty();
+                }
+                return Mono.fromSupplier(() -> index.search(query, size, pageHits.get(pageHits.size() - 1)));
+            })
+            .flatMapIterable(InvertedIndex.Hits::hits)
+            .take(limit);
+
+        return ok()
+            .contentType(MediaType.APPLICATION_STREAM_JSON)
+            .body(RequestMetrics.countDocuments(request, hits), InvertedIndex.Hit.class);
+    }
+
+    @Override
+    // Count from the facet index, which is the only copy of the counts there is
+    public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return FacetSource.respond(request, facetIndex, FACETS, () -> Mono.fromSupplier(() -> facetIndex.counts().toMap(FACETS)));
+    }
+
+    @Override
+    // The matching hotels themselves, as the model they were indexed as
+    // fields limits them to a comma-separated list of fields, and size sets the page size
+    public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(5);
+        Optional<Set<String>> fields = request.queryParam("fields")
+            .map(value -> new HashSet<>(Arrays.asList(value.split(","))));
+
+        List<ElasticsearchHotel> hotels = new ArrayList<>();
+        for (InvertedIndex.Hit hit : index.search(query(request), size, null).hits()) {
+            hotels.add(fields.isPresent() ? project(hit.source(), fields.get()) : hit.source());
+        }
+        RequestMetrics.documents(request, hotels.size());
+        return ok().bodyValue(hotels);
+    }
+
+    // A copy with only some of the fields, like a filtered _source
+    @SuppressWarnings("unchecked")
+    private ElasticsearchHotel project(ElasticsearchHotel hotel, Set<String> fields) {
+        Map<String, Object> source = codec.convert(hotel, Map.class);
+        source.keySet().retainAll(fields);
+        return codec.convert(source, ElasticsearchHotel.class);
+    }
+
+    @Override
+    // lat, lon (default downtown Seattle), distance in km (default 10) and size (default 10) pick the hotels
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        double lat = request.queryParam("lat").map(Double::parseDouble).orElse(47.6062);
+        double lon = request.queryParam("lon").map(Double::parseDouble).orElse(-122.3321);
+        double distance = request.queryParam("distance").map(Double::parseDouble).orElse(10.0);
+        int size = request.queryParam("size").map(Integer::parseInt).orElse(10);
+
+        List<NearbyHotel> hotels = geoIndex.nearby(lat, lon, distance, size);
+        RequestMetrics.documents(request, hotels.size());
+        return ok().bodyValue(hotels);
+    }
+
+    @Override
+    // There's only the one index, and it always exists
+    public Mono<ServerResponse> indexManagement(ServerRequest request) {
+        return ok().bodyValue("index created: hotels");
+    }
+
+    @Override
+    // Drop every document, then upload some data
+    // With source=synthetic, upload count generated hotels instead of the sample data
+    public Mono<ServerResponse> reset(ServerRequest request) {
+        Flux<ElasticsearchHotel> hotels = isSynthetic(request)
+            ? hotelGenerator(request).elasticsearchHotels(request.queryParam("count").map(Integer::parseInt).orElse(10000))
+            : HotelDataset.of(HotelDataset.ELASTICSEARCH)
+                .documents((id, source, offset, length) -> codec.decode(source, offset, length, ElasticsearchHotel.class));
+
+        return Mono.fromRunnable(this::clearIndexes)
+            .then(upload(hotels, batchSize(request)))
+            .doOnNext(stats -> RequestMetrics.documents(request, stats.documents()))
+            .flatMap(stats -> ok().bodyValue(String.format("reset docs: %s", stats.documents())));
+    }
+
+    private Mono<BulkIndexingStats> upload(Flux<ElasticsearchHotel> hotels, int batchSize) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return hotels
+                .buffer(batchSize)
+                .map(batch -> {
+                    long batchStart = System.nanoTime();
+                    put(batch);
+                    return new BatchResult(batch.size(), 0, 0).latency(System.nanoTime() - batchStart);
+                })
+                .reduceWith(BulkIndexingStats::new, BulkIndexingStats::addBatch)
+                .map(stats -> stats.complete(start));
+        })
+            .subscribeOn(Schedulers.parallel());
+    }
+
+    private void put(List<ElasticsearchHotel> hotels) {
+        index.putAll(hotels);
+        for (ElasticsearchHotel hotel : hotels) {
+            facetIndex.put(hotel);
+            geoIndex.put(hotel);
+        }
+    }
+
+    private void clearIndexes() {
+        index.clear();
+        facetIndex.clear();
+        geoIndex.clear();
+    }
+
+    private static String query(ServerRequest request) {
+        return request.queryParam("q").orElse(DEFAULT_QUERY);
+    }
+
+    private static int batchSize(ServerRequest request) {
+        return request.queryParam("batchSize").map(Integer::parseInt).orElse(DEFAULT_BATCH_SIZE);
+    }
+
+    private static boolean isSynthetic(ServerRequest request) {
+        return request.queryParam("source").map("synthetic"::equals).orElse(false);
+    }
+
+    private static HotelGenerator hotelGenerator(ServerRequest request) {
+        return new HotelGenerator(request.queryParam("seed").map(Long::parseLong).orElse(HotelGenerator.DEFAULT_SEED));
+    }
+}
@@ -0,0 +1,196 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs write and maintenance operations apart from interactive traffic: at most maxConcurrent at a time, on a
+ * scheduler of their own, with up to maxQueued more waiting for a turn and any beyond that rejected.
+ * Each operation is allowed an even share of the lane's connections for its bulk requests.
+ */
+public class MaintenanceLane {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final int connections;
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private int running;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public MaintenanceLane(String name, int maxConcurrent, int maxQueued, int connections) {
+        this(name, maxConcurrent, maxQueued, connections, Schedulers.newParallel(name, maxConcurrent, true));
+    }
+
+    MaintenanceLane(String name, int maxConcurrent, int maxQueued, int connections, Scheduler scheduler) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.connections = connections;
+        this.scheduler = scheduler;
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    public int connections() {
+        return connections;
+    }
+
+    /**
+     * How many bulk requests one operation may have in flight: what it asked for, up to its share of the connections
+     */
+    public int concurrency(int requested) {
+        return Math.max(1, Math.min(requested, connections / maxConcurrent));
+    }
+
+    /**
+     * Run an operation once the lane has room, subscribing to it on the lane's scheduler.
+     * Fails with RejectedExecutionException when maxQueued operations are already waiting.
+     */
+    public <T> Mono<T> submit(Mono<T> operation) {
+        return Mono.<Slot>create(this::acquire)
+            .flatMap(slot -> operation
+                .subscribeOn(scheduler)
+                .doFinally(signal -> slot.release()));
+    }
+
+    /**
+     * Produce documents on the lane's scheduler. Bulk uploads pull the next batch from whichever thread the last
+     * response arrived on, often an event loop, so building and serializing it would otherwise happen there.
+     */
+    public <T> Flux<T> produce(Flux<T> documents) {
+        return documents.subscribeOn(scheduler);
+    }
+
+    public Stats stats() {
+        synchronized (lock) {
+            return new Stats(running, waiting.size(), completed.get(), rejected.get());
+        }
+    }
+
+    private void acquire(MonoSink<Slot> sink) {
+        Waiter waiter = new Waiter(sink);
+        boolean queued = false;
+        synchronized (lock) {
+            if (running < maxConcurrent) {
+                running++;
+                waiter.slot = new Slot();
+            } else if (waiting.size() < maxQueued) {
+                waiting.add(waiter);
+                queued = true;
+            } else {
+                rejected.incrementAndGet();
+            }
+        }
+
+        if (waiter.slot != null) {
+            sink.success(waiter.slot);
+        } else if (queued) {
+            sink.onCancel(() -> cancel(waiter));
+        } else {
+            sink.error(new RejectedExecutionException(String.format("%d %s operations are already waiting", maxQueued, name)));
+        }
+    }
+
+    // A waiter can be handed a slot just as it's cancelled, in which case it passes the slot on
+    private void cancel(Waiter waiter) {
+        Slot handed;
+        synchronized (lock) {
+            waiting.remove(waiter);
+            handed = waiter.slot;
+        }
+        if (handed != null) {
+            handed.release();
+        }
+    }
+
+    private static class Waiter {
+        final MonoSink<Slot> sink;
+        // Guarded by lock
+        Slot slot;
+
+        Waiter(MonoSink<Slot> sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * A turn on the lane, handed straight to the next operation waiting when it's given back
+     */
+    private class Slot {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            completed.incrementAndGet();
+
+            Waiter next;
+            synchronized (lock) {
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                } else {
+                    next.slot = new Slot();
+                }
+            }
+            if (next != null) {
+                next.sink.success(next.slot);
+            }
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty(value = "running")
+        private final int running;
+
+        @JsonProperty(value = "queued")
+        private final int queued;
+
+        @JsonProperty(value = "completed")
+        private final long completed;
+
+        @JsonProperty(value = "rejected")
+        private final long rejected;
+
+        Stats(int running, int queued, long completed, long rejected) {
+            this.running = running;
+            this.queued = queued;
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+
+        public int running() {
+            return running;
+        }
+
+        public int queued() {
+            return queued;
+        }
+
+        public long completed() {
+            return completed;
+        }
+
+        public long rejected() {
+            return rejected;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Collects concurrent single-item writes and sends them together, once maxSize items are waiting or maxDelay after
+ * the first one arrived. Each caller gets back the result for its own item, in the order the flush returns them.
+ * With Ack.QUEUED callers complete as soon as their item is accepted, trading durability for latency: a failed
+ * flush, or an item the flush returned a failed result for, is only visible in stats().
+ */
+public class MicroBatcher<T, R> {
+    public enum Ack {
+        // Complete once the item is buffered
+        QUEUED,
+        // Complete with the item's result once its batch has been sent
+        FLUSHED
+    }
+
+    private final Function<List<T>, Mono<List<R>>> flush;
+    private final int maxSize;
+    private final Duration maxDelay;
+    private final Ack ack;
+    private final int maxPending;
+    private final Scheduler scheduler;
+    private Predicate<R> isFailed = result -> false;
+
+    private final Object lock = new Object();
+    private List<Pending<T, R>> buffer = new ArrayList<>();
+    private Disposable timer;
+
+    // Buffered or being flushed
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param flush sends a batch, returning one result per item in the same order
+     */
+    public MicroBatcher(Function<List<T>, Mono<List<R>>> flush, int maxSize, Duration maxDelay, Ack ack, int maxPending) {
+        this(flush, maxSize, maxDelay, ack, maxPending, Schedulers.parallel());
+    }
+
+    MicroBatcher(Function<List<T>, Mono<List<R>>> flush, int maxSize, Duration maxDelay, Ack ack, int maxPending, Scheduler scheduler) {
+        this.flush = flush;
+        this.maxSize = maxSize;
+        this.maxDelay = maxDelay;
+        this.ack = ack;
+        this.maxPending = maxPending;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * How to tell a result for an item that wasn't written, so it's counted as failed in stats()
+     */
+    public MicroBatcher<T, R> failedWhen(Predicate<R> isFailed) {
+        this.isFailed = isFailed;
+        return this;
+    }
+
+    public Ack ack() {
+        return ack;
+    }
+
+    /**
+     * The ack mode a request asks for with ack=queued or ack=flushed, otherwise the default. Throws
+     * InvalidAckException for anything else
+     */
+    public Ack ack(ServerRequest request) {
+        return request.queryParam("ack")
+            .map(MicroBatcher::parseAck)
+            .orElse(ack);
+    }
+
+    private static Ack parseAck(String value) {
+        for (Ack ack : Ack.values()) {
+            if (ack.name().equalsIgnoreCase(value)) {
+                return ack;
+            }
+        }
+        throw new InvalidAckException(value);
+    }
+
+    public Mono<R> submit(T item) {
+        return submit(item, ack);
+    }
+
+    /**
+     * Add an item to the next batch. Completes empty for Ack.QUEUED, and fails with RejectedExecutionException
+     * when maxPending items are already waiting
+     */
+    public Mono<R> submit(T item, Ack ack) {
+        return Mono.create(sink -> {
+            if (pending.incrementAndGet() > maxPending) {
+                pending.decrementAndGet();
+                rejected.incrementAndGet();
+                sink.error(new RejectedExecutionException(String.format("%d items are already waiting to be flushed", maxPending)));
+                return;
+            }
+
+            add(new Pending<>(item, ack == Ack.FLUSHED ? sink : null));
+            if (ack == Ack.QUEUED) {
+                sink.success();
+            }
+        });
+    }
+
+    /**
+     * Send whatever is buffered now, rather than waiting
+     */
+    public void flush() {
+        List<Pending<T, R>> batch;
+        synchronized (lock) {
+            batch = take();
+        }
+        send(batch);
+    }
+
+    public Stats stats() {
+        return new Stats(items.get(), batches.get(), failed.get(), rejected.get(), pending.get());
+    }
+
+    private void add(Pending<T, R> item) {
+        List<Pending<T, R>> full = null;
+        synchronized (lock) {
+            buffer.add(item);
+            if (buffer.size() >= maxSize) {
+                full = take();
+            } else if (buffer.size() == 1) {
+                List<Pending<T, R>> waiting = buffer;
+                timer = scheduler.schedule(() -> flushIfWaiting(waiting), maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        send(full);
+    }
+
+    // The timer may fire after its batch was already sent for being full, so only flush the batch it was set for
+    private void flushIfWaiting(List<Pending<T, R>> waiting) {
+        List<Pending<T, R>> batch = null;
+        synchronized (lock) {
+            if (buffer == waiting) {
+                batch = take();
+            }
+        }
+        send(batch);
+    }
+
+    private List<Pending<T, R>> take() {
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+        if (buffer.isEmpty()) {
+            return null;
+        }
+        List<Pending<T, R>> batch = buffer;
+        buffer = new ArrayList<>(maxSize);
+        return batch;
+    }
+
+    private void send(List<Pending<T, R>> batch) {
+        if (batch == null) {
+            return;
+        }
+        batches.incrementAndGet();
+        items.addAndGet(batch.size());
+
+        List<T> batchItems = new ArrayList<>(batch.size());
+        for (Pending<T, R> item : batch) {
+            batchItems.add(item.item);
+        }
+
+        Mono.defer(() -> flush.apply(batchItems))
+            .doFinally(signal -> pending.addAndGet(-batch.size()))
+            .subscribe(results -> {
+                if (results.size() != batch.size()) {
+                    fail(batch, new IllegalStateException(String.format("Flushed %d items but got %d results", batch.size(), results.size())));
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (isFailed.test(results.get(i))) {
+                        failed.incrementAndGet();
+                    }
+                    MonoSink<R> sink = batch.get(i).sink;
+                    if (sink != null) {
+                        sink.success(results.get(i));
+                    }
+                }
+            }, err -> fail(batch, err));
+    }
+
+    private void fail(List<Pending<T, R>> batch, Throwable err) {
+        failed.addAndGet(batch.size());
+        for (Pending<T, R> item : batch) {
+            if (item.sink != null) {
+                item.sink.error(err);
+            }
+        }
+    }
+
+    /**
+     * A request asked for an ack mode that doesn't exist
+     */
+    public static class InvalidAckException extends IllegalArgumentException {
+        InvalidAckException(String value) {
+            super(String.format("Unknown ack %s, expected queued or flushed", value));
+        }
+    }
+
+    private static class Pending<T, R> {
+        final T item;
+        final MonoSink<R> sink;
+
+        Pending(T item, MonoSink<R> sink) {
+            this.item = item;
+            this.sink = sink;
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty(value = "items")
+        private final long items;
+
+        @JsonProperty(value = "batches")
+        private final long batches;
+
+        @JsonProperty(value = "failed")
+        private final long failed;
+
+        @JsonProperty(value = "rejected")
+        private final long rejected;
+
+        @JsonProperty(value = "pending")
+        private final int pending;
+
+        Stats(long items, long batches, long failed, long rejected, int pending) {
+            this.items = items;
+            this.batches = batches;
+            this.failed = failed;
+            this.rejected = rejected;
+            this.pending = pending;
+        }
+
+        public long items() {
+            return items;
+        }
+
+        public long batches() {
+            return batches;
+        }
+
+        public long failed() {
+            return failed;
+        }
+
+        public long rejected() {
+            return rejected;
+        }
+
+        public int pending() {
+            return pending;
+        }
+    }
+}
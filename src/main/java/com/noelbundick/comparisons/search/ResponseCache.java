@@ -0,0 +1,198 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.noelbundick.comparisons.web.BufferedResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A size-bounded, TTL-evicting cache of buffered responses.
+ * Concurrent misses for the same key share a single backend call.
+ */
+public class ResponseCache {
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier clock;
+
+    // Access-ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, Mono<BufferedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Bumped on every invalidation so loads that started before it don't repopulate the cache
+    private volatile long generation;
+
+    public ResponseCache(Duration ttl, int maxSize) {
+        this(ttl, maxSize, System::nanoTime);
+    }
+
+    ResponseCache(Duration ttl, int maxSize, LongSupplier clock) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResponseCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the cached response for a key, or load it. Only replayable 2xx responses are kept.
+     */
+    public Mono<BufferedResponse> get(String key, Supplier<Mono<BufferedResponse>> loader) {
+        return Mono.defer(() -> {
+            BufferedResponse cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return Mono.just(cached);
+            }
+
+            boolean[] loading = {false};
+            Mono<BufferedResponse> load = inFlight.computeIfAbsent(key, k -> {
+                loading[0] = true;
+                return startLoad(k, loader);
+            });
+            (loading[0] ? misses : coalesced).incrementAndGet();
+            return load;
+        });
+    }
+
+    /**
+     * Drop every entry, e.g. after a write to the backend
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+        inFlight.clear();
+        invalidations.incrementAndGet();
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(size, hits.get(), misses.get(), coalesced.get(), evictions.get(), invalidations.get());
+    }
+
+    private BufferedResponse lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (clock.getAsLong() - entry.loadedAt >= ttlNanos) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.response;
+        }
+    }
+
+    private Mono<BufferedResponse> startLoad(String key, Supplier<Mono<BufferedResponse>> loader) {
+        long loadGeneration = generation;
+        Mono<?>[] self = new Mono<?>[1];
+        Mono<BufferedResponse> load = Mono.defer(loader)
+            .doOnNext(response -> store(key, response, loadGeneration))
+            .doFinally(signal -> inFlight.remove(key, self[0]))
+            .cache();
+        self[0] = load;
+        return load;
+    }
+
+    private void store(String key, BufferedResponse response, long loadGeneration) {
+        if (!response.isReplayable() || response.status() < 200 || response.status() >= 300) {
+            return;
+        }
+
+        synchronized (entries) {
+            if (generation == loadGeneration) {
+                entries.put(key, new Entry(response, clock.getAsLong()));
+            }
+        }
+    }
+
+    private static class Entry {
+        private final BufferedResponse response;
+        private final long loadedAt;
+
+        Entry(BufferedResponse response, long loadedAt) {
+            this.response = response;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty(value = "size")
+        private final int size;
+
+        @JsonProperty(value = "hits")
+        private final long hits;
+
+        @JsonProperty(value = "misses")
+        private final long misses;
+
+        @JsonProperty(value = "coalesced")
+        private final long coalesced;
+
+        @JsonProperty(value = "evictions")
+        private final long evictions;
+
+        @JsonProperty(value = "invalidations")
+        private final long invalidations;
+
+        Stats(int size, long hits, long misses, long coalesced, long evictions, long invalidations) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public long hits() {
+            return this.hits;
+        }
+
+        public long misses() {
+            return this.misses;
+        }
+
+        public long coalesced() {
+            return this.coalesced;
+        }
+
+        public long evictions() {
+            return this.evictions;
+        }
+
+        public long invalidations() {
+            return this.invalidations;
+        }
+    }
+}
@@ -19,6 +19,7 @@ public interface SearchHandler {
     Mono<ServerResponse> searchWithPaging(ServerRequest request);
     Mono<ServerResponse> searchWithFacets(ServerRequest request);
     Mono<ServerResponse> searchWithCustomTypes(ServerRequest request);
+    Mono<ServerResponse> searchNearby(ServerRequest request);
 
     // Management of entities within the service
     Mono<ServerResponse> indexManagement(ServerRequest request);
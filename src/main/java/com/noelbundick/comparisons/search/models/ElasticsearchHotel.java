@@ -1,5 +1,6 @@
 package com.noelbundick.comparisons.search.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.elasticsearch.common.geo.GeoPoint;
 
@@ -38,7 +39,9 @@ public class ElasticsearchHotel {
     @JsonProperty(value = "Rating")
     private Integer rating;
 
+    // Only lat/lon are valid in a geo_point object, GeoPoint's other getters would be rejected
     @JsonProperty(value = "Location")
+    @JsonIgnoreProperties(value = {"geohash", "fragment"})
     private GeoPoint location;
 
     @JsonProperty(value = "Address")
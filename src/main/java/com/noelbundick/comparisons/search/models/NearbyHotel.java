@@ -0,0 +1,42 @@
+package com.noelbundick.comparisons.search.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class NearbyHotel {
+    @JsonProperty(value = "HotelId")
+    private String hotelId;
+
+    @JsonProperty(value = "HotelName")
+    private String hotelName;
+
+    @JsonProperty(value = "DistanceKm")
+    private double distanceKm;
+
+
+    public String hotelId() {
+        return this.hotelId;
+    }
+
+    public NearbyHotel hotelId(String hotelId) {
+        this.hotelId = hotelId;
+        return this;
+    }
+
+    public String hotelName() {
+        return this.hotelName;
+    }
+
+    public NearbyHotel hotelName(String hotelName) {
+        this.hotelName = hotelName;
+        return this;
+    }
+
+    public double distanceKm() {
+        return this.distanceKm;
+    }
+
+    public NearbyHotel distanceKm(double distanceKm) {
+        this.distanceKm = distanceKm;
+        return this;
+    }
+}
@@ -1,29 +1,64 @@
 package com.noelbundick.comparisons.storage;
 
+import com.azure.storage.blob.BlobAsyncClient;
 import com.azure.storage.blob.BlobContainerAsyncClient;
 import com.azure.storage.blob.BlobServiceAsyncClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.azure.storage.blob.models.BlobContainerItem;
+import com.azure.storage.blob.models.BlobHttpHeaders;
 import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ListBlobContainersOptions;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.noelbundick.comparisons.storage.models.ContainerBlob;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 public class AzureStorageHandler {
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+    // Times to start over when the blob is overwritten between reading its properties and downloading it
+    private static final int MAX_DOWNLOAD_RETRIES = 2;
+    private static final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
     private static ParameterizedTypeReference<Map<String, List<BlobItem>>> listAllBlobsTypeRef = new ParameterizedTypeReference<>() {};
 
     private final BlobServiceAsyncClient serviceClient;
 
     public AzureStorageHandler(String connectionString) {
-        serviceClient = new BlobServiceClientBuilder()
+        this(new BlobServiceClientBuilder()
             .connectionString(connectionString)
-            .buildAsyncClient();
+            .buildAsyncClient());
+    }
+
+    public AzureStorageHandler(BlobServiceAsyncClient serviceClient) {
+        this.serviceClient = serviceClient;
     }
 
     /**
@@ -35,24 +70,141 @@ public class AzureStorageHandler {
     }
 
     /**
-     * List all blobs in all containers in a Storage Account
+     * Stream all blobs in all containers as they're listed, one JSON object per line.
+     * Up to `concurrency` containers are listed at a time, and each container's blobs are written together.
+     * `pageSize` controls how many items are requested from the service at once.
      */
     public Mono<ServerResponse> listAllBlobs(ServerRequest request) {
-        Mono<Map<String, List<BlobItem>>> results = serviceClient.listBlobContainers()
-            .flatMap(c -> {
+        Flux<ContainerBlob> blobs = listBlobsByContainer(request);
+        return ok()
+            .contentType(MediaType.APPLICATION_STREAM_JSON)
+            .body(blobs, ContainerBlob.class);
+    }
+
+    /**
+     * List all blobs in all containers in a Storage Account, grouped by container into a single response
+     */
+    public Mono<ServerResponse> listAllBlobsGrouped(ServerRequest request) {
+        // collect() creates a new map for every subscription
+        Mono<Map<String, List<BlobItem>>> results = listBlobsByContainer(request)
+            .collect(LinkedHashMap::new, (map, item) -> map
+                .computeIfAbsent(item.container(), x -> new ArrayList<>())
+                .add(item.blob()));
+
+        return ok().body(results, listAllBlobsTypeRef);
+    }
+
+    // Later containers are listed ahead while earlier ones are still being written, one page each at most
+    private Flux<ContainerBlob> listBlobsByContainer(ServerRequest request) {
+        int concurrency = request.queryParam("concurrency").map(Integer::parseInt).orElse(DEFAULT_CONCURRENCY);
+        int pageSize = request.queryParam("pageSize").map(Integer::parseInt).orElse(DEFAULT_PAGE_SIZE);
+        ListBlobsOptions options = new ListBlobsOptions().setMaxResultsPerPage(pageSize);
+
+        return serviceClient.listBlobContainers(new ListBlobContainersOptions().setMaxResultsPerPage(pageSize))
+            .flatMapSequential(c -> {
                 String containerName = c.getName();
                 BlobContainerAsyncClient containerClient = serviceClient.getBlobContainerAsyncClient(containerName);
-                return containerClient.listBlobs().map(b -> new AbstractMap.SimpleEntry<>(containerName, b));
+                return containerClient.listBlobs(options)
+                    .map(b -> new ContainerBlob().container(containerName).blob(b));
+            }, concurrency, pageSize);
+    }
+
+    /**
+     * Stream a blob's content as it's downloaded, honoring a single HTTP byte range. The headers come from the blob's
+     * properties, so the download is conditional on its ETag: if the blob changes in between, start over, and answer
+     * 412 if it keeps changing
+     */
+    public Mono<ServerResponse> downloadBlob(ServerRequest request) {
+        BlobAsyncClient blobClient = blobClient(request);
+        List<HttpRange> ranges = request.headers().range();
+
+        return blobClient.getProperties()
+            .flatMap(properties -> {
+                long size = properties.getBlobSize();
+
+                // Multiple ranges would need a multipart response, so those get the whole blob instead
+                if (ranges.size() != 1) {
+                    return download(blobClient, null, properties)
+                        .flatMap(content -> ok()
+                            .contentType(contentType(properties))
+                            .contentLength(size)
+                            .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                            .eTag(properties.getETag())
+                            .body(BodyInserters.fromDataBuffers(content)));
+                }
+
+                HttpRange range = ranges.get(0);
+                if (size == 0 || range.getRangeStart(size) >= size) {
+                    return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, String.format("bytes */%d", size))
+                        .build();
+                }
+                long start = range.getRangeStart(size);
+                long end = range.getRangeEnd(size);
+                return download(blobClient, new BlobRange(start, end - start + 1), properties)
+                    .flatMap(content -> ServerResponse.status(HttpStatus.PARTIAL_CONTENT)
+                        .contentType(contentType(properties))
+                        .contentLength(end - start + 1)
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .header(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, size))
+                        .eTag(properties.getETag())
+                        .body(BodyInserters.fromDataBuffers(content)));
             })
-            .reduce(new HashMap<>(), (map, entry) -> {
-                String containerName = entry.getKey();
-                BlobItem blob = entry.getValue();
+            .retry(MAX_DOWNLOAD_RETRIES, err -> err instanceof BlobStorageException
+                && ((BlobStorageException) err).getStatusCode() == HttpStatus.PRECONDITION_FAILED.value())
+            .onErrorResume(BlobStorageException.class, this::storageError);
+    }
 
-                map.computeIfAbsent(containerName, x -> new ArrayList<>())
-                    .add(blob);
-                return map;
+    /**
+     * Upload the request body as a block blob, streaming it through `concurrency` blocks of `blockSize` bytes at a time
+     */
+    public Mono<ServerResponse> uploadBlob(ServerRequest request) {
+        int blockSize = request.queryParam("blockSize").map(Integer::parseInt).orElse(DEFAULT_BLOCK_SIZE);
+        int concurrency = request.queryParam("concurrency").map(Integer::parseInt).orElse(DEFAULT_UPLOAD_CONCURRENCY);
+        BlobHttpHeaders headers = new BlobHttpHeaders()
+            .setContentType(request.headers().contentType().map(MediaType::toString).orElse(null));
+
+        // The SDK holds on to buffers until their block has been sent, after the request's own buffers are released
+        Flux<ByteBuffer> data = request.body(BodyExtractors.toDataBuffers())
+            .map(buffer -> {
+                ByteBuffer copy = ByteBuffer.allocate(buffer.readableByteCount());
+                copy.put(buffer.asByteBuffer()).flip();
+                DataBufferUtils.release(buffer);
+                return copy;
             });
 
-        return ok().body(results, listAllBlobsTypeRef);
+        // Blocks are staged in parallel, so at most `concurrency` blocks are buffered at once
+        ParallelTransferOptions transferOptions = new ParallelTransferOptions(blockSize, Math.max(2, concurrency), null);
+        return blobClient(request)
+            .uploadWithResponse(data, transferOptions, headers, null, null, null)
+            .flatMap(res -> ServerResponse.status(HttpStatus.CREATED).bodyValue(res.getValue()))
+            .onErrorResume(BlobStorageException.class, this::storageError);
+    }
+
+    private BlobAsyncClient blobClient(ServerRequest request) {
+        String container = request.pathVariable("container");
+        // {*blob} captures the rest of the path with its leading slash, so blob names can contain slashes
+        String blob = request.pathVariable("blob").substring(1);
+        return serviceClient.getBlobContainerAsyncClient(container).getBlobAsyncClient(blob);
+    }
+
+    // The downloaded ByteBuffers are views of pooled buffers that are released as soon as each one has been emitted,
+    // so copy them into pooled buffers of our own, which are released once they've been written to the response.
+    // Fails with a 412 if the blob no longer matches the properties the response headers were built from
+    private static Mono<Flux<DataBuffer>> download(BlobAsyncClient blobClient, BlobRange range, BlobProperties properties) {
+        BlobRequestConditions unchanged = new BlobRequestConditions().setIfMatch(properties.getETag());
+        return blobClient.downloadWithResponse(range, null, unchanged, false)
+            .map(res -> res.getValue()
+                .map(chunk -> bufferFactory.allocateBuffer(chunk.remaining()).write(chunk))
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release));
+    }
+
+    private static MediaType contentType(BlobProperties properties) {
+        String contentType = properties.getContentType();
+        return contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType);
+    }
+
+    private Mono<ServerResponse> storageError(BlobStorageException e) {
+        return ServerResponse.status(e.getStatusCode()).bodyValue(e.getMessage());
     }
 }
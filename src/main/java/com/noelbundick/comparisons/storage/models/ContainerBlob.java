@@ -0,0 +1,31 @@
+package com.noelbundick.comparisons.storage.models;
+
+import com.azure.storage.blob.models.BlobItem;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ContainerBlob {
+    @JsonProperty(value = "container")
+    private String container;
+
+    @JsonProperty(value = "blob")
+    private BlobItem blob;
+
+
+    public String container() {
+        return this.container;
+    }
+
+    public ContainerBlob container(String container) {
+        this.container = container;
+        return this;
+    }
+
+    public BlobItem blob() {
+        return this.blob;
+    }
+
+    public ContainerBlob blob(BlobItem blob) {
+        this.blob = blob;
+        return this;
+    }
+}
@@ -0,0 +1,89 @@
+package com.noelbundick.comparisons.web;
+
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.server.EntityResponse;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A handler response whose body has already been read from the backend, so it can be replayed or inspected
+ */
+public class BufferedResponse {
+    private final int status;
+    private final HttpHeaders headers;
+    private final Object body;
+    private final ServerResponse unbuffered;
+
+    private BufferedResponse(int status, HttpHeaders headers, Object body, ServerResponse unbuffered) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.unbuffered = unbuffered;
+    }
+
+    /**
+     * Resolve the body of a response built with ok().body(...) or ok().bodyValue(...).
+     * Mono bodies resolve to their value, Flux bodies are collected into a List.
+     * Responses that don't carry an entity are passed through as-is.
+     * An ObservedResponse is unwrapped, and its callback runs once the body has been buffered.
+     */
+    public static Mono<BufferedResponse> from(ServerResponse response) {
+        if (response instanceof ObservedResponse) {
+            // Buffering reads the body instead of writing it, so that's when the observer hears about it
+            ObservedResponse observed = (ObservedResponse) response;
+            return from(observed.delegate()).doFinally(observed.onWriteFinally());
+        }
+
+        HttpHeaders headers = HttpHeaders.readOnlyHttpHeaders(response.headers());
+        if (!(response instanceof EntityResponse)) {
+            return Mono.just(new BufferedResponse(response.rawStatusCode(), headers, null, response));
+        }
+
+        Object entity = ((EntityResponse<?>) response).entity();
+        if (entity instanceof Mono) {
+            return ((Mono<?>) entity)
+                .map(value -> new BufferedResponse(response.rawStatusCode(), headers, value, null))
+                .defaultIfEmpty(new BufferedResponse(response.rawStatusCode(), headers, null, null));
+        }
+        if (entity instanceof Publisher) {
+            return Flux.from((Publisher<?>) entity)
+                .collectList()
+                .map(list -> new BufferedResponse(response.rawStatusCode(), headers, list, null));
+        }
+        return Mono.just(new BufferedResponse(response.rawStatusCode(), headers, entity, null));
+    }
+
+    public int status() {
+        return this.status;
+    }
+
+    public HttpHeaders headers() {
+        return this.headers;
+    }
+
+    public Object body() {
+        return this.body;
+    }
+
+    /**
+     * Whether the body was captured, i.e. the response can be replayed any number of times
+     */
+    public boolean isReplayable() {
+        return this.unbuffered == null;
+    }
+
+    /**
+     * Build a fresh ServerResponse with the buffered status, headers and body
+     */
+    public Mono<ServerResponse> toResponse() {
+        if (this.unbuffered != null) {
+            return Mono.just(this.unbuffered);
+        }
+
+        ServerResponse.BodyBuilder builder = ServerResponse.status(this.status)
+            .headers(h -> h.addAll(this.headers));
+        return this.body == null ? builder.build() : builder.bodyValue(this.body);
+    }
+}
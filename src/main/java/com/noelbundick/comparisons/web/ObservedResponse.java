@@ -0,0 +1,68 @@
+package com.noelbundick.comparisons.web;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.function.Consumer;
+
+/**
+ * Wraps a ServerResponse to find out when its body has been written.
+ * Handlers return a Mono&lt;ServerResponse&gt; that completes before a streamed body is read from the backend,
+ * so anything that wants to observe the whole request has to hook the write instead.
+ */
+public class ObservedResponse implements ServerResponse {
+    private final ServerResponse delegate;
+    private final Consumer<SignalType> onWriteFinally;
+
+    private ObservedResponse(ServerResponse delegate, Consumer<SignalType> onWriteFinally) {
+        this.delegate = delegate;
+        this.onWriteFinally = onWriteFinally;
+    }
+
+    /**
+     * Run a callback once the response has been written, failed to write or the client went away
+     */
+    public static ServerResponse doFinallyWrite(ServerResponse response, Consumer<SignalType> onWriteFinally) {
+        return new ObservedResponse(response, onWriteFinally);
+    }
+
+    ServerResponse delegate() {
+        return delegate;
+    }
+
+    Consumer<SignalType> onWriteFinally() {
+        return onWriteFinally;
+    }
+
+    @Override
+    public HttpStatus statusCode() {
+        return delegate.statusCode();
+    }
+
+    @Override
+    public int rawStatusCode() {
+        return delegate.rawStatusCode();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return delegate.headers();
+    }
+
+    @Override
+    public MultiValueMap<String, ResponseCookie> cookies() {
+        return delegate.cookies();
+    }
+
+    @Override
+    public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+        return delegate.writeTo(exchange, context)
+            .doFinally(onWriteFinally);
+    }
+}
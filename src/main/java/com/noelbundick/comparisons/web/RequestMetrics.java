@@ -0,0 +1,43 @@
+package com.noelbundick.comparisons.web;
+
+import org.springframework.web.reactive.function.server.ServerRequest;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets handlers report what a request did, without knowing whether anything is recording it.
+ * Whatever instruments the route calls track() before invoking the handler and reads the totals afterwards.
+ */
+public class RequestMetrics {
+    private static final String DOCUMENTS_ATTRIBUTE = RequestMetrics.class.getName() + ".documents";
+
+    private RequestMetrics() {
+    }
+
+    /**
+     * Start tracking a request, returning the count of documents it returns or indexes
+     */
+    public static AtomicLong track(ServerRequest request) {
+        AtomicLong documents = new AtomicLong();
+        request.attributes().put(DOCUMENTS_ATTRIBUTE, documents);
+        return documents;
+    }
+
+    /**
+     * Record documents returned or indexed by the request
+     */
+    public static void documents(ServerRequest request, long count) {
+        Object documents = request.attributes().get(DOCUMENTS_ATTRIBUTE);
+        if (documents instanceof AtomicLong) {
+            ((AtomicLong) documents).addAndGet(count);
+        }
+    }
+
+    /**
+     * Record each element of a streamed result as a document as it goes by
+     */
+    public static <T> Flux<T> countDocuments(ServerRequest request, Flux<T> results) {
+        return results.doOnNext(item -> documents(request, 1));
+    }
+}
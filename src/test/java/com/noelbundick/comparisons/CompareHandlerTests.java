@@ -0,0 +1,139 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+public class CompareHandlerTests {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CountDownLatch slowCancelled = new CountDownLatch(1);
+    private final AtomicBoolean slowResetCancelled = new AtomicBoolean();
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        // "slow" takes 200ms to search, 300ms to reset, and never finishes counting or searching nearby
+        SearchHandler slow = new StubSearchHandler() {
+            @Override
+            public Mono<ServerResponse> search(ServerRequest request) {
+                return Mono.delay(Duration.ofMillis(200))
+                    .then(super.search(request));
+            }
+
+            @Override
+            public Mono<ServerResponse> count(ServerRequest request) {
+                return Mono.never();
+            }
+
+            @Override
+            public Mono<ServerResponse> reset(ServerRequest request) {
+                return Mono.delay(Duration.ofMillis(300))
+                    .then(super.reset(request))
+                    .doOnCancel(() -> slowResetCancelled.set(true));
+            }
+
+            @Override
+            public Mono<ServerResponse> searchNearby(ServerRequest request) {
+                return Mono.<ServerResponse>never()
+                    .doOnCancel(slowCancelled::countDown);
+            }
+        };
+
+        CompareHandler compare = new CompareHandler(new RouteBuilder<>(SearchHandler.class), registry)
+            .backend("fast", new StubSearchHandler(), Duration.ofSeconds(5))
+            .backend("slow", slow, Duration.ofMillis(100));
+        webTestClient = WebTestClient.bindToRouterFunction(route()
+            .GET("search/compare/{operation}", compare::compare)
+            .build()
+        ).build();
+    }
+
+    @Test
+    public void testBothBackendsAreReported() {
+        webTestClient.get().uri("/search/compare/search?timeout=1000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.fast.status").isEqualTo(200)
+            .jsonPath("$.fast.body").isEqualTo("search")
+            .jsonPath("$.slow.status").isEqualTo(200)
+            .jsonPath("$.slow.body").isEqualTo("search")
+            .jsonPath("$.slow.timeMs").value(ms -> assertTrue(((Number) ms).doubleValue() >= 200));
+
+        assertEquals(2, registry.find(CompareHandler.COMPARISONS).tag("method", "search").timers().size());
+    }
+
+    @Test
+    public void testEachBackendHasItsOwnTimeout() {
+        webTestClient.get().uri("/search/compare/count")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.fast.body").isEqualTo("ok")
+            .jsonPath("$.slow.status").isEqualTo(504)
+            .jsonPath("$.slow.error").isEqualTo("No response within 100ms");
+    }
+
+    @Test
+    public void testWritesRunPastTheTimeout() {
+        webTestClient.get().uri("/search/compare/reset")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.fast.body").isEqualTo("reset")
+            .jsonPath("$.slow.status").isEqualTo(200)
+            .jsonPath("$.slow.body").isEqualTo("reset")
+            .jsonPath("$.slow.timeMs").value(ms -> assertTrue(((Number) ms).doubleValue() >= 300));
+
+        assertFalse(slowResetCancelled.get());
+    }
+
+    @Test
+    public void testRaceReturnsTheFirstSuccessAndCancelsTheOther() throws InterruptedException {
+        webTestClient.get().uri("/search/compare/searchNearby?mode=race&primary=slow&timeout=1000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.winner").isEqualTo("fast")
+            .jsonPath("$.fast.body").isEqualTo("searchNearby")
+            .jsonPath("$.slow").doesNotExist();
+
+        // The merge cancels the loser once it's done emitting the winner, which can be just after the response is written
+        assertTrue(slowCancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHedgeIsOnlySentWhenThePrimaryIsSlow() {
+        webTestClient.get().uri("/search/compare/search?mode=race&primary=fast&hedge=50")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.winner").isEqualTo("fast");
+
+        assertNull(registry.find(CompareHandler.COMPARISONS).tag("backend", "slow").timer());
+    }
+
+    @Test
+    public void testWritesCantBeRaced() {
+        webTestClient.get().uri("/search/compare/reset?mode=race")
+            .exchange()
+            .expectStatus().isBadRequest();
+
+        webTestClient.get().uri("/search/compare/nothing")
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+}
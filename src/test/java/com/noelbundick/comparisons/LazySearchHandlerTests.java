@@ -0,0 +1,48 @@
+package com.noelbundick.comparisons;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazySearchHandlerTests {
+    private final ServerRequest request = MockServerRequest.builder().build();
+    private final AtomicInteger built = new AtomicInteger();
+    private final Lazy<StubSearchHandler> lazy = new Lazy<>(() -> {
+        built.incrementAndGet();
+        return new StubSearchHandler();
+    });
+
+    @Test
+    public void testBuildsOnTheFirstRequest() {
+        LazySearchHandler handler = new LazySearchHandler(lazy);
+        assertEquals(0, built.get());
+        assertNull(lazy.ifBuilt(StubSearchHandler::toString));
+
+        // Asking for a response isn't enough, it has to be subscribed to
+        handler.count(request);
+        assertEquals(0, built.get());
+
+        assertEquals(200, handler.count(request).block().rawStatusCode());
+        assertEquals(1, built.get());
+        assertNotNull(lazy.ifBuilt(StubSearchHandler::toString));
+    }
+
+    @Test
+    public void testConcurrentFirstRequestsShareOneBuild() {
+        LazySearchHandler handler = new LazySearchHandler(lazy);
+
+        List<ServerResponse> responses = Flux.range(0, 16)
+            .flatMap(i -> handler.search(request))
+            .collectList()
+            .block();
+        assertEquals(16, responses.size());
+        assertEquals(1, built.get());
+    }
+}
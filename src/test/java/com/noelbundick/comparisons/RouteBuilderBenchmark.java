@@ -0,0 +1,50 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request dispatch cost of the bound RouteBuilder invokers vs the original Method.invoke path
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteBuilderBenchmark {
+    private SearchHandler handler;
+    private ServerRequest request;
+    private Method method;
+    private RouteBuilder.HandlerInvoker<SearchHandler> invoker;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        handler = new StubSearchHandler();
+        request = MockServerRequest.builder().build();
+        method = SearchHandler.class.getMethod("count", ServerRequest.class);
+        invoker = RouteBuilder.bind(method);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Mono<ServerResponse> reflective() throws Exception {
+        return Optional.ofNullable((Mono<ServerResponse>) method.invoke(handler, request))
+            .orElse(ServerResponse.status(500).bodyValue("Not implemented"))
+            .onErrorResume(e -> ServerResponse.status(500)
+                .bodyValue(String.format("There was an unexpected error: %s", e)));
+    }
+
+    @Benchmark
+    public Mono<ServerResponse> bound() {
+        return RouteBuilder.dispatch(invoker, handler, request);
+    }
+}
@@ -0,0 +1,45 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+public class RouteBuilderTests {
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        RouteBuilder<SearchHandler> routeBuilder = new RouteBuilder<>(SearchHandler.class);
+        webTestClient = WebTestClient.bindToRouterFunction(route()
+            .path("search/stub", builder -> routeBuilder.buildRoutes(builder, new StubSearchHandler()))
+            .build()
+        ).build();
+    }
+
+    @Test
+    public void testDispatchesToHandlerMethod() {
+        webTestClient.get().uri("/search/stub/search")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("search");
+    }
+
+    @Test
+    public void testNullResponseIsNotImplemented() {
+        webTestClient.get().uri("/search/stub/indexManagement")
+            .exchange()
+            .expectStatus().is5xxServerError()
+            .expectBody(String.class).isEqualTo("Not implemented");
+    }
+
+    @Test
+    public void testErrorsAreReported() {
+        webTestClient.get().uri("/search/stub/errorHandling")
+            .exchange()
+            .expectStatus().is5xxServerError()
+            .expectBody(String.class).isEqualTo("There was an unexpected error: java.lang.IllegalStateException: bogus document");
+    }
+}
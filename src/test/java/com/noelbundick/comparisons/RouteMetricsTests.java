@@ -0,0 +1,53 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+public class RouteMetricsTests {
+    private MeterRegistry registry;
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        RouteBuilder<SearchHandler> routeBuilder = new RouteBuilder<>(SearchHandler.class);
+        webTestClient = WebTestClient.bindToRouterFunction(route()
+            .path("search/stub", builder -> routeBuilder.buildRoutes(builder, new StubSearchHandler(), new RouteMetrics(registry, "stub")))
+            .build()
+        ).build();
+    }
+
+    @Test
+    public void testRecordsLatencyAndDocuments() {
+        webTestClient.get().uri("/search/stub/search").exchange().expectStatus().isOk();
+        webTestClient.get().uri("/search/stub/search").exchange().expectStatus().isOk();
+
+        Timer timer = registry.get(RouteMetrics.REQUESTS)
+            .tags("backend", "stub", "method", "search", "status", "200", "outcome", "SUCCESS")
+            .timer();
+        assertEquals(2, timer.count());
+        assertEquals(6, registry.get(RouteMetrics.DOCUMENTS).tags("method", "search").counter().count());
+        assertEquals(0, registry.get(RouteMetrics.ACTIVE).tags("method", "search").gauge().value());
+    }
+
+    @Test
+    public void testCountsErrors() {
+        webTestClient.get().uri("/search/stub/errorHandling").exchange().expectStatus().is5xxServerError();
+
+        assertEquals(1, registry.get(RouteMetrics.ERRORS)
+            .tags("method", "errorHandling", "exception", "IllegalStateException")
+            .counter().count());
+        assertEquals(1, registry.get(RouteMetrics.REQUESTS)
+            .tags("method", "errorHandling", "outcome", "ERROR")
+            .timer().count());
+        assertEquals(0, registry.get(RouteMetrics.ACTIVE).tags("method", "errorHandling").gauge().value());
+    }
+}
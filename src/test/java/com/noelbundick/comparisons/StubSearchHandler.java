@@ -0,0 +1,79 @@
+package com.noelbundick.comparisons;
+
+import com.noelbundick.comparisons.search.SearchHandler;
+import com.noelbundick.comparisons.web.RequestMetrics;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * A SearchHandler that answers without touching a backend. Most operations answer with their own name and count
+ * answers "ok", but a few are special cases tests rely on: search also records 3 documents, errorHandling fails with
+ * an IllegalStateException, and indexManagement returns null instead of a response.
+ */
+class StubSearchHandler implements SearchHandler {
+    private final Mono<ServerResponse> response = ok().bodyValue("ok");
+
+    @Override
+    public Mono<ServerResponse> errorHandling(ServerRequest request) {
+        return Mono.error(new IllegalStateException("bogus document"));
+    }
+
+    @Override
+    public Mono<ServerResponse> indexing(ServerRequest request) {
+        return ok().bodyValue("indexing");
+    }
+
+    @Override
+    public Mono<ServerResponse> bulkIndexing(ServerRequest request) {
+        return ok().bodyValue("bulkIndexing");
+    }
+
+    @Override
+    public Mono<ServerResponse> clear(ServerRequest request) {
+        return ok().bodyValue("clear");
+    }
+
+    @Override
+    public Mono<ServerResponse> count(ServerRequest request) {
+        return response;
+    }
+
+    @Override
+    public Mono<ServerResponse> search(ServerRequest request) {
+        RequestMetrics.documents(request, 3);
+        return ok().bodyValue("search");
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithPaging(ServerRequest request) {
+        return ok().bodyValue("searchWithPaging");
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithFacets(ServerRequest request) {
+        return ok().bodyValue("searchWithFacets");
+    }
+
+    @Override
+    public Mono<ServerResponse> searchWithCustomTypes(ServerRequest request) {
+        return ok().bodyValue("searchWithCustomTypes");
+    }
+
+    @Override
+    public Mono<ServerResponse> searchNearby(ServerRequest request) {
+        return ok().bodyValue("searchNearby");
+    }
+
+    @Override
+    public Mono<ServerResponse> indexManagement(ServerRequest request) {
+        return null;
+    }
+
+    @Override
+    public Mono<ServerResponse> reset(ServerRequest request) {
+        return ok().bodyValue("reset");
+    }
+}
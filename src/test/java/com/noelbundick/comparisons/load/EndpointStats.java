@@ -0,0 +1,57 @@
+package com.noelbundick.comparisons.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes for one kind of request, recorded from the Netty threads that complete them.
+ * Latency is measured from when a request was scheduled to go out, not from when it went out.
+ */
+class EndpointStats {
+    private final String name;
+    private final Histogram latencies = new ConcurrentHistogram(3);
+    private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+
+    EndpointStats(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    Histogram latencies() {
+        return latencies;
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    void record(long latencyNanos, int status) {
+        latencies.recordValue(latencyNanos);
+        statuses.computeIfAbsent(Integer.toString(status), s -> new LongAdder()).increment();
+        if (status >= 400) {
+            errors.increment();
+        }
+    }
+
+    // A request that never got a status: refused, reset, timed out
+    void recordFailure(long latencyNanos, Throwable error) {
+        latencies.recordValue(latencyNanos);
+        statuses.computeIfAbsent(error.getClass().getSimpleName(), s -> new LongAdder()).increment();
+        errors.increment();
+    }
+
+    Map<String, Long> statuses() {
+        Map<String, Long> counts = new TreeMap<>();
+        statuses.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+}
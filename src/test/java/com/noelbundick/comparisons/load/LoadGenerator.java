@@ -0,0 +1,155 @@
+package com.noelbundick.comparisons.load;
+
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.noelbundick.comparisons.Application;
+import com.noelbundick.comparisons.ClientPools;
+import com.noelbundick.comparisons.stub.StubBackend;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Drives open-loop traffic at the application's routes and reports latency per endpoint.
+ * Unless load.target names a running instance, the application is started in process against StubBackend
+ * stand-ins, so a run needs no Azure or Elasticsearch and its numbers can be compared across commits.
+ * Configured with system properties; see the loadtest profile in pom.xml.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            status = 2;
+        }
+        // The stubs' and the client's Netty threads would otherwise keep the JVM alive
+        System.exit(status);
+    }
+
+    private static int run() {
+        double rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+        Duration warmup = DurationStyle.detectAndParse(System.getProperty("load.warmup", "10s"));
+        Duration duration = DurationStyle.detectAndParse(System.getProperty("load.duration", "30s"));
+        Duration timeout = DurationStyle.detectAndParse(System.getProperty("load.timeout", "10s"));
+        int connections = Integer.parseInt(System.getProperty("load.connections", "200"));
+        String trafficFile = System.getProperty("load.traffic", "load/traffic.jsonl");
+        String target = System.getProperty("load.target", "");
+        String reportFile = System.getProperty("load.report", "target/load-report.json");
+        double maxErrorRate = Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+        double maxP99Ms = Double.parseDouble(System.getProperty("load.max-p99-ms", "0"));
+        // Comma-separated key=value settings for the in-process application, e.g. to compare a feature on and off
+        String appProperties = System.getProperty("load.app-properties", "");
+
+        LoadReport report;
+        if (target.isEmpty()) {
+            try (StubBackend elasticsearch = StubBackend.elasticsearch();
+                 StubBackend azureSearch = StubBackend.azureSearch();
+                 StubBackend azureStorage = StubBackend.azureStorage();
+                 ConfigurableApplicationContext app = start(elasticsearch, azureSearch, azureStorage, appProperties)) {
+                int port = ((ReactiveWebServerApplicationContext) app).getWebServer().getPort();
+                report = run(String.format("http://127.0.0.1:%d", port), trafficFile, rate, warmup, duration, timeout, connections);
+            }
+        } else {
+            report = run(target, trafficFile, rate, warmup, duration, timeout, connections);
+        }
+
+        report.print(System.out);
+        report.write(Paths.get(reportFile));
+        System.out.printf("Report written to %s%n", reportFile);
+
+        List<String> failures = report.check(maxErrorRate, maxP99Ms);
+        failures.forEach(failure -> System.err.println("FAILED: " + failure));
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    static LoadReport run(String baseUrl, String trafficFile, double rate, Duration warmup, Duration duration,
+                          Duration timeout, int connections) {
+        // Its own event loops, so the driver isn't competing with an in-process server for them
+        LoopResources loops = LoopResources.create("load");
+        try {
+            WebClient client = WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(ConnectionProvider.fixed("load", connections))
+                    .tcpConfiguration(tcp -> tcp.runOn(loops))))
+                .build();
+
+            // The warmup has its own seed, so it sends the same mix as the run but not the same sequence
+            if (!warmup.isZero()) {
+                System.out.printf("Warming up for %ds at %.1f req/s%n", warmup.getSeconds(), rate);
+                new OpenLoopDriver(client, Traffic.read(trafficFile, 0), rate, timeout).run(warmup);
+            }
+            System.out.printf("Sending %.1f req/s to %s for %ds%n", rate, baseUrl, duration.getSeconds());
+            return new OpenLoopDriver(client, Traffic.read(trafficFile, 1), rate, timeout).run(duration);
+        } finally {
+            loops.dispose();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(StubBackend elasticsearch, StubBackend azureSearch, StubBackend azureStorage,
+                                                        String appProperties) {
+        // Keep the driver's logging configuration rather than letting Spring Boot replace it
+        System.setProperty(LoggingSystem.SYSTEM_PROPERTY, LoggingSystem.NONE);
+        return new SpringApplicationBuilder(Application.class)
+            .properties(
+                "server.port=0",
+                "spring.main.banner-mode=off",
+                "ELASTICSEARCH_HOST=" + elasticsearch.endpoint(),
+                "AZURE_SEARCH_ENDPOINT=https://stub.search.windows.net",
+                "AZURE_SEARCH_KEY=stub-key",
+                "AZURE_STORAGE_CONN_STRING=" + azureStorage.connectionString())
+            .properties(appProperties.isEmpty() ? new String[0] : appProperties.split(","))
+            .initializers((ReactiveWebServerApplicationContext context) ->
+                context.registerBean("stubClientPools", ClientPools.class, () -> stubClientPools(context, azureSearch),
+                    definition -> definition.setPrimary(true)))
+            .run();
+    }
+
+    // The application's pools, except that Azure Search requests go to the stub instead of *.search.windows.net
+    private static ClientPools stubClientPools(ReactiveWebServerApplicationContext context, StubBackend azureSearch) {
+        Environment env = context.getEnvironment();
+        return new ClientPools(
+            env.getProperty("clients.max-connections", Integer.class, 100),
+            env.getProperty("clients.max-connections-per-route", Integer.class, 50),
+            env.getProperty("clients.connect-timeout", Duration.class, Duration.ofSeconds(5)),
+            env.getProperty("clients.response-timeout", Duration.class, Duration.ofSeconds(60)),
+            env.getProperty("clients.keep-alive", Duration.class, Duration.ofSeconds(30)),
+            env.getProperty("clients.io-threads", Integer.class, 0),
+            context.getBean(ReactorResourceFactory.class),
+            context.getBean(MeterRegistry.class)) {
+            @Override
+            public HttpPipelinePolicy azureTimeoutPolicy() {
+                HttpPipelinePolicy timeout = super.azureTimeoutPolicy();
+                return (ctx, next) -> {
+                    URL url = ctx.getHttpRequest().getUrl();
+                    if (url.getHost().endsWith(".search.windows.net")) {
+                        try {
+                            ctx.getHttpRequest().setUrl(new URL(azureSearch.endpoint() + url.getFile()));
+                        } catch (MalformedURLException e) {
+                            return Mono.error(e);
+                        }
+                    }
+                    return timeout.process(ctx, next);
+                };
+            }
+        };
+    }
+}
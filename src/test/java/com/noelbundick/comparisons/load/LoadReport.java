@@ -0,0 +1,199 @@
+package com.noelbundick.comparisons.load;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The outcome of one open-loop run: per endpoint, and for all traffic together
+ */
+public class LoadReport {
+    static final String ALL = "all";
+
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    @JsonProperty(value = "targetRate")
+    private final double targetRate;
+
+    @JsonProperty(value = "sentRate")
+    private final double sentRate;
+
+    @JsonProperty(value = "seconds")
+    private final double seconds;
+
+    @JsonProperty(value = "endpoints")
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    // Kept for the .hgrm files, which hold the full latency distribution
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    LoadReport(double targetRate, long sent, long elapsedNanos, Collection<EndpointStats> stats) {
+        this.targetRate = targetRate;
+        this.seconds = elapsedNanos / 1e9;
+        this.sentRate = sent / seconds;
+
+        Histogram all = new Histogram(3);
+        Map<String, Long> allStatuses = new LinkedHashMap<>();
+        long allErrors = 0;
+        for (EndpointStats endpoint : stats) {
+            Histogram latencies = endpoint.latencies().copy();
+            histograms.put(endpoint.name(), latencies);
+            endpoints.put(endpoint.name(), new Endpoint(latencies, endpoint.errors(), endpoint.statuses(), seconds));
+            all.add(latencies);
+            allErrors += endpoint.errors();
+            endpoint.statuses().forEach((status, count) -> allStatuses.merge(status, count, Long::sum));
+        }
+        histograms.put(ALL, all);
+        endpoints.put(ALL, new Endpoint(all, allErrors, allStatuses, seconds));
+    }
+
+    public Map<String, Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    public double sentRate() {
+        return sentRate;
+    }
+
+    Histogram histogram(String endpoint) {
+        return histograms.get(endpoint);
+    }
+
+    /**
+     * Reasons the run should fail a regression check, if any: too many errors, a p99 over budget, or a driver that
+     * couldn't send at the requested rate, which would make every other number meaningless
+     */
+    public List<String> check(double maxErrorRate, double maxP99Ms) {
+        List<String> failures = new ArrayList<>();
+        if (sentRate < targetRate * 0.95) {
+            failures.add(String.format(Locale.ROOT, "sent %.1f req/s of the %.1f asked for", sentRate, targetRate));
+        }
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            double errorRate = endpoint.requests == 0 ? 0 : (double) endpoint.errors / endpoint.requests;
+            if (errorRate > maxErrorRate) {
+                failures.add(String.format(Locale.ROOT, "%s: %.2f%% errors, more than %.2f%%",
+                    entry.getKey(), errorRate * 100, maxErrorRate * 100));
+            }
+            if (maxP99Ms > 0 && endpoint.p99Ms > maxP99Ms) {
+                failures.add(String.format(Locale.ROOT, "%s: p99 of %.1fms, more than %.1fms",
+                    entry.getKey(), endpoint.p99Ms, maxP99Ms));
+            }
+        }
+        return failures;
+    }
+
+    public void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%.1fs at %.1f req/s (asked for %.1f)%n", seconds, sentRate, targetRate);
+        out.printf(Locale.ROOT, "%-40s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+            "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint e = entry.getValue();
+            out.printf(Locale.ROOT, "%-40s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                entry.getKey(), e.requests, e.errors, e.throughput, e.p50Ms, e.p90Ms, e.p99Ms, e.p999Ms, e.maxMs);
+        }
+    }
+
+    /**
+     * Writes the report as JSON, and each endpoint's latency distribution as an HdrHistogram .hgrm file beside it
+     */
+    public void write(Path json) {
+        try {
+            Path directory = json.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(json.toFile(), this);
+
+            String prefix = json.getFileName().toString().replaceFirst("\\.json$", "");
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Path hgrm = directory.resolve(String.format("%s-%s.hgrm", prefix, entry.getKey().replaceAll("[^A-Za-z0-9.-]", "_")));
+                try (PrintStream out = new PrintStream(Files.newOutputStream(hgrm), false, "UTF-8")) {
+                    entry.getValue().outputPercentileDistribution(out, NANOS_PER_MS);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class Endpoint {
+        @JsonProperty(value = "requests")
+        private final long requests;
+
+        @JsonProperty(value = "errors")
+        private final long errors;
+
+        @JsonProperty(value = "throughput")
+        private final double throughput;
+
+        @JsonProperty(value = "p50Ms")
+        private final double p50Ms;
+
+        @JsonProperty(value = "p90Ms")
+        private final double p90Ms;
+
+        @JsonProperty(value = "p99Ms")
+        private final double p99Ms;
+
+        @JsonProperty(value = "p999Ms")
+        private final double p999Ms;
+
+        @JsonProperty(value = "maxMs")
+        private final double maxMs;
+
+        @JsonProperty(value = "statuses")
+        private final Map<String, Long> statuses;
+
+        Endpoint(Histogram latencies, long errors, Map<String, Long> statuses, double seconds) {
+            this.requests = latencies.getTotalCount();
+            this.errors = errors;
+            this.throughput = requests / seconds;
+            this.p50Ms = latencies.getValueAtPercentile(50) / NANOS_PER_MS;
+            this.p90Ms = latencies.getValueAtPercentile(90) / NANOS_PER_MS;
+            this.p99Ms = latencies.getValueAtPercentile(99) / NANOS_PER_MS;
+            this.p999Ms = latencies.getValueAtPercentile(99.9) / NANOS_PER_MS;
+            this.maxMs = latencies.getMaxValue() / NANOS_PER_MS;
+            this.statuses = statuses;
+        }
+
+        public long requests() {
+            return requests;
+        }
+
+        public long errors() {
+            return errors;
+        }
+
+        public double throughput() {
+            return throughput;
+        }
+
+        public double p50Ms() {
+            return p50Ms;
+        }
+
+        public double p99Ms() {
+            return p99Ms;
+        }
+
+        public double maxMs() {
+            return maxMs;
+        }
+
+        public Map<String, Long> statuses() {
+            return statuses;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.noelbundick.comparisons.load;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends traffic at a constant arrival rate, whether or not earlier requests have been answered.
+ * Each request has an intended send time of start + i / rate and its latency is measured from then, so time spent
+ * queued behind a slow server - or behind this driver falling behind - is counted rather than hidden, which is the
+ * coordinated omission a closed-loop client would make.
+ */
+public class OpenLoopDriver {
+    private final WebClient client;
+    private final Traffic traffic;
+    private final double rate;
+    private final Duration timeout;
+
+    public OpenLoopDriver(WebClient client, Traffic traffic, double rate, Duration timeout) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.client = client;
+        this.traffic = traffic;
+        this.rate = rate;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends rate * duration requests, then waits up to the request timeout for the last ones to be answered
+     */
+    public LoadReport run(Duration duration) {
+        Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        for (Traffic.Entry entry : traffic.entries()) {
+            stats.computeIfAbsent(entry.name(), EndpointStats::new);
+        }
+
+        long total = (long) (duration.toNanos() / 1e9 * rate);
+        CountDownLatch answered = new CountDownLatch((int) total);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + (long) (i * 1e9 / rate);
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Traffic.Entry entry = traffic.next();
+            send(entry, intended, stats.get(entry.name()), answered);
+        }
+        long sent = System.nanoTime() - start;
+
+        try {
+            answered.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new LoadReport(rate, total, Math.max(sent, duration.toNanos()), stats.values());
+    }
+
+    // Never blocks: the response is read on a Netty thread while this one schedules the next request
+    private void send(Traffic.Entry entry, long intended, EndpointStats stats, CountDownLatch answered) {
+        client.method(HttpMethod.valueOf(entry.method()))
+            .uri(entry.path())
+            .exchange()
+            .flatMap(res -> res.releaseBody().thenReturn(res.rawStatusCode()))
+            .timeout(timeout)
+            .subscribe(
+                status -> stats.record(System.nanoTime() - intended, status),
+                err -> {
+                    stats.recordFailure(System.nanoTime() - intended, err);
+                    answered.countDown();
+                },
+                answered::countDown);
+    }
+}
@@ -0,0 +1,96 @@
+package com.noelbundick.comparisons.load;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpenLoopDriverTests {
+    private static final long MS = 1_000_000;
+
+    private volatile long stallUntil;
+    private DisposableServer server;
+    private WebClient client;
+
+    @BeforeEach
+    public void setup() {
+        // /slow takes 100ms, /stall holds every request until stallUntil, /missing is a 404
+        server = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .route(routes -> routes
+                .get("/slow", (req, res) -> res.sendString(Mono.delay(Duration.ofMillis(100)).thenReturn("slow")))
+                .get("/stall", (req, res) -> res.sendString(
+                    Mono.delay(Duration.ofNanos(Math.max(0, stallUntil - System.nanoTime()))).thenReturn("stall")))
+                .get("/fast", (req, res) -> res.sendString(Mono.just("fast"))))
+            .bindNow();
+        client = WebClient.create(String.format("http://127.0.0.1:%d", server.port()));
+        // The first request loads and connects everything, which would put the driver behind schedule
+        client.get().uri("/fast").exchange().flatMap(res -> res.releaseBody()).block();
+    }
+
+    @AfterEach
+    public void teardown() {
+        server.disposeNow();
+    }
+
+    @Test
+    public void testSendsAtTheArrivalRateWhateverTheLatency() {
+        // A closed loop with one connection would manage 10 of these in a second
+        LoadReport report = new OpenLoopDriver(client, traffic(new Traffic.Entry().path("/slow")), 100, Duration.ofSeconds(5))
+            .run(Duration.ofSeconds(1));
+
+        LoadReport.Endpoint slow = report.endpoints().get("/slow");
+        assertEquals(100, slow.requests());
+        assertEquals(0, slow.errors());
+        assertTrue(report.sentRate() >= 95, "sent " + report.sentRate());
+        assertTrue(slow.p50Ms() >= 100);
+    }
+
+    @Test
+    public void testLatencyIncludesTimeQueuedBehindAStall() {
+        stallUntil = System.nanoTime() + 500 * MS;
+        LoadReport report = new OpenLoopDriver(client, traffic(new Traffic.Entry().path("/stall")), 200, Duration.ofSeconds(5))
+            .run(Duration.ofSeconds(1));
+
+        // Everything scheduled in the first 300ms waited at least 200ms, not just the first request
+        long queued = report.histogram("/stall").getCountBetweenValues(200 * MS, Long.MAX_VALUE);
+        assertTrue(queued >= 40, "only " + queued + " requests waited");
+        assertTrue(report.endpoints().get("/stall").maxMs() >= 400);
+    }
+
+    @Test
+    public void testTrafficIsMixedByWeightAndErrorsAreCounted() {
+        Traffic traffic = traffic(
+            new Traffic.Entry().name("fast").path("/fast").weight(3),
+            new Traffic.Entry().name("missing").path("/missing"));
+        LoadReport report = new OpenLoopDriver(client, traffic, 400, Duration.ofSeconds(5))
+            .run(Duration.ofSeconds(1));
+
+        LoadReport.Endpoint fast = report.endpoints().get("fast");
+        LoadReport.Endpoint missing = report.endpoints().get("missing");
+        assertEquals(400, fast.requests() + missing.requests());
+        assertEquals(300, fast.requests(), 30);
+        assertEquals(0, fast.errors());
+        assertEquals(missing.requests(), missing.errors());
+        assertEquals(missing.requests(), missing.statuses().get("404"));
+        assertEquals(400, report.endpoints().get(LoadReport.ALL).requests());
+
+        List<String> failures = report.check(0.01, 0);
+        assertTrue(failures.stream().anyMatch(failure -> failure.startsWith("missing: 100.00% errors")), failures.toString());
+        assertTrue(failures.stream().anyMatch(failure -> failure.startsWith("all:")), failures.toString());
+        assertTrue(failures.stream().noneMatch(failure -> failure.startsWith("fast:")), failures.toString());
+    }
+
+    private static Traffic traffic(Traffic.Entry... entries) {
+        return new Traffic(List.of(entries), 0);
+    }
+}
@@ -0,0 +1,139 @@
+package com.noelbundick.comparisons.load;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A weighted mix of requests, read from JSON lines such as
+ * {"name": "elasticsearch.search", "path": "/search/elasticsearch/search", "weight": 4}.
+ * method defaults to GET, weight to 1 and name to the path. Requests are picked at random by weight, from a fixed
+ * seed so every run sends the same sequence.
+ */
+public class Traffic {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<Entry> entries;
+    private final int[] cumulativeWeights;
+    private final SplittableRandom random;
+
+    public Traffic(List<Entry> entries, long seed) {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Traffic needs at least one request");
+        }
+        this.entries = entries;
+        this.cumulativeWeights = new int[entries.size()];
+        int total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).weight < 1) {
+                throw new IllegalArgumentException(String.format("%s needs a weight of at least 1", entries.get(i).name()));
+            }
+            total += entries.get(i).weight;
+            cumulativeWeights[i] = total;
+        }
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Reads a traffic file from the filesystem, or from the test classpath when no such file exists
+     */
+    public static Traffic read(String location, long seed) {
+        Path path = Paths.get(location);
+        try (InputStream in = Files.exists(path) ? Files.newInputStream(path) : Traffic.class.getClassLoader().getResourceAsStream(location)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No traffic file named " + location);
+            }
+            return new Traffic(parse(in), seed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<Entry> parse(InputStream in) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) {
+                entries.add(mapper.readValue(line, Entry.class));
+            }
+        }
+        return entries;
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * The next request to send. Not thread-safe: one thread schedules all the traffic
+     */
+    public Entry next() {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = Arrays.binarySearch(cumulativeWeights, pick + 1);
+        return entries.get(i >= 0 ? i : -i - 1);
+    }
+
+    public static class Entry {
+        @JsonProperty(value = "name")
+        private String name;
+
+        @JsonProperty(value = "method")
+        private String method = "GET";
+
+        @JsonProperty(value = "path")
+        private String path;
+
+        @JsonProperty(value = "weight")
+        private int weight = 1;
+
+        public String name() {
+            return this.name != null ? this.name : this.path;
+        }
+
+        public Entry name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public String method() {
+            return this.method;
+        }
+
+        public Entry method(String method) {
+            this.method = method;
+            return this;
+        }
+
+        public String path() {
+            return this.path;
+        }
+
+        public Entry path(String path) {
+            this.path = path;
+            return this;
+        }
+
+        public int weight() {
+            return this.weight;
+        }
+
+        public Entry weight(int weight) {
+            this.weight = weight;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.search.ApiKeyCredentials;
+import com.azure.search.SearchIndexAsyncClient;
+import com.azure.search.SearchIndexClientBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AzureIndexBatcherTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, AtomicInteger> attemptsByKey = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    // When set, every request fails as a whole with this status
+    private volatile int batchStatus;
+
+    private DisposableServer server;
+    private SearchIndexAsyncClient indexClient;
+
+    @BeforeEach
+    public void setup() {
+        // Stand-in for the docs/search.index endpoint: every key ending in 7 is throttled on its first attempt
+        server = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .handle((req, res) -> req.receive().aggregate().asString()
+                .flatMap(body -> {
+                    requests.incrementAndGet();
+                    if (batchStatus != 0) {
+                        return res.status(batchStatus)
+                            .header("Content-Type", "application/json")
+                            .sendString(Mono.just("{\"error\":{\"code\":\"\",\"message\":\"Batch failed\"}}"))
+                            .then();
+                    }
+                    String response = indexResponse(body);
+                    int status = response.contains("\"status\":false") ? 207 : 200;
+                    return res.status(status)
+                        .header("Content-Type", "application/json")
+                        .sendString(Mono.just(response))
+                        .then();
+                }))
+            .bindNow();
+
+        indexClient = new SearchIndexClientBuilder()
+            .endpoint("https://stub.search.windows.net")
+            .indexName("hotels")
+            .credential(new ApiKeyCredentials("stub-key"))
+            .addPolicy((context, next) -> {
+                try {
+                    URL url = context.getHttpRequest().getUrl();
+                    context.getHttpRequest().setUrl(new URL("http", "127.0.0.1", server.port(), url.getFile()));
+                } catch (Exception e) {
+                    return Mono.error(e);
+                }
+                return next.process();
+            })
+            .buildAsyncClient();
+    }
+
+    @AfterEach
+    public void teardown() {
+        server.disposeNow();
+    }
+
+    @Test
+    public void testUploadsInServiceSizedBatches() {
+        BulkIndexingStats stats = new AzureIndexBatcher<AzureHotel>(indexClient, AzureHotel::hotelId)
+            .maxActions(100)
+            .concurrency(2)
+            .backoff(Duration.ofMillis(1))
+            .upload(hotels(250))
+            .block();
+
+        assertEquals(250, stats.documents());
+        assertEquals(0, stats.failed());
+        assertEquals(3, stats.batches());
+        assertEquals(250, attemptsByKey.size());
+    }
+
+    @Test
+    public void testResubmitsOnlyFailedKeys() {
+        BulkIndexingStats stats = new AzureIndexBatcher<AzureHotel>(indexClient, AzureHotel::hotelId)
+            .maxActions(50)
+            .backoff(Duration.ofMillis(1))
+            .upload(hotels(100))
+            .block();
+
+        assertEquals(100, stats.documents());
+        assertEquals(0, stats.failed());
+        // 2 batches, each followed by a retry of its throttled keys
+        assertEquals(4, requests.get());
+        attemptsByKey.forEach((key, attempts) ->
+            assertEquals(key.endsWith("7") ? 2 : 1, attempts.get(), "attempts for key " + key));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() {
+        BulkIndexingStats stats = new AzureIndexBatcher<AzureHotel>(indexClient, AzureHotel::hotelId)
+            .maxRetries(0)
+            .upload(hotels(20))
+            .block();
+
+        assertEquals(18, stats.documents());
+        assertEquals(2, stats.failed());
+    }
+
+    @Test
+    public void testDoesNotRetryABadBatch() {
+        batchStatus = 400;
+        HttpResponseException error = assertThrows(HttpResponseException.class, () ->
+            new AzureIndexBatcher<AzureHotel>(indexClient, AzureHotel::hotelId)
+                .backoff(Duration.ofMillis(1))
+                .upload(hotels(20))
+                .block());
+
+        assertEquals(400, error.getResponse().getStatusCode());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testRetriesAThrottledBatchWithinMaxRetries() {
+        batchStatus = 503;
+        HttpResponseException error = assertThrows(HttpResponseException.class, () ->
+            new AzureIndexBatcher<AzureHotel>(indexClient, AzureHotel::hotelId)
+                .maxRetries(2)
+                .backoff(Duration.ofMillis(1))
+                .upload(hotels(20))
+                .block());
+
+        assertEquals(503, error.getResponse().getStatusCode());
+        assertEquals(3, requests.get());
+    }
+
+    private Flux<AzureHotel> hotels(int count) {
+        return Flux.range(0, count).map(i -> new AzureHotel().hotelId(Integer.toString(i)));
+    }
+
+    private String indexResponse(String body) {
+        try {
+            ArrayNode results = mapper.createArrayNode();
+            for (JsonNode action : mapper.readTree(body).get("value")) {
+                String key = action.get("HotelId").asText();
+                int attempt = attemptsByKey.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+                boolean throttled = key.endsWith("7") && attempt == 1;
+
+                ObjectNode result = results.addObject()
+                    .put("key", key)
+                    .put("status", !throttled)
+                    .put("statusCode", throttled ? 503 : 201);
+                if (throttled) {
+                    result.put("errorMessage", "Service unavailable");
+                }
+            }
+            return mapper.createObjectNode().set("value", results).toString();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
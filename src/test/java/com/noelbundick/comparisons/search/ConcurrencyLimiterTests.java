@@ -0,0 +1,83 @@
+package com.noelbundick.comparisons.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimiterTests {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testRejectsOverTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 1.5);
+
+        ConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+        assertEquals(1, limiter.rejected());
+        assertEquals(2, limiter.inflight());
+
+        // Releasing twice only gives back one slot
+        first.release();
+        first.release(10 * MS);
+        assertEquals(1, limiter.inflight());
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testGrowsWhileLatencyHoldsAndShrinksAsItRises() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 100, 1.5);
+
+        saturate(limiter, 10 * MS, 20);
+        int grown = limiter.limit();
+        assertTrue(grown > 10, "limit " + grown);
+        assertTrue(grown <= 100);
+
+        // Three times slower than usual. Kept up, this becomes the new usual over LONG_WINDOW requests
+        saturate(limiter, 30 * MS, 1);
+        int shrunk = limiter.limit();
+        assertTrue(shrunk < grown / 2, grown + " to " + shrunk);
+
+        // However slow it gets, the limit stays at least the minimum
+        saturate(limiter, 10_000 * MS, 50);
+        assertTrue(limiter.limit() >= 2);
+        assertEquals(0, limiter.inflight());
+        assertEquals(0, limiter.rejected());
+    }
+
+    @Test
+    public void testAnIdleBackendKeepsItsLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100, 1.5);
+
+        // One request at a time can't show whether 20 is too many or too few
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire().release((i % 2 == 0 ? 10 : 1000) * MS);
+        }
+        assertEquals(20, limiter.limit());
+        assertTrue(limiter.stats().shortRttMs() > limiter.stats().longRttMs());
+    }
+
+    @Test
+    public void testRejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(0, 0, 10, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(20, 1, 10, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(5, 1, 10, 0.5));
+    }
+
+    // Fill every slot, then release them all with the same latency, a number of times over
+    private static void saturate(ConcurrencyLimiter limiter, long rttNanos, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            ConcurrencyLimiter.Permit permit;
+            while (permits.size() < limiter.limit() && (permit = limiter.tryAcquire()) != null) {
+                permits.add(permit);
+            }
+            permits.forEach(held -> held.release(rttNanos));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.stub.StubBackend;
+import io.netty.handler.codec.http.HttpMethod;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElasticsearchBulkIndexerTests {
+    private static final int MAX_RETRIES = 3;
+
+    @Test
+    public void testBadRequestIsNotRetried() throws IOException {
+        try (StubBackend elasticsearch = new StubBackend()
+            .on(HttpMethod.POST, "/_bulk", null, 400, "elasticsearch/bad-request.json")
+            .start();
+             RestHighLevelClient client = client(elasticsearch)) {
+            ElasticsearchStatusException error = assertThrows(ElasticsearchStatusException.class,
+                () -> indexer(client).index(requests(10)).block());
+
+            assertEquals(RestStatus.BAD_REQUEST, error.status());
+            assertEquals(1, elasticsearch.requests().size());
+        }
+    }
+
+    @Test
+    public void testUnavailableIsRetriedWithinTheBudget() throws IOException {
+        try (StubBackend elasticsearch = new StubBackend()
+            .on(HttpMethod.POST, "/_bulk", null, 503, "elasticsearch/unavailable.json")
+            .start();
+             RestHighLevelClient client = client(elasticsearch)) {
+            ElasticsearchStatusException error = assertThrows(ElasticsearchStatusException.class,
+                () -> indexer(client).index(requests(10)).block());
+
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, error.status());
+            assertEquals(MAX_RETRIES + 1, elasticsearch.requests().size());
+        }
+    }
+
+    private static ElasticsearchBulkIndexer indexer(RestHighLevelClient client) {
+        return new ElasticsearchBulkIndexer(client)
+            .maxRetries(MAX_RETRIES)
+            .backoff(Duration.ofMillis(1));
+    }
+
+    private static RestHighLevelClient client(StubBackend elasticsearch) {
+        return new RestHighLevelClient(RestClient.builder(HttpHost.create(elasticsearch.endpoint())));
+    }
+
+    private static Flux<IndexRequest> requests(int count) {
+        return Flux.range(0, count)
+            .map(i -> new IndexRequest("hotels").id(Integer.toString(i)).source("{}", XContentType.JSON));
+    }
+}
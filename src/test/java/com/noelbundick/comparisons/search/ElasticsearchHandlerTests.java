@@ -0,0 +1,142 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.stub.StubBackend;
+import com.noelbundick.comparisons.web.BufferedResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElasticsearchHandlerTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Never connects - only used for decoding
+    private final ElasticsearchHandler handler = new ElasticsearchHandler("http://127.0.0.1:9200");
+
+    @Test
+    public void testParallelDecodingKeepsHitOrder() {
+        HotelGenerator generator = new HotelGenerator(HotelGenerator.DEFAULT_SEED);
+        SearchHit[] hits = new SearchHit[1000];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = hit(generator.elasticsearchHotel(i));
+        }
+
+        List<ElasticsearchHotel> sequential = handler.decodeHits(hits, false).block();
+        List<ElasticsearchHotel> parallel = handler.decodeHits(hits, true).block();
+
+        assertEquals(hits.length, parallel.size());
+        for (int i = 0; i < hits.length; i++) {
+            assertEquals(Integer.toString(i), parallel.get(i).hotelId());
+            assertEquals(mapper.convertValue(sequential.get(i), Map.class), mapper.convertValue(parallel.get(i), Map.class));
+        }
+    }
+
+    @Test
+    public void testDecodesFilteredAndMissingSource() {
+        SearchHit filtered = new SearchHit(0, "7", null, Collections.emptyMap())
+            .sourceRef(new BytesArray("{\"HotelName\":\"Filtered\"}"));
+        SearchHit empty = new SearchHit(1, "8", null, Collections.emptyMap());
+
+        List<ElasticsearchHotel> hotels = handler.decodeHits(new SearchHit[]{filtered, empty}, false).block();
+
+        assertEquals("Filtered", hotels.get(0).hotelName());
+        assertNull(hotels.get(0).address());
+        assertEquals("8", hotels.get(1).hotelId());
+    }
+
+    @Test
+    public void testUnknownAckIsABadRequest() {
+        // Never connects - the ack is checked first
+        ElasticsearchHandler handler = new ElasticsearchHandler("http://127.0.0.1:9200")
+            .batchIndexing(10, Duration.ofSeconds(1), MicroBatcher.Ack.FLUSHED, 100);
+
+        BufferedResponse response = handler.indexing(MockServerRequest.builder().queryParam("ack", "eventually").build())
+            .flatMap(BufferedResponse::from)
+            .block();
+        assertEquals(400, response.status());
+        assertEquals("Unknown ack eventually, expected queued or flushed", response.body());
+        assertEquals(0, handler.indexBatcherStats().items());
+    }
+
+    @Test
+    public void testMaintenanceWaitsForATurnOnTheLane() {
+        try (StubBackend elasticsearch = StubBackend.elasticsearch()) {
+            MaintenanceLane lane = new MaintenanceLane("elasticsearch-maintenance", 1, 1, 4);
+            ElasticsearchHandler handler = new ElasticsearchHandler(elasticsearch.endpoint())
+                .maintenanceLane(lane, RestClient.builder(HttpHost.create(elasticsearch.endpoint())));
+            MonoProcessor<ServerResponse> blocker = MonoProcessor.create();
+            MonoProcessor<ServerResponse> running = lane.submit(blocker).toProcessor();
+
+            MonoProcessor<ServerResponse> queued = handler.bulkIndexing(MockServerRequest.builder().queryParam("count", "10").build()).toProcessor();
+            assertEquals(1, lane.stats().queued());
+            assertEquals(503, handler.bulkIndexing(MockServerRequest.builder().build()).block().rawStatusCode());
+
+            blocker.onComplete();
+            assertEquals(200, queued.block().rawStatusCode());
+            assertTrue(running.isSuccess());
+            assertEquals(2, lane.stats().completed());
+        }
+    }
+
+    @Test
+    public void testResetLoadsANewIndexThenSwapsTheAliasOntoIt() {
+        try (StubBackend elasticsearch = StubBackend.elasticsearch()
+            .on(HttpMethod.PUT, "/hotels-", null, 200, "elasticsearch/create-index.json")
+            .on(HttpMethod.POST, "/_refresh", null, 200, "elasticsearch/refresh.json")
+            .on(HttpMethod.GET, "/hotels", null, 200, "elasticsearch/get-index.json")
+            .on(HttpMethod.POST, "/_aliases", null, 200, "elasticsearch/acknowledged.json")
+            .on(HttpMethod.DELETE, "/hotels-", null, 200, "elasticsearch/acknowledged.json")) {
+            ElasticsearchHandler handler = new ElasticsearchHandler(elasticsearch.endpoint());
+
+            BufferedResponse response = handler.reset(MockServerRequest.builder()
+                .queryParam("source", "synthetic")
+                .queryParam("count", "10")
+                .build()).flatMap(BufferedResponse::from).block();
+            assertEquals(200, response.status());
+            IndexSwap swap = (IndexSwap) response.body();
+            String index = swap.index();
+            assertTrue(index.startsWith("hotels-"), index);
+            assertTrue(swap.swapped());
+            assertEquals(Collections.singletonList("hotels-20191101120000000"), swap.replaced());
+            assertEquals(10, swap.load().documents());
+
+            // Nothing touches the old index until the new one is loaded, refreshed and in its place
+            List<String> calls = elasticsearch.requests().stream()
+                .map(call -> call.substring(0, call.indexOf(' ', call.indexOf(' ') + 1)).replaceFirst("\\?.*", ""))
+                .collect(Collectors.toList());
+            assertEquals(Arrays.asList(
+                "PUT /" + index,
+                "POST /_bulk",
+                "POST /" + index + "/_refresh",
+                "GET /hotels",
+                "POST /_aliases",
+                "DELETE /hotels-20191101120000000"), calls);
+
+            // in one atomic step
+            String aliases = elasticsearch.requests().get(4);
+            assertTrue(aliases.contains("\"add\":{\"indices\":[\"" + index + "\"]"), aliases);
+            assertTrue(aliases.contains("\"remove\":{\"indices\":[\"hotels-20191101120000000\"]"), aliases);
+        }
+    }
+
+    private SearchHit hit(ElasticsearchHotel hotel) {
+        return new SearchHit(Integer.parseInt(hotel.hotelId()), hotel.hotelId(), null, Collections.emptyMap())
+            .sourceRef(new BytesArray(handler.serializeToBytes(hotel)));
+    }
+}
@@ -0,0 +1,97 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelRoom;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FacetIndexTests {
+    private final HotelGenerator generator = new HotelGenerator(HotelGenerator.DEFAULT_SEED);
+
+    @Test
+    public void testCountsMatchTheHotels() {
+        FacetIndex index = new FacetIndex();
+        List<ElasticsearchHotel> hotels = generator.elasticsearchHotels(3000).collectList().block();
+        hotels.forEach(index::put);
+
+        assertEquals(3000, index.size());
+        assertEquals(Collections.emptyList(), FacetIndex.differences(expectedCounts(hotels), index.counts().toMap(ElasticsearchHandler.FACETS)));
+    }
+
+    @Test
+    public void testPutReplacesAndRemoveForgets() {
+        FacetIndex index = new FacetIndex();
+        List<ElasticsearchHotel> hotels = generator.elasticsearchHotels(100).collectList().block();
+        hotels.forEach(index::put);
+
+        ElasticsearchHotel changed = generator.elasticsearchHotel(0).category("Motel").rating(null);
+        index.put(changed);
+        hotels.set(0, changed);
+        index.remove(hotels.get(1).hotelId());
+        ElasticsearchHotel removed = hotels.remove(1);
+
+        assertEquals(99, index.size());
+        assertEquals(1, index.counts().category("Motel"));
+        assertEquals(Collections.emptyList(), FacetIndex.differences(expectedCounts(hotels), index.counts().toMap(ElasticsearchHandler.FACETS)));
+
+        index.put(removed);
+        assertEquals(100, index.size());
+
+        index.markStale();
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.isStale());
+        assertEquals(0, index.counts().parkingIncluded(true));
+    }
+
+    @Test
+    public void testSampleDataMatchesBackendShape() {
+        FacetIndex index = new FacetIndex();
+        HotelDataset.of(HotelDataset.AZURE)
+            .documents((id, source, offset, length) -> JsonCodec.shared().decode(source, offset, length, AzureHotel.class))
+            .doOnNext(index::put)
+            .blockLast();
+
+        Map<String, Object> check = FacetSource.check(new HashMap<>(), index.counts().toMap(AzureSearchHandler.FACETS));
+        assertEquals(false, check.get("consistent"));
+        assertTrue(((List<?>) check.get("differences")).contains("Rooms/SmokingAllowed/true: null != " + index.counts().roomsSmokingAllowed(true)));
+
+        long rated = 0;
+        for (int rating = 1; rating <= 5; rating++) {
+            rated += index.counts().rating(rating);
+        }
+        assertEquals(index.size(), rated);
+    }
+
+    // The same counts built the obvious way, with a map per field
+    private static HashMap<String, HashMap<String, Long>> expectedCounts(List<ElasticsearchHotel> hotels) {
+        HashMap<String, HashMap<String, Long>> facets = new HashMap<>();
+        for (String field : ElasticsearchHandler.FACETS) {
+            facets.put(field, new HashMap<>());
+        }
+        for (ElasticsearchHotel hotel : hotels) {
+            increment(facets, FacetIndex.CATEGORY, hotel.category());
+            increment(facets, FacetIndex.RATING, hotel.rating() == null ? null : hotel.rating().toString());
+            increment(facets, FacetIndex.PARKING_INCLUDED, hotel.parkingIncluded() == null ? null : hotel.parkingIncluded().toString());
+            // A hotel counts once for each value any of its rooms has
+            hotel.rooms().stream()
+                .map(HotelRoom::smokingAllowed)
+                .distinct()
+                .forEach(smoking -> increment(facets, FacetIndex.ROOMS_SMOKING_ALLOWED, smoking.toString()));
+        }
+        return facets;
+    }
+
+    private static void increment(HashMap<String, HashMap<String, Long>> facets, int field, String value) {
+        if (value != null) {
+            facets.get(ElasticsearchHandler.FACETS[field]).merge(value, 1L, Long::sum);
+        }
+    }
+}
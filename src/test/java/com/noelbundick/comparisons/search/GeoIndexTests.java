@@ -0,0 +1,98 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.search.models.GeoPoint;
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeoIndexTests {
+    private final HotelGenerator generator = new HotelGenerator(HotelGenerator.DEFAULT_SEED);
+
+    @Test
+    public void testNearbyMatchesScanningEveryHotel() {
+        GeoIndex index = new GeoIndex();
+        List<ElasticsearchHotel> hotels = generator.elasticsearchHotels(5000).collectList().block();
+        hotels.forEach(index::put);
+
+        assertEquals(5000, index.size());
+        // Downtown, the edge of a city, between cities, and a radius wide enough to scan every cell
+        assertNearby(hotels, index, 47.6062, -122.3321, 10, 20);
+        assertNearby(hotels, index, 47.7, -122.2, 5, 50);
+        assertNearby(hotels, index, 44.0, -100.0, 500, 10);
+        assertNearby(hotels, index, 40.0, -90.0, 3000, 5000);
+    }
+
+    @Test
+    public void testPutMovesAndRemoveForgets() {
+        GeoIndex index = new GeoIndex();
+        index.put("near", "Near", 47.61, -122.33);
+        index.put("far", "Far", 45.50, -73.57);
+        index.put("moved", "Moved", 45.50, -73.57);
+        index.put("moved", "Moved", 47.62, -122.34);
+        index.put("removed", "Removed", 47.61, -122.33);
+        index.remove("removed");
+
+        List<String> ids = index.nearby(47.6062, -122.3321, 10, 10).stream().map(NearbyHotel::hotelId).collect(Collectors.toList());
+        assertEquals(List.of("near", "moved"), ids);
+        assertEquals(3, index.size());
+
+        index.put("removed", "Removed", 47.6062, -122.3321);
+        assertEquals("removed", index.nearby(47.6062, -122.3321, 10, 1).get(0).hotelId());
+
+        index.markStale();
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.isStale());
+        assertTrue(index.nearby(47.6062, -122.3321, 10, 10).isEmpty());
+    }
+
+    @Test
+    public void testNearbyCrossesTheAntimeridian() {
+        GeoIndex index = new GeoIndex();
+        index.put("west", "West", -17.0, 179.95);
+        index.put("east", "East", -17.0, -179.95);
+        index.put("farEast", "Far East", -17.0, -179.0);
+
+        List<NearbyHotel> nearby = index.nearby(-17.0, 179.99, 20, 10);
+        assertEquals(List.of("west", "east"), nearby.stream().map(NearbyHotel::hotelId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testAzureLocationsAreLongitudeFirst() {
+        GeoIndex index = new GeoIndex();
+        index.put(new AzureHotel().hotelId("1").hotelName("Seattle").location(GeoPoint.create(47.6062, -122.3321)));
+
+        NearbyHotel hotel = index.nearby(47.6062, -122.3321, 1, 1).get(0);
+        assertEquals("Seattle", hotel.hotelName());
+        assertEquals(0, hotel.distanceKm(), 1e-9);
+        // A degree of latitude, or of longitude at the equator
+        assertEquals(111.195, GeoIndex.distanceKm(10, 20, 11, 20), 0.001);
+        assertEquals(111.195, GeoIndex.distanceKm(0, 179.5, 0, -179.5), 0.001);
+    }
+
+    private static void assertNearby(List<ElasticsearchHotel> hotels, GeoIndex index, double lat, double lon, double distanceKm, int count) {
+        List<NearbyHotel> expected = new ArrayList<>();
+        for (ElasticsearchHotel hotel : hotels) {
+            double distance = GeoIndex.distanceKm(lat, lon, hotel.location().getLat(), hotel.location().getLon());
+            if (distance <= distanceKm) {
+                expected.add(new NearbyHotel().hotelId(hotel.hotelId()).distanceKm(distance));
+            }
+        }
+        expected.sort(Comparator.comparingDouble(NearbyHotel::distanceKm));
+
+        List<NearbyHotel> actual = index.nearby(lat, lon, distanceKm, count);
+        assertEquals(Math.min(count, expected.size()), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            // Ties within a meter may come back in either order
+            assertEquals(expected.get(i).distanceKm(), actual.get(i).distanceKm(), 0.001);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class HotelDatasetTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testKeepsEveryDocumentAsItWasStored() throws IOException {
+        for (String resource : List.of(HotelDataset.ELASTICSEARCH, HotelDataset.AZURE)) {
+            JsonNode original;
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream(resource)) {
+                original = mapper.readTree(in);
+            }
+
+            HotelDataset dataset = HotelDataset.load(resource);
+            assertEquals(original.size(), dataset.size());
+            for (int i = 0; i < dataset.size(); i++) {
+                assertEquals(original.get(i).get("HotelId").asText(), dataset.id(i));
+                assertEquals(original.get(i), mapper.readTree(dataset.bytes(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testDocumentsShareTheArena() {
+        HotelDataset dataset = HotelDataset.of(HotelDataset.ELASTICSEARCH);
+
+        List<byte[]> sources = dataset.documents((id, source, offset, length) -> source).collectList().block();
+
+        assertEquals(dataset.size(), sources.size());
+        assertSame(sources.get(0), sources.get(sources.size() - 1));
+        assertSame(dataset, HotelDataset.of(HotelDataset.ELASTICSEARCH));
+    }
+}
@@ -0,0 +1,54 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelRoom;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotelGeneratorTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSameSeedGeneratesSameHotels() {
+        List<JsonNode> first = new HotelGenerator(7).elasticsearchHotels(100).map(mapper::valueToTree).cast(JsonNode.class).collectList().block();
+        List<JsonNode> second = new HotelGenerator(7).elasticsearchHotels(100).map(mapper::valueToTree).cast(JsonNode.class).collectList().block();
+        List<JsonNode> other = new HotelGenerator(8).elasticsearchHotels(100).map(mapper::valueToTree).cast(JsonNode.class).collectList().block();
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    public void testHotelsCanBeGeneratedOnTheirOwn() {
+        HotelGenerator generator = new HotelGenerator(HotelGenerator.DEFAULT_SEED);
+
+        ElasticsearchHotel streamed = generator.elasticsearchHotels(1000).elementAt(999).block();
+
+        JsonNode alone = mapper.valueToTree(generator.elasticsearchHotel(999));
+        assertEquals(alone, mapper.valueToTree(streamed));
+        assertEquals(mapper.valueToTree(generator.azureHotel(999)).get("Rooms"), alone.get("Rooms"));
+    }
+
+    @Test
+    public void testHotelsArePopulated() {
+        ElasticsearchHotel hotel = new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotel(12345);
+
+        assertEquals("12345", hotel.hotelId());
+        assertNotNull(hotel.hotelName());
+        assertNotNull(hotel.descriptionFr());
+        assertFalse(hotel.tags().isEmpty());
+        assertTrue(hotel.rating() >= 1 && hotel.rating() <= 5);
+        assertTrue(Math.abs(hotel.location().getLat()) <= 90);
+        assertNotNull(hotel.address().postalCode());
+        assertFalse(hotel.rooms().isEmpty());
+        for (HotelRoom room : hotel.rooms()) {
+            assertTrue(room.baseRate() > 0);
+            assertFalse(room.tags().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelAddress;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvertedIndexTests {
+
+    @Test
+    public void testRanksWithBm25() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(hotel("long", "Seattle hotel with a pool, a bar, a restaurant, a spa and a view of the sound"));
+        index.put(hotel("short", "Seattle hotel"));
+        index.put(hotel("twice", "Seattle hotel in Seattle with a pool, a bar, a restaurant and a view"));
+        index.put(hotel("other", "Boston hotel"));
+
+        InvertedIndex.Hits hits = index.search("seattle", 10, null);
+        assertEquals(3, hits.total());
+        // Seattle is also each hotel's city: a short text beats two mentions in a longer one
+        assertEquals(List.of("short", "twice", "long"), ids(hits));
+        assertEquals(hits.hits().get(0).score(), hits.maxScore());
+
+        // The rarer term counts for more
+        assertEquals("other", index.search("Boston HOTEL", 10, null).hits().get(0).id());
+
+        // BM25 by hand for the one hotel matching "boston": 4 hotels, 1 with the term, which it has twice in 3 terms
+        // against an average length of 39 / 4
+        float idf = (float) Math.log(1 + (4 - 1 + 0.5) / (1 + 0.5));
+        float expected = idf * 2 / (2 + InvertedIndex.K1 * (1 - InvertedIndex.B + InvertedIndex.B * 3 / (39 / 4f)));
+        assertEquals(expected, index.search("boston", 1, null).maxScore(), 1e-5);
+    }
+
+    @Test
+    public void testScoresIgnoreRetiredRows() {
+        List<ElasticsearchHotel> hotels = new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotels(100).collectList().block();
+        InvertedIndex fresh = new InvertedIndex();
+        fresh.putAll(hotels);
+        // Indexed twice, with the first copies retired but too few to be compacted away yet
+        InvertedIndex reindexed = new InvertedIndex();
+        reindexed.putAll(hotels);
+        reindexed.putAll(hotels);
+
+        InvertedIndex.Hits expected = fresh.search("pool view", 100, null);
+        InvertedIndex.Hits actual = reindexed.search("pool view", 100, null);
+        assertEquals(ids(expected), ids(actual));
+        for (int i = 0; i < expected.hits().size(); i++) {
+            assertEquals(expected.hits().get(i).score(), actual.hits().get(i).score());
+        }
+    }
+
+    @Test
+    public void testPutReplacesAndRemoveForgets() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(hotel("1", "Seattle"));
+        index.put(hotel("1", "Portland"));
+        index.put(hotel("2", "Seattle"));
+        index.remove("2");
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.search("seattle", 10, null).total());
+        assertEquals(List.of("1"), ids(index.search("portland", 10, null)));
+        assertEquals("Portland", index.get("1").address().city());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get("1"));
+    }
+
+    @Test
+    public void testPagesAfterTheLastHitMatchOnePage() {
+        InvertedIndex index = new InvertedIndex();
+        List<ElasticsearchHotel> hotels = new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotels(3000).collectList().block();
+        index.putAll(hotels);
+        // Replace them all twice, which retires enough rows to compact them away
+        index.putAll(hotels);
+        index.putAll(hotels);
+
+        InvertedIndex.Hits all = index.search("pool view", 10000, null);
+        assertEquals(3000, index.size());
+        assertTrue(all.total() > 100);
+
+        List<String> paged = new ArrayList<>();
+        InvertedIndex.Hit after = null;
+        while (true) {
+            List<InvertedIndex.Hit> page = index.search("pool view", 7, after).hits();
+            page.forEach(hit -> paged.add(hit.id()));
+            if (page.size() < 7) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(ids(all), paged);
+        assertEquals(all.total(), paged.size());
+    }
+
+    @Test
+    public void testPagingSurvivesACompaction() {
+        InvertedIndex index = new InvertedIndex();
+        List<ElasticsearchHotel> hotels = new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotels(3000).collectList().block();
+        index.putAll(hotels);
+        index.putAll(hotels);
+        InvertedIndex.Hits all = index.search("pool view", 10000, null);
+
+        List<String> paged = new ArrayList<>();
+        List<InvertedIndex.Hit> page = index.search("pool view", 50, null).hits();
+        page.forEach(hit -> paged.add(hit.id()));
+
+        // One more retired row tips it over into compacting, which renumbers every row
+        index.put(hotel("extra", "Nowhere"));
+        index.remove("extra");
+
+        InvertedIndex.Hit after = page.get(page.size() - 1);
+        while (true) {
+            page = index.search("pool view", 50, after).hits();
+            page.forEach(hit -> paged.add(hit.id()));
+            if (page.size() < 50) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(ids(all), paged);
+    }
+
+    @Test
+    public void testTokenizesOnAnythingButLettersAndDigits() {
+        assertEquals(List.of("24", "hour", "front", "desk", "hôtel", "emblématique"),
+            InvertedIndex.tokenize("24-hour Front-desk, Hôtel emblématique!"));
+        assertThrows(IllegalArgumentException.class, () -> new InvertedIndex().put(new ElasticsearchHotel()));
+    }
+
+    private static ElasticsearchHotel hotel(String id, String description) {
+        return new ElasticsearchHotel()
+            .hotelId(id)
+            .description(description)
+            .address(new HotelAddress().city(description.split(" ")[0]));
+    }
+
+    private static List<String> ids(InvertedIndex.Hits hits) {
+        return hits.hits().stream().map(InvertedIndex.Hit::id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,60 @@
+package com.noelbundick.comparisons.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonCodecTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testDecodesSearchResultsFromResponseBytes() throws IOException {
+        byte[] response = readRecording("azure/search.json");
+
+        for (JsonCodec codec : List.of(new JsonCodec(false), new JsonCodec(true))) {
+            List<AzureHotel> hotels = codec.decodeArray(response, "value", AzureHotel.class);
+
+            assertEquals(mapper.readTree(response).get("value").size(), hotels.size());
+            AzureHotel hotel = hotels.get(0);
+            assertEquals("24", hotel.hotelId());
+            assertEquals("Seattle", hotel.address().city());
+            assertEquals(47.612839, hotel.location().getCoordinates().get(1));
+            assertFalse(hotel.rooms().isEmpty());
+            assertNotNull(hotel.lastRenovationDate());
+        }
+    }
+
+    @Test
+    public void testRoundTripsGeneratedHotels() {
+        JsonCodec codec = new JsonCodec(true);
+        ElasticsearchHotel hotel = new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotel(1);
+
+        byte[] json = codec.encode(hotel);
+        ElasticsearchHotel decoded = codec.decode(json, 0, json.length, ElasticsearchHotel.class);
+
+        assertEquals(mapper.convertValue(hotel, Map.class), mapper.convertValue(decoded, Map.class));
+        assertEquals(hotel.location().getLat(), decoded.location().getLat());
+    }
+
+    @Test
+    public void testReusesReadersAndWriters() {
+        JsonCodec codec = JsonCodec.shared();
+
+        assertSame(codec.reader(AzureHotel.class), codec.reader(AzureHotel.class));
+        assertSame(codec.writer(AzureHotel.class), codec.writer(AzureHotel.class));
+    }
+
+    private static byte[] readRecording(String name) throws IOException {
+        try (InputStream in = JsonCodecTests.class.getClassLoader().getResourceAsStream("recordings/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.web.BufferedResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+public class LimitingSearchHandlerTests {
+    private final ServerRequest request = MockServerRequest.builder().build();
+    private final MonoProcessor<Void> gate = MonoProcessor.create();
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1.5);
+
+    // Searches wait for the gate to open, searching nearby throws before it returns and indexManagement returns null
+    private final LimitingSearchHandler handler = new LimitingSearchHandler(new LocalSearchHandler() {
+        @Override
+        public Mono<ServerResponse> search(ServerRequest request) {
+            return gate.then(super.search(request));
+        }
+
+        @Override
+        public Mono<ServerResponse> searchNearby(ServerRequest request) {
+            return ok().bodyValue(Double.parseDouble("x"));
+        }
+
+        @Override
+        public Mono<ServerResponse> indexManagement(ServerRequest request) {
+            return null;
+        }
+    }, "local", limiter);
+
+    @Test
+    public void testShedsLoadOverTheLimit() {
+        MonoProcessor<ServerResponse> first = handler.search(request).toProcessor();
+        assertEquals(1, limiter.inflight());
+
+        // Every operation shares the one bulkhead
+        ServerResponse shed = handler.count(request).block();
+        assertEquals(503, shed.rawStatusCode());
+        assertEquals("1", shed.headers().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, limiter.rejected());
+
+        // The slot is held until the response has been written, or here buffered
+        gate.onComplete();
+        assertEquals(200, first.peek().rawStatusCode());
+        assertEquals(1, limiter.inflight());
+        BufferedResponse.from(first.peek()).block();
+        assertEquals(0, limiter.inflight());
+        assertTrue(limiter.stats().longRttMs() > 0);
+
+        // Then there's room again, until this response is written in turn
+        assertEquals(200, handler.count(request).block().rawStatusCode());
+        assertEquals(1, limiter.inflight());
+    }
+
+    @Test
+    public void testCancellingGivesTheSlotBack() {
+        Disposable waiting = handler.search(request).subscribe();
+        assertEquals(1, limiter.inflight());
+
+        waiting.dispose();
+        assertEquals(0, limiter.inflight());
+        // Nothing was answered, so there's no latency to learn from
+        assertEquals(0, limiter.stats().longRttMs());
+    }
+
+    @Test
+    public void testHandlerThatFailsToAssembleGivesTheSlotBack() {
+        assertThrows(NumberFormatException.class, () -> handler.searchNearby(request).block());
+        assertEquals(0, limiter.inflight());
+
+        assertThrows(NullPointerException.class, () -> handler.indexManagement(request).block());
+        assertEquals(0, limiter.inflight());
+    }
+}
@@ -0,0 +1,123 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.search.models.NearbyHotel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+public class LocalSearchHandlerTests {
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        LocalSearchHandler handler = new LocalSearchHandler();
+        webTestClient = WebTestClient.bindToRouterFunction(route()
+            .path("search/local", builder -> builder
+                .GET("errorHandling", handler::errorHandling)
+                .GET("indexing", handler::indexing)
+                .GET("bulkIndexing", handler::bulkIndexing)
+                .GET("clear", handler::clear)
+                .GET("count", handler::count)
+                .GET("search", handler::search)
+                .GET("searchWithPaging", handler::searchWithPaging)
+                .GET("searchWithFacets", handler::searchWithFacets)
+                .GET("searchWithCustomTypes", handler::searchWithCustomTypes)
+                .GET("searchNearby", handler::searchNearby)
+                .GET("indexManagement", handler::indexManagement)
+                .GET("reset", handler::reset))
+            .build()
+        ).build();
+    }
+
+    @Test
+    public void testResetIndexesTheSampleData() {
+        webTestClient.get().uri("/search/local/reset").exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).value(body -> assertTrue(body.startsWith("reset docs: ")));
+        long count = count();
+        assertTrue(count > 0);
+        assertEquals(String.format("reset docs: %d", count),
+            webTestClient.get().uri("/search/local/reset").exchange().expectBody(String.class).returnResult().getResponseBody());
+
+        webTestClient.get().uri("/search/local/search").exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.hits").isNotEmpty()
+            .jsonPath("$.hits[0].source.HotelId").isNotEmpty();
+    }
+
+    @Test
+    public void testBulkIndexingThenPaging() {
+        webTestClient.get().uri("/search/local/bulkIndexing?source=synthetic&count=2000&batchSize=300").exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.documents").isEqualTo(2000)
+            .jsonPath("$.batches").isEqualTo(7);
+        assertEquals(2000, count());
+
+        Map hits = webTestClient.get().uri("/search/local/search?q=pool").exchange()
+            .expectBody(Map.class).returnResult().getResponseBody();
+        long total = ((Number) hits.get("total")).longValue();
+        List<Map> paged = webTestClient.get().uri("/search/local/searchWithPaging?q=pool&size=50")
+            .accept(MediaType.APPLICATION_STREAM_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBodyList(Map.class).returnResult().getResponseBody();
+        assertEquals(total, paged.size());
+
+        webTestClient.get().uri("/search/local/searchWithPaging?q=pool&size=50&limit=120")
+            .accept(MediaType.APPLICATION_STREAM_JSON)
+            .exchange()
+            .expectBodyList(Map.class).hasSize(120);
+
+        webTestClient.get().uri("/search/local/clear").exchange().expectStatus().isOk();
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void testFacetsNearbyAndCustomTypesComeFromTheSameHotels() {
+        webTestClient.get().uri("/search/local/reset?source=synthetic&count=500").exchange().expectStatus().isOk();
+        webTestClient.get().uri("/search/local/indexing").exchange().expectStatus().isOk();
+        assertEquals(501, count());
+
+        webTestClient.get().uri("/search/local/searchWithFacets?source=check").exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.consistent").isEqualTo(true)
+            .jsonPath("$.local.Rating").isNotEmpty();
+
+        List<NearbyHotel> nearby = webTestClient.get().uri("/search/local/searchNearby?distance=50&size=5").exchange()
+            .expectStatus().isOk()
+            .expectBodyList(NearbyHotel.class).returnResult().getResponseBody();
+        assertEquals(5, nearby.size());
+        assertTrue(nearby.get(0).distanceKm() <= nearby.get(4).distanceKm());
+
+        webTestClient.get().uri("/search/local/searchWithCustomTypes?q=pool&fields=HotelId,HotelName&size=3").exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[0].HotelName").isNotEmpty()
+            .jsonPath("$[0].Category").doesNotExist();
+    }
+
+    @Test
+    public void testErrorsAreHandled() {
+        webTestClient.get().uri("/search/local/errorHandling").exchange()
+            .expectStatus().is5xxServerError()
+            .expectBody(String.class).value(body -> assertTrue(body.contains("HotelId")));
+        webTestClient.get().uri("/search/local/indexManagement").exchange().expectStatus().isOk();
+    }
+
+    private long count() {
+        return webTestClient.get().uri("/search/local/count").exchange()
+            .expectStatus().isOk()
+            .expectBody(Long.class).returnResult().getResponseBody();
+    }
+}
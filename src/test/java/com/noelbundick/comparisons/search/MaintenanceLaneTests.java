@@ -0,0 +1,79 @@
+package com.noelbundick.comparisons.search;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MaintenanceLaneTests {
+
+    @Test
+    public void testQueuesThenRejects() {
+        MaintenanceLane lane = new MaintenanceLane("test", 1, 1, 4, Schedulers.immediate());
+        MonoProcessor<String> first = MonoProcessor.create();
+        AtomicBoolean secondStarted = new AtomicBoolean();
+
+        MonoProcessor<String> running = lane.submit(first).toProcessor();
+        MonoProcessor<String> queued = lane.submit(Mono.fromSupplier(() -> {
+            secondStarted.set(true);
+            return "second";
+        })).toProcessor();
+        assertEquals(1, lane.stats().running());
+        assertEquals(1, lane.stats().queued());
+        assertFalse(secondStarted.get());
+
+        MonoProcessor<String> rejected = lane.submit(Mono.just("third")).toProcessor();
+        assertTrue(rejected.getError() instanceof RejectedExecutionException);
+        assertEquals(1, lane.stats().rejected());
+
+        // Finishing one operation hands its turn to the next
+        first.onNext("first");
+        assertEquals("first", running.peek());
+        assertEquals("second", queued.peek());
+        assertEquals(0, lane.stats().running());
+        assertEquals(0, lane.stats().queued());
+        assertEquals(2, lane.stats().completed());
+    }
+
+    @Test
+    public void testCancelledOperationsGiveUpTheirPlace() {
+        MaintenanceLane lane = new MaintenanceLane("test", 1, 1, 4, Schedulers.immediate());
+
+        Disposable running = lane.submit(Mono.never()).subscribe();
+        Disposable queued = lane.submit(Mono.never()).subscribe();
+        queued.dispose();
+        assertEquals(0, lane.stats().queued());
+
+        running.dispose();
+        assertEquals(0, lane.stats().running());
+        assertEquals("free", lane.submit(Mono.just("free")).block());
+    }
+
+    @Test
+    public void testRunsOnItsOwnThreads() {
+        MaintenanceLane lane = new MaintenanceLane("maintenance-test", 2, 1, 8);
+
+        String thread = lane.submit(Mono.fromSupplier(() -> Thread.currentThread().getName())).block();
+        assertTrue(thread.startsWith("maintenance-test"), thread);
+
+        // Documents are produced there too, whoever asks for them
+        String producer = lane.produce(Flux.defer(() -> Flux.just(Thread.currentThread().getName()))).blockFirst();
+        assertTrue(producer.startsWith("maintenance-test"), producer);
+    }
+
+    @Test
+    public void testSharesConnectionsBetweenOperations() {
+        MaintenanceLane lane = new MaintenanceLane("test", 2, 1, 8, Schedulers.immediate());
+
+        assertEquals(4, lane.concurrency(10));
+        assertEquals(2, lane.concurrency(2));
+        assertEquals(1, new MaintenanceLane("test", 4, 1, 2, Schedulers.immediate()).concurrency(4));
+    }
+}
@@ -0,0 +1,112 @@
+package com.noelbundick.comparisons.search;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MicroBatcherTests {
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final List<List<Integer>> flushed = new ArrayList<>();
+
+    // Echoes each item back as its result
+    private Mono<List<String>> flush(List<Integer> items) {
+        flushed.add(items);
+        return Mono.just(items.stream().map(i -> "result " + i).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testFlushesWhenFull() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::flush, 3, Duration.ofSeconds(1), MicroBatcher.Ack.FLUSHED, 100, scheduler);
+
+        List<MonoProcessor<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(batcher.submit(i).toProcessor());
+        }
+
+        assertEquals(List.of(List.of(0, 1, 2)), flushed);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("result " + i, results.get(i).peek());
+        }
+    }
+
+    @Test
+    public void testFlushesAfterDelay() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::flush, 100, Duration.ofMillis(10), MicroBatcher.Ack.FLUSHED, 100, scheduler);
+
+        MonoProcessor<String> first = batcher.submit(1).toProcessor();
+        MonoProcessor<String> second = batcher.submit(2).toProcessor();
+        scheduler.advanceTimeBy(Duration.ofMillis(9));
+        assertTrue(flushed.isEmpty());
+
+        scheduler.advanceTimeBy(Duration.ofMillis(1));
+        assertEquals(List.of(List.of(1, 2)), flushed);
+        assertEquals("result 1", first.peek());
+        assertEquals("result 2", second.peek());
+        assertEquals(1, batcher.stats().batches());
+        assertEquals(0, batcher.stats().pending());
+    }
+
+    @Test
+    public void testQueuedCompletesBeforeFlush() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::flush, 100, Duration.ofMillis(10), MicroBatcher.Ack.QUEUED, 100, scheduler);
+
+        MonoProcessor<String> queued = batcher.submit(1).toProcessor();
+
+        assertTrue(queued.isSuccess());
+        assertNull(queued.peek());
+        assertTrue(flushed.isEmpty());
+        assertEquals(1, batcher.stats().pending());
+
+        scheduler.advanceTimeBy(Duration.ofMillis(10));
+        assertEquals(List.of(List.of(1)), flushed);
+    }
+
+    @Test
+    public void testFailedFlushFailsEveryCaller() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(
+            items -> Mono.error(new IllegalStateException("down")), 2, Duration.ofSeconds(1), MicroBatcher.Ack.FLUSHED, 100, scheduler);
+
+        MonoProcessor<String> first = batcher.submit(1).toProcessor();
+        MonoProcessor<String> second = batcher.submit(2).toProcessor();
+
+        assertEquals("down", first.getError().getMessage());
+        assertEquals("down", second.getError().getMessage());
+        assertEquals(2, batcher.stats().failed());
+    }
+
+    @Test
+    public void testCountsFailedItemsOfQueuedWrites() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::flush, 3, Duration.ofSeconds(1), MicroBatcher.Ack.QUEUED, 100, scheduler)
+            .failedWhen(result -> result.endsWith("2"));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(batcher.submit(i).toProcessor().isSuccess());
+        }
+
+        assertEquals(3, batcher.stats().items());
+        assertEquals(1, batcher.stats().failed());
+    }
+
+    @Test
+    public void testRejectsPastMaxPending() {
+        MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::flush, 100, Duration.ofSeconds(1), MicroBatcher.Ack.QUEUED, 2, scheduler);
+
+        batcher.submit(1).block();
+        batcher.submit(2).block();
+        assertThrows(RejectedExecutionException.class, () -> batcher.submit(3).block());
+        assertEquals(1, batcher.stats().rejected());
+
+        batcher.flush();
+        assertEquals(List.of(List.of(1, 2)), flushed);
+        batcher.submit(3).block();
+    }
+}
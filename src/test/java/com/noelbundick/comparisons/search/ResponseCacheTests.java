@@ -0,0 +1,106 @@
+package com.noelbundick.comparisons.search;
+
+import com.noelbundick.comparisons.web.BufferedResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+public class ResponseCacheTests {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testHitsUntilTtlExpires() {
+        ResponseCache cache = new ResponseCache(Duration.ofSeconds(10), 10, now::get);
+
+        assertEquals(1, load(cache, "count"));
+        assertEquals(1, load(cache, "count"));
+
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertEquals(2, load(cache, "count"));
+
+        ResponseCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(1, stats.evictions());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(Duration.ofSeconds(10), 2, now::get);
+
+        load(cache, "a");
+        load(cache, "b");
+        load(cache, "a");
+        load(cache, "c");
+
+        assertEquals(2, cache.stats().size());
+        assertEquals(1, cache.stats().evictions());
+        // "b" was the least recently used, so it's the one that has to be loaded again
+        assertEquals(1, load(cache, "a"));
+        assertEquals(4, load(cache, "b"));
+    }
+
+    @Test
+    public void testCoalescesConcurrentMisses() {
+        ResponseCache cache = new ResponseCache(Duration.ofSeconds(10), 10, now::get);
+        MonoProcessor<BufferedResponse> backend = MonoProcessor.create();
+
+        Mono<BufferedResponse> first = cache.get("search", () -> {
+            loads.incrementAndGet();
+            return backend;
+        });
+        Mono<BufferedResponse> second = cache.get("search", () -> {
+            loads.incrementAndGet();
+            return backend;
+        });
+        MonoProcessor<BufferedResponse> firstResult = first.toProcessor();
+        MonoProcessor<BufferedResponse> secondResult = second.toProcessor();
+
+        BufferedResponse.from(ok().bodyValue("hotels").block()).subscribe(backend);
+
+        assertEquals("hotels", firstResult.block().body());
+        assertEquals("hotels", secondResult.block().body());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.stats().misses());
+        assertEquals(1, cache.stats().coalesced());
+    }
+
+    @Test
+    public void testInvalidateDropsEntries() {
+        ResponseCache cache = new ResponseCache(Duration.ofSeconds(10), 10, now::get);
+
+        load(cache, "count");
+        cache.invalidate();
+
+        assertEquals(0, cache.stats().size());
+        assertEquals(2, load(cache, "count"));
+    }
+
+    @Test
+    public void testErrorResponsesAreNotCached() {
+        ResponseCache cache = new ResponseCache(Duration.ofSeconds(10), 10, now::get);
+
+        cache.get("count", () -> ServerResponse.status(503).bodyValue("unavailable").flatMap(BufferedResponse::from))
+            .block();
+
+        assertEquals(0, cache.stats().size());
+    }
+
+    // Load through the cache and return which load served the response
+    private int load(ResponseCache cache, String key) {
+        BufferedResponse response = cache.get(key, () -> {
+            int load = loads.incrementAndGet();
+            return ok().bodyValue(load).flatMap(BufferedResponse::from);
+        }).block();
+        return (Integer) response.body();
+    }
+}
@@ -0,0 +1,145 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.core.http.HttpClient;
+import com.azure.search.ApiKeyCredentials;
+import com.azure.search.SearchServiceClientBuilder;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.noelbundick.comparisons.stub.StubBackend;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side cost of each SearchHandler operation for both backends, measured against local stand-ins that
+ * replay recorded responses. Each operation includes writing the response body, the way WebFlux would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class SearchHandlerBenchmark {
+    @Param({"azure", "elasticsearch"})
+    public String backend;
+
+    private StubBackend stub;
+    private SearchHandler handler;
+    private ServerRequest request;
+    private ServerRequest bulkRequest;
+    private ServerRequest localRequest;
+    private ServerResponse.Context context;
+
+    @Setup
+    public void setup() {
+        // searchNearby with source=local searches these instead of the backend
+        GeoIndex geoIndex = new GeoIndex();
+        new HotelGenerator(HotelGenerator.DEFAULT_SEED).elasticsearchHotels(100000).doOnNext(geoIndex::put).blockLast();
+
+        if (backend.equals("azure")) {
+            stub = StubBackend.azureSearch();
+            handler = new AzureSearchHandler(new SearchServiceClientBuilder()
+                .endpoint("https://stub.search.windows.net")
+                .credential(new ApiKeyCredentials("stub-key"))
+                .addPolicy(stub.redirectPolicy())
+                .buildAsyncClient(),
+                AzureSearchHandler.searchPipeline("stub-key", HttpClient.createDefault(), stub.redirectPolicy()))
+                .geoIndex(geoIndex);
+        } else {
+            stub = StubBackend.elasticsearch();
+            handler = new ElasticsearchHandler(stub.endpoint())
+                .geoIndex(geoIndex);
+        }
+
+        request = MockServerRequest.builder().build();
+        bulkRequest = MockServerRequest.builder().queryParam("count", "1000").build();
+        localRequest = MockServerRequest.builder().queryParam("source", "local").build();
+
+        // Match the application's Jackson configuration
+        HandlerStrategies strategies = HandlerStrategies.builder()
+            .codecs(codecs -> codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(
+                Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.FAIL_ON_EMPTY_BEANS).build())))
+            .build();
+        context = new ServerResponse.Context() {
+            @Override
+            public List<HttpMessageWriter<?>> messageWriters() {
+                return strategies.messageWriters();
+            }
+
+            @Override
+            public List<ViewResolver> viewResolvers() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    @TearDown
+    public void teardown() {
+        stub.close();
+    }
+
+    @Benchmark
+    public Object count() {
+        return write(handler.count(request));
+    }
+
+    @Benchmark
+    public Object search() {
+        return write(handler.search(request));
+    }
+
+    @Benchmark
+    public Object searchWithPaging() {
+        return write(handler.searchWithPaging(request));
+    }
+
+    @Benchmark
+    public Object searchWithFacets() {
+        return write(handler.searchWithFacets(request));
+    }
+
+    @Benchmark
+    public Object searchWithCustomTypes() {
+        return write(handler.searchWithCustomTypes(request));
+    }
+
+    @Benchmark
+    public Object searchNearby() {
+        return write(handler.searchNearby(request));
+    }
+
+    @Benchmark
+    public Object searchNearbyLocal() {
+        return write(handler.searchNearby(localRequest));
+    }
+
+    @Benchmark
+    public Object indexing() {
+        return write(handler.indexing(request));
+    }
+
+    @Benchmark
+    public Object bulkIndexing() {
+        return write(handler.bulkIndexing(bulkRequest));
+    }
+
+    // Render the response into a mock exchange, so lazily-evaluated bodies hit the backend too
+    private Object write(Mono<ServerResponse> response) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        response.flatMap(res -> res.writeTo(exchange, context)).block();
+        return exchange.getResponse().getBodyAsString().block();
+    }
+}
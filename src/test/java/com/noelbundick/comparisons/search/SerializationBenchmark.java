@@ -0,0 +1,213 @@
+package com.noelbundick.comparisons.search;
+
+import com.azure.search.Document;
+import com.azure.search.implementation.SerializationUtil;
+import com.azure.search.models.FacetResult;
+import com.azure.search.models.IndexBatch;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.noelbundick.comparisons.search.models.AzureHotel;
+import com.noelbundick.comparisons.search.models.ElasticsearchHotel;
+import com.noelbundick.comparisons.search.models.HotelAddress;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU-bound pieces of each handler in isolation: JSON (de)serialization, type conversion, facet map building
+ * and bulk request construction
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class SerializationBenchmark {
+    private ElasticsearchHandler elasticsearchHandler;
+    private ElasticsearchHotel elasticsearchHotel;
+    private String elasticsearchJson;
+    private SearchHit[] elasticsearchHits;
+    private Document azureDocument;
+    private byte[] azureDocumentJson;
+    private byte[] azureSearchResponse;
+    private JsonCodec codec;
+    private JsonCodec afterburnerCodec;
+    private Map<String, List<FacetResult>> azureFacets;
+    private FacetIndex facetIndex;
+
+    @Setup
+    public void setup() throws IOException {
+        // Never connects - only used for its serialization helpers
+        elasticsearchHandler = new ElasticsearchHandler("http://127.0.0.1:9200");
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode esHit = readRecording(mapper, "elasticsearch/search.json").at("/hits/hits/0/_source");
+        elasticsearchJson = mapper.writeValueAsString(esHit);
+        elasticsearchHotel = elasticsearchHandler.deserialize(elasticsearchJson, ElasticsearchHotel.class);
+        elasticsearchHits = new SearchHit[]{new SearchHit(0, elasticsearchHotel.hotelId(), null, Collections.emptyMap())
+            .sourceRef(new BytesArray(elasticsearchJson))};
+
+        // Parse the Azure recordings the way the SDK does, so documents hold the same types
+        ObjectMapper sdkMapper = new ObjectMapper();
+        SerializationUtil.configureMapper(sdkMapper);
+        sdkMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        JsonNode azureSearch = readRecording(sdkMapper, "azure/search.json");
+        azureDocument = sdkMapper.convertValue(azureSearch.at("/value/0"), Document.class);
+        azureDocumentJson = mapper.writeValueAsBytes(azureSearch.at("/value/0"));
+        azureSearchResponse = mapper.writeValueAsBytes(azureSearch);
+        codec = new JsonCodec(false);
+        afterburnerCodec = new JsonCodec(true);
+        azureFacets = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> facets = readRecording(sdkMapper, "azure/facets.json").get("@search.facets").fields();
+        while (facets.hasNext()) {
+            Map.Entry<String, JsonNode> facet = facets.next();
+            List<FacetResult> results = new ArrayList<>();
+            for (JsonNode value : facet.getValue()) {
+                results.add(facetResult(sdkMapper.convertValue(value, new TypeReference<Map<String, Object>>() {
+                })));
+            }
+            azureFacets.put(facet.getKey(), results);
+        }
+
+        facetIndex = new FacetIndex();
+        new HotelGenerator(HotelGenerator.DEFAULT_SEED).azureHotels(10000).doOnNext(facetIndex::put).blockLast();
+    }
+
+    @Benchmark
+    public String elasticsearchSerialize() {
+        return elasticsearchHandler.serialize(elasticsearchHotel);
+    }
+
+    @Benchmark
+    public ElasticsearchHotel elasticsearchDeserialize() {
+        return elasticsearchHandler.deserialize(elasticsearchJson, ElasticsearchHotel.class);
+    }
+
+    // The old searchWithCustomTypes path, which copied each hit's _source into a String first
+    @Benchmark
+    public ElasticsearchHotel elasticsearchDeserializeSourceString() {
+        return elasticsearchHandler.deserialize(elasticsearchHits[0].getSourceAsString(), ElasticsearchHotel.class);
+    }
+
+    @Benchmark
+    public List<ElasticsearchHotel> elasticsearchDecodeSourceRef() {
+        return elasticsearchHandler.decodeHits(elasticsearchHits, false).block();
+    }
+
+    // The old AzureSearchHandler.searchWithCustomTypes path: a mapper per request, then convertValue per document
+    @Benchmark
+    public AzureHotel azureConvertValue() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return mapper.convertValue(azureDocument, AzureHotel.class);
+    }
+
+    // The same conversion with a mapper that's configured once
+    @Benchmark
+    public AzureHotel azureCodecConvert() {
+        return codec.convert(azureDocument, AzureHotel.class);
+    }
+
+    // What searchWithCustomTypes does now: read the hotel straight from the response bytes
+    @Benchmark
+    public AzureHotel azureCodecDecode() {
+        return codec.decode(azureDocumentJson, 0, azureDocumentJson.length, AzureHotel.class);
+    }
+
+    @Benchmark
+    public AzureHotel azureCodecDecodeAfterburner() {
+        return afterburnerCodec.decode(azureDocumentJson, 0, azureDocumentJson.length, AzureHotel.class);
+    }
+
+    // A whole recorded page of results, skipping the search metadata around them
+    @Benchmark
+    public List<AzureHotel> azureCodecDecodeResults() {
+        return codec.decodeArray(azureSearchResponse, "value", AzureHotel.class);
+    }
+
+    @Benchmark
+    public Object azureFacetCounts() {
+        return AzureSearchHandler.facetCounts(azureFacets);
+    }
+
+    // Counting 10000 hotels in process, then building the same response map
+    @Benchmark
+    public FacetIndex.Counts localFacetCounts() {
+        return facetIndex.counts();
+    }
+
+    @Benchmark
+    public Object localFacetCountsMap() {
+        return facetIndex.counts().toMap(AzureSearchHandler.FACETS);
+    }
+
+    @Benchmark
+    public BulkRequest elasticsearchBulkRequest() {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int i = 0; i < 1000; i++) {
+            ElasticsearchHotel hotel = new ElasticsearchHotel()
+                .hotelId(Integer.toString(i))
+                .address(new HotelAddress().city("Seattle"));
+
+            bulkRequest.add(new IndexRequest("hotels")
+                .id(hotel.hotelId())
+                .source(elasticsearchHandler.serializeToBytes(hotel), XContentType.JSON));
+        }
+        return bulkRequest;
+    }
+
+    @Benchmark
+    public IndexBatch<AzureHotel> azureIndexBatch() {
+        IndexBatch<AzureHotel> batch = new IndexBatch<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.addUploadAction(new AzureHotel()
+                .hotelId(Integer.toString(i))
+                .address(new HotelAddress().city("Seattle"))
+            );
+        }
+        return batch;
+    }
+
+    // The SDK fills in FacetResult with its own deserializer, which isn't public
+    private static FacetResult facetResult(Map<String, Object> properties) {
+        try {
+            FacetResult result = new FacetResult();
+            Field count = FacetResult.class.getDeclaredField("count");
+            count.setAccessible(true);
+            count.set(result, ((Number) properties.remove("count")).longValue());
+            Field additionalProperties = FacetResult.class.getDeclaredField("additionalProperties");
+            additionalProperties.setAccessible(true);
+            additionalProperties.set(result, properties);
+            return result;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static JsonNode readRecording(ObjectMapper mapper, String name) throws IOException {
+        try (InputStream in = SerializationBenchmark.class.getClassLoader().getResourceAsStream("recordings/" + name)) {
+            return mapper.readTree(in);
+        }
+    }
+}
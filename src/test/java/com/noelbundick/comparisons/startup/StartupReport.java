@@ -0,0 +1,101 @@
+package com.noelbundick.comparisons.startup;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time to first request for each way of starting the application, over a number of runs
+ */
+public class StartupReport {
+    @JsonProperty(value = "path")
+    private final String path;
+
+    @JsonProperty(value = "scenarios")
+    private final Map<String, Scenario> scenarios = new LinkedHashMap<>();
+
+    StartupReport(String path) {
+        this.path = path;
+    }
+
+    void add(String scenario, List<Double> runsMs) {
+        scenarios.put(scenario, new Scenario(runsMs));
+    }
+
+    public Map<String, Scenario> scenarios() {
+        return scenarios;
+    }
+
+    /**
+     * Reasons the run should fail a regression check, if any: a scenario whose median is over budget
+     */
+    public List<String> check(double maxMs) {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, Scenario> entry : scenarios.entrySet()) {
+            if (maxMs > 0 && entry.getValue().medianMs > maxMs) {
+                failures.add(String.format(Locale.ROOT, "%s: median time to first request of %.0fms, more than %.0fms",
+                    entry.getKey(), entry.getValue().medianMs, maxMs));
+            }
+        }
+        return failures;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("Time from launching java to the first response from %s%n", path);
+        out.printf(Locale.ROOT, "%-24s %5s %9s %9s %9s%n", "scenario", "runs", "min ms", "median ms", "max ms");
+        for (Map.Entry<String, Scenario> entry : scenarios.entrySet()) {
+            Scenario s = entry.getValue();
+            out.printf(Locale.ROOT, "%-24s %5d %9.0f %9.0f %9.0f%n",
+                entry.getKey(), s.runsMs.size(), s.minMs, s.medianMs, s.maxMs);
+        }
+    }
+
+    public void write(Path json) {
+        try {
+            Files.createDirectories(json.toAbsolutePath().getParent());
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(json.toFile(), this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class Scenario {
+        @JsonProperty(value = "minMs")
+        private final double minMs;
+
+        @JsonProperty(value = "medianMs")
+        private final double medianMs;
+
+        @JsonProperty(value = "maxMs")
+        private final double maxMs;
+
+        @JsonProperty(value = "runsMs")
+        private final List<Double> runsMs;
+
+        Scenario(List<Double> runsMs) {
+            List<Double> sorted = new ArrayList<>(runsMs);
+            Collections.sort(sorted);
+            int middle = sorted.size() / 2;
+            this.minMs = sorted.get(0);
+            this.maxMs = sorted.get(sorted.size() - 1);
+            this.medianMs = sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+            this.runsMs = runsMs;
+        }
+
+        public double medianMs() {
+            return medianMs;
+        }
+    }
+}
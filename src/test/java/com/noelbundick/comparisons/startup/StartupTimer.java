@@ -0,0 +1,257 @@
+package com.noelbundick.comparisons.startup;
+
+import com.noelbundick.comparisons.Application;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the application takes from launching java to answering its first request, started a few ways:
+ * as configured, with the fast-startup profile, and with that profile plus an AppCDS archive of the classes a
+ * training run of it loaded. Each run is a process of its own, so class loading and JIT warmup count as they
+ * would for a new pod. Configured with system properties; see the startup profile in pom.xml.
+ */
+public class StartupTimer {
+    static final String DEFAULT = "default";
+    static final String FAST_STARTUP = "fast-startup";
+    static final String FAST_STARTUP_CDS = "fast-startup+cds";
+
+    private final String classpath;
+    private final String path;
+    private final Duration timeout;
+    private final Path directory;
+    private final List<String> appArgs;
+
+    StartupTimer(String classpath, String path, Duration timeout, Path directory, List<String> appArgs) {
+        this.classpath = classpath;
+        this.path = path;
+        this.timeout = timeout;
+        this.directory = directory;
+        this.appArgs = appArgs;
+    }
+
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            status = 2;
+        }
+        System.exit(status);
+    }
+
+    private static int run() {
+        String classpath = System.getProperty("startup.classpath", System.getProperty("java.class.path"));
+        List<String> scenarios = split(System.getProperty("startup.scenarios", String.join(",", DEFAULT, FAST_STARTUP, FAST_STARTUP_CDS)));
+        int runs = Integer.parseInt(System.getProperty("startup.runs", "5"));
+        String path = System.getProperty("startup.path", "/hello");
+        Duration timeout = DurationStyle.detectAndParse(System.getProperty("startup.timeout", "60s"));
+        Path directory = Paths.get(System.getProperty("startup.dir", "target/startup"));
+        String reportFile = System.getProperty("startup.report", "target/startup-report.json");
+        double maxMs = Double.parseDouble(System.getProperty("startup.max-ms", "0"));
+        // Comma-separated key=value settings for the application, passed to every run
+        List<String> appArgs = new ArrayList<>();
+        split(System.getProperty("startup.app-properties", "")).forEach(property -> appArgs.add("--" + property));
+
+        StartupTimer timer = new StartupTimer(classpath, path, timeout, directory, appArgs);
+        StartupReport report = new StartupReport(path);
+        for (String scenario : scenarios) {
+            List<String> jvmArgs = timer.prepare(scenario);
+            List<Double> runsMs = new ArrayList<>();
+            for (int run = 1; run <= runs; run++) {
+                double ms = timer.timeToFirstRequest(scenario, run, jvmArgs, profileArgs(scenario));
+                System.out.printf("%s run %d: %.0fms%n", scenario, run, ms);
+                runsMs.add(ms);
+            }
+            report.add(scenario, runsMs);
+        }
+
+        report.print(System.out);
+        report.write(Paths.get(reportFile));
+        System.out.printf("Report written to %s%n", reportFile);
+
+        List<String> failures = report.check(maxMs);
+        failures.forEach(failure -> System.err.println("FAILED: " + failure));
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * The JVM options a scenario runs with, building its class data archive first if it has one
+     */
+    List<String> prepare(String scenario) {
+        switch (scenario) {
+            case DEFAULT:
+            case FAST_STARTUP:
+                return new ArrayList<>();
+            case FAST_STARTUP_CDS:
+                return Arrays.asList("-Xshare:auto", "-XX:SharedArchiveFile=" + archive(FAST_STARTUP));
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+    }
+
+    /**
+     * Runs the application once to record which classes it loads, up to and including its first request, then dumps
+     * them into a shared archive. This is the JDK 11 way; JDK 13 and later could use -XX:ArchiveClassesAtExit instead.
+     */
+    Path archive(String scenario) {
+        try {
+            Files.createDirectories(directory);
+            Path classList = directory.resolve(scenario + ".classlist").toAbsolutePath();
+            Path archive = directory.resolve(scenario + ".jsa").toAbsolutePath();
+
+            System.out.printf("Recording the classes %s loads%n", scenario);
+            timeToFirstRequest(scenario, 0, Arrays.asList("-Xshare:off", "-XX:DumpLoadedClassList=" + classList),
+                profileArgs(scenario));
+
+            System.out.printf("Archiving them to %s%n", archive);
+            Process dump = new ProcessBuilder(java(), "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive, "-cp", classpath)
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve(scenario + "-dump.log").toFile())
+                .start();
+            if (!dump.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS) || dump.exitValue() != 0) {
+                dump.destroyForcibly();
+                throw new IllegalStateException("Dumping the class data archive failed, see " + directory.resolve(scenario + "-dump.log"));
+            }
+            return archive;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Launches the application and polls path until it answers with a 2xx, then stops it
+     */
+    double timeToFirstRequest(String scenario, int run, List<String> jvmArgs, List<String> profileArgs) {
+        Path log = directory.resolve(String.format("%s-%d.log", scenario, run));
+        Process app = null;
+        try {
+            Files.createDirectories(directory);
+            int port = freePort();
+
+            List<String> command = new ArrayList<>();
+            command.add(java());
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(classpath);
+            command.add(Application.class.getName());
+            command.add("--server.port=" + port);
+            command.addAll(profileArgs);
+            command.addAll(appArgs);
+
+            ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile());
+            placeholders(builder.environment());
+
+            long start = System.nanoTime();
+            long deadline = start + timeout.toNanos();
+            app = builder.start();
+            URL url = new URL(String.format("http://127.0.0.1:%d%s", port, path));
+            while (!answers(url)) {
+                if (!app.isAlive()) {
+                    throw new IllegalStateException(String.format("%s exited with %d before answering, see %s", scenario, app.exitValue(), log));
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(String.format("%s didn't answer within %s, see %s", scenario, timeout, log));
+                }
+                Thread.sleep(5);
+            }
+            return (System.nanoTime() - start) / 1e6;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            if (app != null) {
+                stop(app);
+            }
+        }
+    }
+
+    private static List<String> profileArgs(String scenario) {
+        List<String> args = new ArrayList<>();
+        if (!scenario.equals(DEFAULT)) {
+            args.add("--spring.profiles.active=fast-startup");
+        }
+        return args;
+    }
+
+    // The application won't start without these. Clients are built from them but don't connect until they're used.
+    private static void placeholders(Map<String, String> env) {
+        env.putIfAbsent("ELASTICSEARCH_HOST", "http://127.0.0.1:9200");
+        env.putIfAbsent("AZURE_SEARCH_ENDPOINT", "https://startup.search.windows.net");
+        env.putIfAbsent("AZURE_SEARCH_KEY", "startup-key");
+        env.putIfAbsent("AZURE_STORAGE_CONN_STRING",
+            "DefaultEndpointsProtocol=http;AccountName=startup;AccountKey=c3RhcnR1cA==;BlobEndpoint=http://127.0.0.1:10000/startup");
+    }
+
+    private static boolean answers(URL url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(100);
+            connection.setReadTimeout((int) Duration.ofSeconds(30).toMillis());
+            try {
+                int status = connection.getResponseCode();
+                return status >= 200 && status < 300;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            // Not listening yet
+            return false;
+        }
+    }
+
+    // A clean exit, so a training run gets to finish writing its class list
+    private static void stop(Process app) {
+        app.destroy();
+        try {
+            if (!app.waitFor(10, TimeUnit.SECONDS)) {
+                app.destroyForcibly().waitFor();
+            }
+        } catch (InterruptedException e) {
+            app.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String java() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    private static List<String> split(String list) {
+        List<String> items = new ArrayList<>();
+        for (String item : list.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,192 @@
+package com.noelbundick.comparisons.storage;
+
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.noelbundick.comparisons.stub.StubBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+public class AzureStorageHandlerTests {
+    private StubBackend stub;
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        stub = StubBackend.azureStorage();
+        AzureStorageHandler handler = new AzureStorageHandler(new BlobServiceClientBuilder()
+            .connectionString(stub.connectionString())
+            .buildAsyncClient());
+
+        webTestClient = WebTestClient.bindToRouterFunction(route()
+            .GET("/storage/blobs", handler::listAllBlobs)
+            .GET("/storage/blobs/grouped", handler::listAllBlobsGrouped)
+            .GET("/storage/containers/{container}/blobs/{*blob}", handler::downloadBlob)
+            .PUT("/storage/containers/{container}/blobs/{*blob}", handler::uploadBlob)
+            .build()
+        ).build();
+    }
+
+    @AfterEach
+    public void teardown() {
+        stub.close();
+    }
+
+    @Test
+    public void testStreamsBlobsGroupedByContainer() {
+        List<Map<String, Object>> blobs = webTestClient.get().uri("/storage/blobs?concurrency=2&pageSize=10")
+            .accept(MediaType.APPLICATION_STREAM_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(new ParameterizedTypeReference<Map<String, Object>>() {
+            })
+            .getResponseBody()
+            .collectList()
+            .block();
+
+        List<String> containers = blobs.stream()
+            .map(blob -> (String) blob.get("container"))
+            .collect(Collectors.toList());
+        assertEquals(Arrays.asList("hotels", "hotels", "hotels", "images", "images"), containers);
+    }
+
+    @Test
+    public void testGroupedListingStartsFreshEachRequest() {
+        for (int i = 0; i < 2; i++) {
+            Map<String, List<Object>> grouped = webTestClient.get().uri("/storage/blobs/grouped")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(new ParameterizedTypeReference<Map<String, List<Object>>>() {
+                })
+                .returnResult()
+                .getResponseBody();
+
+            assertEquals(3, grouped.get("hotels").size());
+            assertEquals(2, grouped.get("images").size());
+        }
+    }
+
+    @Test
+    public void testDownloadsWholeBlob() {
+        stub.blobStore().put("/devstoreaccount1/hotels/rooms/101.txt", "hello, blob".getBytes());
+
+        webTestClient.get().uri("/storage/containers/hotels/blobs/rooms/101.txt")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "bytes")
+            .expectBody(String.class).isEqualTo("hello, blob");
+    }
+
+    @Test
+    public void testDownloadsLargeBlobIntact() {
+        // Large enough to arrive in many chunks, each of which is released by the client as soon as it's handed on
+        byte[] content = new byte[8 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        stub.blobStore().put("/devstoreaccount1/hotels/large.bin", content);
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        webTestClient.get().uri("/storage/containers/hotels/blobs/large.bin")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(DataBuffer.class)
+            .getResponseBody()
+            .doOnNext(buffer -> {
+                byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                DataBufferUtils.release(buffer);
+                downloaded.writeBytes(bytes);
+            })
+            .blockLast();
+
+        assertArrayEquals(content, downloaded.toByteArray());
+    }
+
+    @Test
+    public void testStartsOverWhenTheBlobChangesBeforeItsDownloaded() {
+        stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "hello, blob".getBytes());
+        AtomicBoolean overwritten = new AtomicBoolean();
+        stub.blobStore().onProperties(() -> {
+            if (!overwritten.getAndSet(true)) {
+                stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "hello again, blob".getBytes());
+            }
+        });
+
+        webTestClient.get().uri("/storage/containers/hotels/blobs/101.txt")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentLength(17)
+            .expectBody(String.class).isEqualTo("hello again, blob");
+    }
+
+    @Test
+    public void testBlobThatKeepsChangingIsAPreconditionFailure() {
+        stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "hello, blob".getBytes());
+        stub.blobStore().onProperties(() -> stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "changed".getBytes()));
+
+        webTestClient.get().uri("/storage/containers/hotels/blobs/101.txt")
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    public void testDownloadsRange() {
+        stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "hello, blob".getBytes());
+
+        webTestClient.get().uri("/storage/containers/hotels/blobs/101.txt")
+            .header(HttpHeaders.RANGE, "bytes=7-")
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 7-10/11")
+            .expectBody(String.class).isEqualTo("blob");
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        stub.blobStore().put("/devstoreaccount1/hotels/101.txt", "hello, blob".getBytes());
+
+        webTestClient.get().uri("/storage/containers/hotels/blobs/101.txt")
+            .header(HttpHeaders.RANGE, "bytes=20-30")
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */11");
+    }
+
+    @Test
+    public void testMissingBlobIsNotFound() {
+        webTestClient.get().uri("/storage/containers/hotels/blobs/missing.txt")
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void testUploadsBody() {
+        byte[] content = new byte[5 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+
+        webTestClient.put().uri("/storage/containers/hotels/blobs/large.bin?blockSize=1048576&concurrency=4")
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .bodyValue(content)
+            .exchange()
+            .expectStatus().isCreated();
+
+        assertArrayEquals(content, stub.blobStore().get("/devstoreaccount1/hotels/large.bin"));
+    }
+}
@@ -0,0 +1,142 @@
+package com.noelbundick.comparisons.stub;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory stand-in for the parts of the Blob service that read and write block blobs:
+ * get properties, ranged downloads, single-shot uploads and staged blocks with a committed block list.
+ * Each write gives the blob a new ETag, and downloads honor If-Match.
+ */
+public class BlobStore {
+    private static final Pattern BLOCK_ID = Pattern.compile("<(?:Latest|Committed|Uncommitted)>([^<]+)</");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> blocks = new ConcurrentHashMap<>();
+    private final Map<String, String> etagsByPath = new ConcurrentHashMap<>();
+    private final AtomicInteger etags = new AtomicInteger();
+    private volatile Runnable onProperties = () -> {
+    };
+
+    public BlobStore put(String path, byte[] content) {
+        write(path, content);
+        return this;
+    }
+
+    /**
+     * Run action each time a blob's properties are read, after they've been looked up, e.g. to overwrite it before
+     * it's downloaded
+     */
+    public BlobStore onProperties(Runnable action) {
+        this.onProperties = action;
+        return this;
+    }
+
+    public byte[] get(String path) {
+        return blobs.get(path);
+    }
+
+    Mono<Void> handle(HttpServerRequest req, HttpServerResponse res, byte[] body) {
+        QueryStringDecoder uri = new QueryStringDecoder(req.uri());
+        String path = uri.path();
+        String comp = param(uri, "comp");
+
+        if (req.method().equals(HttpMethod.PUT)) {
+            if ("block".equals(comp)) {
+                blocks.put(path + "#" + param(uri, "blockid"), body);
+                return created(res, String.format("\"0x%d\"", etags.incrementAndGet()));
+            }
+            if ("blocklist".equals(comp)) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                Matcher ids = BLOCK_ID.matcher(new String(body, StandardCharsets.UTF_8));
+                while (ids.find()) {
+                    content.writeBytes(blocks.remove(path + "#" + ids.group(1)));
+                }
+                return created(res, write(path, content.toByteArray()));
+            }
+            return created(res, write(path, body));
+        }
+
+        // Read together, so a concurrent write can't pair one version's content with another's ETag
+        byte[] blob;
+        String etag;
+        synchronized (this) {
+            blob = blobs.get(path);
+            etag = etagsByPath.get(path);
+        }
+        if (blob == null) {
+            return res.status(404).header("x-ms-error-code", "BlobNotFound").send();
+        }
+
+        res.header("ETag", etag)
+            .header("Last-Modified", "Mon, 02 Dec 2019 18:00:00 GMT")
+            .header("Content-Type", "application/octet-stream")
+            .header("x-ms-blob-type", "BlockBlob");
+        if (req.method().equals(HttpMethod.HEAD)) {
+            onProperties.run();
+            return res.header("Content-Length", Integer.toString(blob.length)).send();
+        }
+
+        // Like the service, take the ETag with or without its quotes
+        String ifMatch = req.requestHeaders().get("If-Match");
+        if (ifMatch != null && !unquote(ifMatch).equals(unquote(etag))) {
+            return res.status(412).header("x-ms-error-code", "ConditionNotMet").send();
+        }
+
+        String range = req.requestHeaders().get("x-ms-range", req.requestHeaders().get("Range"));
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher == null || !matcher.matches()) {
+            return res.header("Content-Length", Integer.toString(blob.length))
+                .sendByteArray(Mono.just(blob))
+                .then();
+        }
+
+        int start = Integer.parseInt(matcher.group(1));
+        int end = matcher.group(2).isEmpty() ? blob.length - 1 : Math.min(Integer.parseInt(matcher.group(2)), blob.length - 1);
+        byte[] slice = Arrays.copyOfRange(blob, start, end + 1);
+        return res.status(206)
+            .header("Content-Length", Integer.toString(slice.length))
+            .header("Content-Range", String.format("bytes %d-%d/%d", start, end, blob.length))
+            .sendByteArray(Mono.just(slice))
+            .then();
+    }
+
+    private synchronized String write(String path, byte[] content) {
+        String etag = String.format("\"0x%d\"", etags.incrementAndGet());
+        blobs.put(path, content);
+        etagsByPath.put(path, etag);
+        return etag;
+    }
+
+    private Mono<Void> created(HttpServerResponse res, String etag) {
+        return res.status(201)
+            .header("ETag", etag)
+            .header("Last-Modified", "Mon, 02 Dec 2019 18:00:00 GMT")
+            .header("Content-Length", "0")
+            .header("x-ms-request-server-encrypted", "true")
+            .send();
+    }
+
+    private static String unquote(String etag) {
+        return etag.startsWith("\"") && etag.endsWith("\"") ? etag.substring(1, etag.length() - 1) : etag;
+    }
+
+    private static String param(QueryStringDecoder uri, String name) {
+        List<String> values = uri.parameters().get(name);
+        return values == null ? null : values.get(0);
+    }
+}
@@ -0,0 +1,183 @@
+package com.noelbundick.comparisons.stub;
+
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import io.netty.handler.codec.http.HttpMethod;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local HTTP stand-in for a backend service that replays recorded responses from src/test/resources/recordings.
+ * Requests are matched on method, a fragment of the URI and optionally a fragment of the request body.
+ */
+public class StubBackend implements AutoCloseable {
+    private final List<Recording> recordings = new ArrayList<>();
+    private final BlobStore blobStore = new BlobStore();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private DisposableServer server;
+
+    /**
+     * Replays the Elasticsearch REST API calls made by ElasticsearchHandler
+     */
+    public static StubBackend elasticsearch() {
+        return new StubBackend()
+            .on(HttpMethod.POST, "/hotels/_count", null, 200, "elasticsearch/count.json")
+            .on(HttpMethod.POST, "/_search", "\"aggregations\"", 200, "elasticsearch/facets.json")
+            .on(HttpMethod.POST, "/_search", null, 200, "elasticsearch/search.json")
+            .on(HttpMethod.PUT, "/hotels/_doc/", null, 201, "elasticsearch/index.json")
+            .on(HttpMethod.POST, "/_bulk", null, 200, "elasticsearch/bulk.json")
+            .start();
+    }
+
+    /**
+     * Replays the Blob service calls made by AzureStorageHandler, in the shape Azurite answers them.
+     * Anything else under the account is served from blobStore(). Connect with connectionString()
+     */
+    public static StubBackend azureStorage() {
+        return new StubBackend()
+            .on(HttpMethod.GET, "/devstoreaccount1?", null, 200, "storage/containers.xml")
+            .on(HttpMethod.GET, "/devstoreaccount1/hotels?", null, 200, "storage/blobs-hotels.xml")
+            .on(HttpMethod.GET, "/devstoreaccount1/images?", null, 200, "storage/blobs-images.xml")
+            .start();
+    }
+
+    /**
+     * Replays the Azure Cognitive Search REST API calls made by AzureSearchHandler
+     */
+    public static StubBackend azureSearch() {
+        return new StubBackend()
+            .on(HttpMethod.GET, "/docs/$count", null, 200, "azure/count.json")
+            .on(HttpMethod.POST, "/docs/search.post.search", "\"facets\"", 200, "azure/facets.json")
+            .on(HttpMethod.POST, "/docs/search.post.search", null, 200, "azure/search.json")
+            .on(HttpMethod.POST, "/docs/search.index", null, 200, "azure/index.json")
+            .start();
+    }
+
+    public StubBackend on(HttpMethod method, String uriFragment, String bodyFragment, int status, String recording) {
+        String contentType = recording.endsWith(".xml") ? "application/xml" : "application/json";
+        recordings.add(new Recording(method, uriFragment, bodyFragment, status, contentType, read(recording)));
+        return this;
+    }
+
+    public StubBackend start() {
+        server = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .handle(this::handle)
+            .bindNow();
+        return this;
+    }
+
+    /**
+     * Blob content that unmatched requests are read from and written to
+     */
+    public BlobStore blobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Every request received so far, in order, as its method, URI and body
+     */
+    public List<String> requests() {
+        return requests;
+    }
+
+    public String endpoint() {
+        return String.format("http://127.0.0.1:%d", server.port());
+    }
+
+    /**
+     * A storage connection string for the Azurite development account, pointed at this stub
+     */
+    public String connectionString() {
+        return String.format("DefaultEndpointsProtocol=http;AccountName=devstoreaccount1;"
+            + "AccountKey=Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==;"
+            + "BlobEndpoint=%s/devstoreaccount1;", endpoint());
+    }
+
+    /**
+     * The Azure SDK always builds https://{service}.{dnsSuffix} URLs, so send its requests here instead
+     */
+    public HttpPipelinePolicy redirectPolicy() {
+        return (context, next) -> {
+            try {
+                URL url = context.getHttpRequest().getUrl();
+                context.getHttpRequest().setUrl(new URL("http", "127.0.0.1", server.port(), url.getFile()));
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+            return next.process();
+        };
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private Mono<Void> handle(HttpServerRequest req, HttpServerResponse res) {
+        return req.receive().aggregate().asByteArray().defaultIfEmpty(new byte[0])
+            .flatMap(bytes -> {
+                String body = new String(bytes, StandardCharsets.UTF_8);
+                requests.add(String.format("%s %s %s", req.method(), req.uri(), body));
+                for (Recording recording : recordings) {
+                    if (recording.matches(req, body)) {
+                        return res.status(recording.status)
+                            .header("Content-Type", recording.contentType)
+                            .sendByteArray(Mono.just(recording.body))
+                            .then();
+                    }
+                }
+                if (req.uri().startsWith("/devstoreaccount1/")) {
+                    return blobStore.handle(req, res, bytes);
+                }
+                return res.status(404).send();
+            });
+    }
+
+    private static byte[] read(String recording) {
+        try (InputStream in = StubBackend.class.getClassLoader().getResourceAsStream("recordings/" + recording)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No recording named " + recording);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Recording {
+        private final HttpMethod method;
+        private final String uriFragment;
+        private final String bodyFragment;
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        Recording(HttpMethod method, String uriFragment, String bodyFragment, int status, String contentType, byte[] body) {
+            this.method = method;
+            this.uriFragment = uriFragment;
+            this.bodyFragment = bodyFragment;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        boolean matches(HttpServerRequest req, String requestBody) {
+            return method.equals(req.method())
+                && req.uri().contains(uriFragment)
+                && (bodyFragment == null || requestBody.contains(bodyFragment));
+        }
+    }
+}